@@ -0,0 +1,130 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented benchmark of the list reads running together with the sale writes,
+ * with the rollback journal and with write-ahead logging.
+ * The results are written to the log with the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemDbConcurrencyBenchmark {
+
+    private static final String LOG_TAG = ItemDbConcurrencyBenchmark.class.getSimpleName();
+
+    private static final int ITEM_COUNT = 10000;
+    private static final long RUN_MILLIS = 5000;
+
+    @Test
+    public void listReadsDuringSales_rollbackJournal() throws Exception {
+        run("rollback journal", false);
+    }
+
+    @Test
+    public void listReadsDuringSales_writeAheadLogging() throws Exception {
+        run("write-ahead logging", true);
+    }
+
+    private void run(String mode, boolean writeAheadLogging) throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        String name = "benchmark_" + writeAheadLogging + ".db";
+        context.deleteDatabase(name);
+        ItemDbHelper helper = new ItemDbHelper(context, name, writeAheadLogging);
+        try {
+            final SQLiteDatabase database = helper.getWritableDatabase();
+            fill(database);
+            assertEquals(ITEM_COUNT, DatabaseUtils.queryNumEntries(database, ItemEntry.TABLE_NAME));
+
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final long[] writes = new long[1];
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // The same statement as the sale button
+                    SQLiteStatement sale = database.compileStatement("UPDATE " + ItemEntry.TABLE_NAME
+                            + " SET " + ItemEntry.COLUMN_ITEM_QUANTITY + " = " + ItemEntry.COLUMN_ITEM_QUANTITY
+                            + " + ? WHERE " + ItemEntry._ID + " = ?");
+                    try {
+                        while (running.get()) {
+                            sale.bindLong(1, writes[0] % 2 == 0 ? -1 : 1);
+                            sale.bindLong(2, 1 + writes[0] % ITEM_COUNT);
+                            sale.executeUpdateDelete();
+                            writes[0]++;
+                        }
+                    } finally {
+                        sale.close();
+                    }
+                }
+            });
+
+            // The same query as a page of the list
+            long[] latencies = new long[100000];
+            int reads = 0;
+            writer.start();
+            long end = System.currentTimeMillis() + RUN_MILLIS;
+            while (System.currentTimeMillis() < end && reads < latencies.length) {
+                long start = System.nanoTime();
+                Cursor cursor = database.query(ItemEntry.TABLE_NAME, null, ItemEntry._ID + " > ?",
+                        new String[]{String.valueOf(reads * 100 % ITEM_COUNT)}, null, null,
+                        ItemEntry._ID + " ASC", "100");
+                try {
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+                latencies[reads++] = System.nanoTime() - start;
+            }
+            running.set(false);
+            writer.join();
+
+            Arrays.sort(latencies, 0, reads);
+            Log.i(LOG_TAG, mode + ": " + reads + " page reads and " + writes[0] + " sale writes in "
+                    + RUN_MILLIS + " ms, read p50 " + latencies[reads / 2] / 1000 + " us, p99 "
+                    + latencies[reads * 99 / 100] / 1000 + " us");
+            assertTrue(reads > 0);
+        } finally {
+            helper.close();
+            context.deleteDatabase(name);
+        }
+    }
+
+    private static void fill(SQLiteDatabase database) {
+        ContentValues values = new ContentValues();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ITEM_COUNT; i++) {
+                values.put(ItemEntry.COLUMN_ITEM_PRODUCT_NAME, "Product " + i);
+                values.put(ItemEntry.COLUMN_ITEM_DESCRIPTION, "Description of the product " + i);
+                values.put(ItemEntry.COLUMN_ITEM_PRICE, 100);
+                values.put(ItemEntry.COLUMN_ITEM_AVAILABILITY, ItemEntry.ITEM_IN_STOCK);
+                values.put(ItemEntry.COLUMN_ITEM_QUANTITY, 1000);
+                values.put(ItemEntry.COLUMN_ITEM_SUPPLIER_ID, ItemEntry.SUPPLIER_MAIN);
+                // The supplier name and phone number are only columns of the view, insert() would
+                // quietly skip the rows with them
+                database.insertOrThrow(ItemEntry.TABLE_NAME, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+}
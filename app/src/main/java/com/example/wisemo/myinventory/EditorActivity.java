@@ -1,5 +1,6 @@
 package com.example.wisemo.myinventory;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -11,6 +12,7 @@ import android.support.v4.app.LoaderManager;
 import android.support.v4.app.NavUtils;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.widget.SimpleCursorAdapter;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
@@ -27,12 +29,16 @@ import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.wisemo.myinventory.data.InventoryWriteQueue;
 import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+import com.example.wisemo.myinventory.data.ItemContract.StockMovementEntry;
+import com.example.wisemo.myinventory.data.ItemContract.SupplierEntry;
 
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
-    // Loader constant
+    // Loader constants
     private static final int EXISTING_ITEM_LOADER = 0;
+    private static final int SUPPLIERS_LOADER = 1;
 
     /**
      * Content URI for the existing item (null if it's a new item)
@@ -60,6 +66,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /* Spinner field to enter the product item's Supplier Name */
     private Spinner mSupplierNameSpinner;
 
+    /* Adapter of the supplier spinner, over the rows of the suppliers table */
+    private SimpleCursorAdapter mSupplierAdapter;
+
     /* EditText field to enter the product item's Supplier Phone Number */
     private EditText mSupplierPhoneNumberEditText;
 
@@ -85,13 +94,22 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private int mInStock = ItemEntry.ITEM_IN_STOCK;
 
     /**
-     * Suppliers of the item. The possible valid values are in the ItemContract.java file:
-     * * {@link ItemEntry#SUPPLIER_MAIN}, OR
-     * {@link ItemEntry#SUPPLIER_NUMBER_ONE}, OR
-     * {@link ItemEntry#SUPPLIER_NUMBER_TWO}, OR
-     * {@link ItemEntry#SUPPLIER_NUMBER_THREE}.
+     * Supplier of the item, the ID of a row of the suppliers table.
+     * New items go to the {@link ItemEntry#SUPPLIER_MAIN} by default.
+     */
+    private long mSupplierId = ItemEntry.SUPPLIER_MAIN;
+
+    /**
+     * Phone number stored for the selected supplier (null until the suppliers are loaded),
+     * a different phone number in the editor is saved to the supplier.
+     */
+    private String mSupplierPhone;
+
+    /**
+     * Quantity of the item as last loaded from the provider, a different quantity in the editor
+     * is saved as the change from it.
      */
-    private int mSupplierName = ItemEntry.SUPPLIER_MAIN;
+    private int mLoadedQuantity;
 
     /**
      * Boolean flag that keeps track of whether the item has been edited (true) or not (false)
@@ -133,6 +151,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             // and display the current values in the editor
             getSupportLoaderManager().initLoader(EXISTING_ITEM_LOADER, null, this);
         }
+        // The supplier spinner lists the rows of the suppliers table
+        getSupportLoaderManager().initLoader(SUPPLIERS_LOADER, null, this);
 
         // Find all relevant views that we will need to read user input from
         mTypeSpinner = findViewById(R.id.spinner_category_type);
@@ -240,51 +260,55 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     /* Setup the dropdown spinner that allows the user to select the item Supplier Name. */
     private void setupSupplierSpinner() {
-        // Create adapter for spinner. The list options are from the String array it will use
-        // the spinner will use the default layout
-        ArrayAdapter supplierSpinnerAdapter = ArrayAdapter.createFromResource(this,
-                R.array.array_supplier_name_options, android.R.layout.simple_spinner_item);
+        // Create adapter for spinner. The list options are the names of the suppliers, read by
+        // the suppliers loader, the spinner will use the default layout
+        mSupplierAdapter = new SimpleCursorAdapter(this, android.R.layout.simple_spinner_item, null,
+                new String[]{SupplierEntry.COLUMN_SUPPLIER_NAME}, new int[]{android.R.id.text1}, 0);
         // Specify dropdown layout style - simple list view with 1 item per line
-        supplierSpinnerAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        mSupplierAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
         // Apply the adapter to the spinner
-        mSupplierNameSpinner.setAdapter(supplierSpinnerAdapter);
-        // Set the integer mSelected to the constant values
+        mSupplierNameSpinner.setAdapter(mSupplierAdapter);
+        // Set the supplier ID to the one of the selected row, and show its phone number
         mSupplierNameSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> adapterView, View view, int position, long id) {
-                String selection = (String) adapterView.getItemAtPosition(position);
-                if (!TextUtils.isEmpty(selection)) {
-                    if (selection.equals(getString(R.string.supplier_number_one))) {
-                        mSupplierName = ItemEntry.SUPPLIER_NUMBER_ONE; // Number One
-                        mSupplierPhoneNumberEditText.setText(R.string.phone_supplier_number_one);
-                    } else if (selection.equals(getString(R.string.supplier_number_two))) {
-                        mSupplierName = ItemEntry.SUPPLIER_NUMBER_TWO;  // Number Two
-                        mSupplierPhoneNumberEditText.setText(R.string.phone_supplier_number_two);
-                    } else if (selection.equals(getString(R.string.supplier_number_three))) {
-                        mSupplierName = ItemEntry.SUPPLIER_NUMBER_THREE;  // Number Three
-                        mSupplierPhoneNumberEditText.setText(R.string.phone_supplier_number_three);
-                    } else {
-                        mSupplierName = ItemEntry.SUPPLIER_MAIN; // Main Supplier
-                        mSupplierPhoneNumberEditText.setText(R.string.phone_supplier_main);
-                    }
+                Cursor supplier = (Cursor) adapterView.getItemAtPosition(position);
+                String phone = supplier.getString(
+                        supplier.getColumnIndex(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
+                // Keep the phone number being edited when the same supplier is selected again
+                String shownPhone = mSupplierPhoneNumberEditText.getText().toString().trim();
+                if (id != mSupplierId || mSupplierPhone == null || shownPhone.equals(mSupplierPhone)) {
+                    mSupplierPhoneNumberEditText.setText(phone);
                 }
+                mSupplierId = id;
+                mSupplierPhone = phone;
             }
 
             @Override
             public void onNothingSelected(AdapterView<?> adapterView) {
-                mSupplierName = ItemEntry.SUPPLIER_MAIN;
+                mSupplierId = ItemEntry.SUPPLIER_MAIN;
+                mSupplierPhone = null;
             }
         });
     }
 
-    /* Get user input from editor and save new item into database. */
+    /* Select the supplier with the given ID in the spinner, once the suppliers are loaded. */
+    private void selectSupplier(long supplierId) {
+        for (int position = 0; position < mSupplierAdapter.getCount(); position++) {
+            if (mSupplierAdapter.getItemId(position) == supplierId) {
+                mSupplierNameSpinner.setSelection(position);
+                return;
+            }
+        }
+    }
+
+    /* Get user input from editor and save new item into database, then exit the activity. */
     private void saveItem() {
         // Read from input fields
         String itemNameString = mProductNameEditText.getText().toString().trim();
         String itemDescriptionString = mDescriptionEditText.getText().toString().trim();
         String itemPriceString = mPriceEditText.getText().toString().trim();
         String itemQuantityString = mQuantityEditText.getText().toString().trim();
-        // TODO show the supplier phone number once the user select the supplier name_tv from its spinner
         String itemSupplierPhoneString = mSupplierPhoneNumberEditText.getText().toString().trim();
 
         // Check if this is supposed to be a new item
@@ -294,12 +318,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 TextUtils.isEmpty(itemPriceString) && TextUtils.isEmpty(itemQuantityString)) {
             // Since no fields were modified, we can return early without creating a new item.
             // No need to create ContentValues and no need to do any ContentProvider operations.
+            finish();
             return;
         }
 
         // Create a ContentValues object "values" where column names are the keys,
         // and product item attributes from the editor are the values.
-        ContentValues values = new ContentValues();
+        final ContentValues values = new ContentValues();
         values.put(ItemEntry.COLUMN_ITEM_CATEGORY_TYPE, mType);
         values.put(ItemEntry.COLUMN_ITEM_PRODUCT_NAME, itemNameString);
         values.put(ItemEntry.COLUMN_ITEM_DESCRIPTION, itemDescriptionString);
@@ -311,52 +336,98 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }
         values.put(ItemEntry.COLUMN_ITEM_PRICE, price);
         values.put(ItemEntry.COLUMN_ITEM_AVAILABILITY, mInStock);
-        // If the quantity is not provided by the user, don't try to parse the string into an
-        // integer value. Use 50 by default.
-        int quantity = 50;
-        if (!TextUtils.isEmpty(itemQuantityString)) {
-            quantity = Integer.parseInt(itemQuantityString);
+        values.put(ItemEntry.COLUMN_ITEM_SUPPLIER_ID, mSupplierId);
+
+        // The phone number belongs to the supplier, so a new one is saved to the supplier and
+        // shown by all its items
+        if (mSupplierPhone != null && !itemSupplierPhoneString.equals(mSupplierPhone)) {
+            ContentValues supplierValues = new ContentValues();
+            supplierValues.put(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER, itemSupplierPhoneString);
+            InventoryWriteQueue.getInstance(this).update(
+                    ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, mSupplierId), supplierValues, null);
         }
-        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantity);
-        values.put(ItemEntry.COLUMN_ITEM_SUPPLIER_NAME, mSupplierName);
-        values.put(ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER, itemSupplierPhoneString);
 
         // Determine if this is a new or existing item by checking if mCurrentPetUri is null or not
         if (mCurrentItemUri == null) {
-            // This is a NEW product, so insert a new item into the provider,
-            // returning the content URI for the new item.
-            Uri newUri = getContentResolver().insert(ItemEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_item_successful),
-                        Toast.LENGTH_SHORT).show();
+            // If the quantity is not provided by the user, don't try to parse the string into an
+            // integer value. Use 50 by default.
+            int quantity = 50;
+            if (!TextUtils.isEmpty(itemQuantityString)) {
+                quantity = Integer.parseInt(itemQuantityString);
             }
+            values.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantity);
+
+            // This is a NEW product, so insert a new item into the provider on the writer thread,
+            // the callback receives the content URI for the new item.
+            InventoryWriteQueue.getInstance(this).insert(ItemEntry.CONTENT_URI, values, new InventoryWriteQueue.Callback() {
+                @Override
+                public void onWriteComplete(Uri newUri, int count) {
+                    // Show a toast message depending on whether or not the insertion was successful.
+                    if (newUri == null) {
+                        // If the new content URI is null, then there was an error with insertion.
+                        Toast.makeText(EditorActivity.this, getString(R.string.editor_insert_item_failed),
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the insertion was successful and we can display a toast.
+                        Toast.makeText(EditorActivity.this, getString(R.string.editor_insert_item_successful),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                    // Exit activity
+                    finish();
+                }
+            });
         } else {
-            // Otherwise this is an EXISTING product, so update the item with content URI: mCurrentPetUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentItemUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentItemUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_insert_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_item_successful),
-                        Toast.LENGTH_SHORT).show();
+            // Otherwise this is an EXISTING product. Its quantity is only changed when the user
+            // edited it, and by the difference with the loaded quantity: the sales merged from the
+            // other devices since the editor opened are kept instead of being overwritten.
+            final int delta = TextUtils.isEmpty(itemQuantityString) ? 0
+                    : Integer.parseInt(itemQuantityString) - mLoadedQuantity;
+            if (delta == 0) {
+                updateItem(values);
+                return;
             }
+            // The other fields are only saved once the quantity change went through, a refused
+            // change keeps the editor open with the user's edits
+            InventoryWriteQueue.getInstance(this).adjustQuantity(mCurrentItemUri, delta,
+                    StockMovementEntry.REASON_ADJUSTMENT, new InventoryWriteQueue.QuantityCallback() {
+                @Override
+                public void onQuantityAdjusted(int itemQuantity, boolean lowStock) {
+                    if (itemQuantity < 0) {
+                        Log.d("Log msg", " Item " + mCurrentItemUri + " quantity change by " + delta + " has been refused.");
+                        Toast.makeText(EditorActivity.this, getString(R.string.editor_quantity_refused),
+                                Toast.LENGTH_LONG).show();
+                        return;
+                    }
+                    updateItem(values);
+                }
+            });
         }
     }
 
+    // Helper method that updates the current item with the given values, then exits the activity.
+    private void updateItem(ContentValues values) {
+        // Update the item with content URI: mCurrentItemUri
+        // and pass in the new ContentValues. mCurrentItemUri already identifies the correct row
+        // in the database that we want to modify.
+        InventoryWriteQueue.getInstance(this).update(mCurrentItemUri, values, new InventoryWriteQueue.Callback() {
+            @Override
+            public void onWriteComplete(Uri uri, int rowsAffected) {
+                // Show a toast message depending on whether or not the update was successful.
+                if (rowsAffected == 0) {
+                    // If no rows were affected, then there was an error with the update.
+                    Toast.makeText(EditorActivity.this, getString(R.string.editor_insert_item_failed),
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    // Otherwise, the update was successful and we can display a toast.
+                    Toast.makeText(EditorActivity.this, getString(R.string.editor_insert_item_successful),
+                            Toast.LENGTH_SHORT).show();
+                }
+                // Exit activity
+                finish();
+            }
+        });
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_editor.xml file.
@@ -384,10 +455,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save product item to database
+                // Save product item to database, the activity exits once it's saved
                 saveItem();
-                // Exit activity
-                finish();
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
@@ -447,6 +516,16 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     @NonNull
     @Override
     public Loader<Cursor> onCreateLoader(int id, @Nullable Bundle args) {
+        if (id == SUPPLIERS_LOADER) {
+            // All the suppliers, the main supplier first
+            String[] supplierProjection = {
+                    SupplierEntry._ID,
+                    SupplierEntry.COLUMN_SUPPLIER_NAME,
+                    SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+            return new CursorLoader(this, SupplierEntry.CONTENT_URI, supplierProjection,
+                    null, null, SupplierEntry._ID + " ASC");
+        }
+
         // Define a projection that specifies the columns from the table we care about.
         String[] projection = {
                 ItemEntry._ID,
@@ -456,8 +535,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 ItemEntry.COLUMN_ITEM_PRICE,
                 ItemEntry.COLUMN_ITEM_AVAILABILITY,
                 ItemEntry.COLUMN_ITEM_QUANTITY,
-                ItemEntry.COLUMN_ITEM_SUPPLIER_NAME,
-                ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER};
+                ItemEntry.COLUMN_ITEM_SUPPLIER_ID};
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,      // Parent activity context
                 mCurrentItemUri,             // Provider content URI to query
@@ -497,6 +575,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     @Override
     public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor cursor) {
+        if (loader.getId() == SUPPLIERS_LOADER) {
+            // Show the suppliers, keeping the supplier of the item selected
+            mSupplierAdapter.swapCursor(cursor);
+            selectSupplier(mSupplierId);
+            return;
+        }
+
         // Bail early if the cursor is null or there is less than 1 row in the cursor
         if (cursor == null || cursor.getCount() < 1) {
             return;
@@ -506,15 +591,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
             // Find the columns of pet attributes that we're interested in
-            final int itemColumnId = cursor.getColumnIndex(ItemEntry._ID);
             int typeColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_CATEGORY_TYPE);
             int nameColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_PRODUCT_NAME);
             int descriptionColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_DESCRIPTION);
             int priceColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_PRICE);
             int availabilityColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_AVAILABILITY);
-            final int quantityColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_QUANTITY);
-            int supplierColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_SUPPLIER_NAME);
-            int supplierPhoneColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER);
+            int quantityColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_QUANTITY);
+            int supplierColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_SUPPLIER_ID);
 
             // Extract out the value from the Cursor for the given column index
             int type = cursor.getInt(typeColumnIndex);
@@ -522,16 +605,15 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             String description = cursor.getString(descriptionColumnIndex);
             int price = cursor.getInt(priceColumnIndex);
             int availability = cursor.getInt(availabilityColumnIndex);
-            final int quantity = cursor.getInt(quantityColumnIndex);
-            int supplierName = cursor.getInt(supplierColumnIndex);
-            final int supplierPhone = cursor.getInt(supplierPhoneColumnIndex);
+            int quantity = cursor.getInt(quantityColumnIndex);
+            long supplierId = cursor.getLong(supplierColumnIndex);
 
             // Update the views on the screen with the values from the database
             mProductNameEditText.setText(name);
             mDescriptionEditText.setText(description);
             mPriceEditText.setText(Integer.toString(price));
             mQuantityEditText.setText(Integer.toString(quantity));
-            mSupplierPhoneNumberEditText.setText(Integer.toString(supplierPhone));
+            mLoadedQuantity = quantity;
 
             // Type is a dropdown spinner, so map the constant value from the database
             // into one of the dropdown options (0 is Casual, 1 is Formal, 2 is Cotton Socks ,.. etc in the ItemContract.java).
@@ -567,27 +649,18 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                     break;
             }
 
-            // Supplier Name spinner setters
-            switch (supplierName) {
-                case ItemEntry.SUPPLIER_NUMBER_ONE:
-                    mSupplierNameSpinner.setSelection(1);
-                    break;
-                case ItemEntry.SUPPLIER_NUMBER_TWO:
-                    mSupplierNameSpinner.setSelection(2);
-                    break;
-                case ItemEntry.SUPPLIER_NUMBER_THREE:
-                    mSupplierNameSpinner.setSelection(3);
-                    break;
-                default:
-                    mSupplierNameSpinner.setSelection(0);
-                    break;
+            // Supplier Name spinner setter, selecting the supplier shows its phone number
+            if (supplierId != mSupplierId) {
+                mSupplierId = supplierId;
+                mSupplierPhone = null;
             }
+            selectSupplier(supplierId);
 
             // Quantity increment button click listener
             incQuantityBtn.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
-                    incItemQuantity(itemColumnId, quantity);
+                    incItemQuantity();
                 }
             });
 
@@ -595,7 +668,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             decQuantityBtn.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
-                    decItemQuantity(itemColumnId, quantity);
+                    decItemQuantity();
                 }
             });
 
@@ -605,7 +678,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             callSupplier.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
-                    String phone = String.valueOf(supplierPhone);
+                    String phone = mSupplierPhoneNumberEditText.getText().toString().trim();
                     Intent intent = new Intent(Intent.ACTION_DIAL, Uri.fromParts("tel", phone, null));
                     startActivity(intent);
                 }
@@ -614,57 +687,49 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     // Helper method that increase the item quantity by one item
-    public void incItemQuantity(int itemID, int itemQuantity) {
-        itemQuantity++;
-        if (itemQuantity >= 0) {
-            updateItemQuantity(itemQuantity);
-
-            Log.d("Log msg", " Item " + itemID + "which quantity " + itemQuantity + " increment has been called.");
-        }
+    public void incItemQuantity() {
+        adjustItemQuantity(1, StockMovementEntry.REASON_RESTOCK);
     }
 
-    // Helper method that increase the item quantity by one item
-    public void decItemQuantity(int itemID, int itemQuantity) {
-        itemQuantity--;
-        if (itemQuantity >= 0) {
-            updateItemQuantity(itemQuantity);
-
-            Log.d("Log msg", " Item " + itemID + "which quantity " + itemQuantity + " decrement has been called.");
-        }
+    // Helper method that decrease the item quantity by one item
+    public void decItemQuantity() {
+        adjustItemQuantity(-1, StockMovementEntry.REASON_ADJUSTMENT);
     }
 
-    // Helper method that update the quantity with the current item URI
-    private void updateItemQuantity(int itemQuantity) {
-
+    // Helper method that adds the delta to the quantity of the current item inside the provider,
+    // so the change is applied to the stored quantity instead of the one shown on screen,
+    // and recorded in the stock ledger with the given reason.
+    private void adjustItemQuantity(final int delta, int reason) {
         if (mCurrentItemUri == null) {
             return;
         }
-        ContentValues values = new ContentValues();
-        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, itemQuantity);
-
-        if (mCurrentItemUri == null) {
-            Uri newUri = getContentResolver().insert(ItemEntry.CONTENT_URI, values);
-            if (newUri == null) {
-                Toast.makeText(this, getString(R.string.editor_insert_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, getString(R.string.editor_insert_item_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
-        } else {
-            int rowsAffected = getContentResolver().update(mCurrentItemUri, values, null, null);
-            if (rowsAffected == 0) {
-                Toast.makeText(this, getString(R.string.editor_insert_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, getString(R.string.editor_insert_item_successful),
-                        Toast.LENGTH_SHORT).show();
+        InventoryWriteQueue.getInstance(this).adjustQuantity(mCurrentItemUri, delta, reason,
+                new InventoryWriteQueue.QuantityCallback() {
+            @Override
+            public void onQuantityAdjusted(int itemQuantity, boolean lowStock) {
+                if (itemQuantity < 0) {
+                    // The quantity can't go below 0 item, nothing has been changed.
+                    Log.d("Log msg", " Item " + mCurrentItemUri + " quantity change by " + delta + " has been refused.");
+                    return;
+                }
+                if (lowStock && delta < 0) {
+                    // The item went (or still is) below its reorder threshold
+                    Toast.makeText(EditorActivity.this, R.string.low_stock_reached, Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(EditorActivity.this, getString(R.string.editor_insert_item_successful),
+                            Toast.LENGTH_SHORT).show();
+                }
+                Log.d("Log msg", " Item " + mCurrentItemUri + " quantity changed by " + delta + " to " + itemQuantity);
             }
-        }
+        });
     }
 
     @Override
     public void onLoaderReset(@NonNull Loader<Cursor> loader) {
+        if (loader.getId() == SUPPLIERS_LOADER) {
+            mSupplierAdapter.swapCursor(null);
+            return;
+        }
         // If the loader is invalidated, clear out all the data from the input fields.
         mTypeSpinner.setSelection(0);
         mProductNameEditText.setText("");
@@ -707,23 +772,29 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private void deleteItem() {
         // Only perform the delete if this is an existing item.
-        if (mCurrentItemUri != null) {
-            // Call the ContentResolver to delete the item at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentPetUri
-            // content URI already identifies the item that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentItemUri, null, null);
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_item_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+        if (mCurrentItemUri == null) {
+            // Close the activity
+            finish();
+            return;
         }
-        // Close the activity
-        finish();
+        // Ask the writer thread to delete the item at the given content URI.
+        // The mCurrentItemUri content URI already identifies the item that we want.
+        InventoryWriteQueue.getInstance(this).delete(mCurrentItemUri, new InventoryWriteQueue.Callback() {
+            @Override
+            public void onWriteComplete(Uri uri, int rowsDeleted) {
+                // Show a toast message depending on whether or not the delete was successful.
+                if (rowsDeleted == 0) {
+                    // If no rows were deleted, then there was an error with the delete.
+                    Toast.makeText(EditorActivity.this, getString(R.string.editor_delete_item_failed),
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    // Otherwise, the delete was successful and we can display a toast.
+                    Toast.makeText(EditorActivity.this, getString(R.string.editor_delete_item_successful),
+                            Toast.LENGTH_SHORT).show();
+                }
+                // Close the activity
+                finish();
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -1,41 +1,108 @@
 package com.example.wisemo.myinventory;
 
+import android.content.ContentResolver;
 import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.net.Uri;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.support.design.widget.FloatingActionButton;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.ArrayAdapter;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.wisemo.myinventory.data.InventoryWriteQueue;
+import com.example.wisemo.myinventory.data.ItemContract;
+import com.example.wisemo.myinventory.data.ItemExporter;
+import com.example.wisemo.myinventory.data.ItemFilter;
+import com.example.wisemo.myinventory.data.ItemImporter;
+import com.example.wisemo.myinventory.data.ItemPagingSource;
 import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+import com.example.wisemo.myinventory.data.ItemContract.StockMovementEntry;
+import com.example.wisemo.myinventory.data.ItemContract.SupplierEntry;
 
-public class InventoryActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 
-    // Loader constant
-    private static final int ITEM_LOADER = 0;
+public class InventoryActivity extends AppCompatActivity implements ItemPagingSource.Listener {
+
+    // Paged source of the items shown in the list
+    private ItemPagingSource mPagingSource;
 
     // CursorAdapter global variable
     ProductsCursorAdapter mCursorAdapter;
 
+    // Empty view shown while there's no item in the list
+    private View mEmptyView;
+
+    // Records the frame times of the list while it scrolls, null before Jelly Bean
+    private ScrollFrameMonitor mScrollFrameMonitor;
+
+    // Preferences of the activity, the filter of the list is saved in them
+    private SharedPreferences mPreferences;
+
+    // Filter and sort order of the items in the list
+    private ItemFilter mFilter;
+
+    // Request code of the file picker of the catalog import
+    private static final int REQUEST_IMPORT = 1;
+
+    // Request code of the document creation of the inventory export
+    private static final int REQUEST_EXPORT = 2;
+
+    // Name of the exported inventory file
+    private static final String EXPORT_FILE_NAME = "inventory.csv";
+
+    // Request codes of the document creation of a backup and of the document picker of a restore
+    private static final int REQUEST_BACKUP = 3;
+    private static final int REQUEST_RESTORE = 4;
+
+    // Name of the backup file of the inventory database
+    private static final String BACKUP_FILE_NAME = "inventory-backup.zip";
+
+    // Name of the file, in the app files, listing the records rejected by the catalog imports
+    private static final String IMPORT_ERRORS_FILE_NAME = "import_errors.txt";
+
+    // How long the search waits for the user to stop typing
+    private static final long SEARCH_DEBOUNCE_MILLIS = 250;
+
+    // Handler and pending search text, so a search only runs once the user pauses typing
+    private final Handler mSearchHandler = new Handler();
+    private String mPendingSearchText;
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mPagingSource.setSearchText(mPendingSearchText);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -51,49 +118,138 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
             }
         });
 
-        // Find the listView which will be populated with the item data.
-        ListView itemsListView = findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the item data.
+        RecyclerView itemsListView = findViewById(R.id.list);
+        itemsListView.setLayoutManager(new LinearLayoutManager(this));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mScrollFrameMonitor = new ScrollFrameMonitor();
+            itemsListView.addOnScrollListener(mScrollFrameMonitor);
+        }
+
+        // Find the empty view layout, shown while the list is empty
+        mEmptyView = findViewById(R.id.empty_view);
+
+        // The projection of the list rows, with the snippet of the description instead of all of it.
+        String[] projection = ItemEntry.LIST_PROJECTION;
 
-        // Find & setting the empty view layout
-        View emptyView = findViewById(R.id.empty_view);
-        itemsListView.setEmptyView(emptyView);
+        // The list opens with the filter it had last time, so the first page read is already
+        // the filtered one.
+        mPreferences = getPreferences(MODE_PRIVATE);
+        mFilter = ItemFilter.fromPreferences(mPreferences);
+        updateFilterSubtitle();
 
-        // Setup an adapter to create a list item for each row of products items data in the Cursor.
-        // There is no item data till the loader finishes so Cursor is passed as null.
-        mCursorAdapter = new ProductsCursorAdapter(this, null);
+        // Setup an adapter to create a list item for each row of products items data.
+        // The items are read page by page in the background, starting with the first page.
+        mPagingSource = new ItemPagingSource(getContentResolver(), projection, mFilter, this);
+        mCursorAdapter = new ProductsCursorAdapter(this, mPagingSource);
         itemsListView.setAdapter(mCursorAdapter);
+        mPagingSource.start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Release the pages of items and stop listening for changes
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        mPagingSource.close();
+        if (mScrollFrameMonitor != null) {
+            mScrollFrameMonitor.stop();
+        }
+    }
+
+    @Override
+    public void onPageChanged(final int offset, DiffUtil.DiffResult diff) {
+        // Update {@link ProductsCursorAdapter} with the changed rows of the page only,
+        // so a single quantity change rebinds a single row.
+        diff.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                mCursorAdapter.notifyItemRangeInserted(offset + position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                mCursorAdapter.notifyItemRangeRemoved(offset + position, count);
+            }
 
-        // Prepare the loader.  Either re-connect with an existing one,
-        // or start a new one.
-        getSupportLoaderManager().initLoader(ITEM_LOADER, null, this);
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                mCursorAdapter.notifyItemMoved(offset + fromPosition, offset + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                mCursorAdapter.notifyItemRangeChanged(offset + position, count, payload);
+            }
+        });
+        mEmptyView.setVisibility(mCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    public void onPageReloaded(int offset, int count) {
+        // Replace the placeholders of the rows which page has been read again
+        mCursorAdapter.notifyItemRangeChanged(offset, count);
+    }
+
+    @Override
+    public void onPagesReset() {
+        // All the rows are gone until the first page of the new items is read
+        mCursorAdapter.notifyDataSetChanged();
     }
 
     // This helper method to reduce the item quantity by one item.
-    public void quantitySale(int itemID, int itemQuantity) {
-        itemQuantity--;
-        if (itemQuantity >= 50) {
-            ContentValues values = new ContentValues();
-            values.put(ItemEntry.COLUMN_ITEM_QUANTITY, itemQuantity);
-            Uri updateUri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, itemID);
-            int rowsAffected = getContentResolver().update(updateUri, values, null, null);
-            Toast.makeText(this, "Quantity was reduced by one piece", Toast.LENGTH_SHORT).show();
-            // Log to show the number of affected rows in the inventory database
-            Log.d("Log msg", "rowsAffected " + rowsAffected + " with ID " + itemID + " Which Quantity value is " + itemQuantity + " has been reduced.");
-        } else if (itemQuantity >= 0) {
-            ContentValues values = new ContentValues();
-            values.put(ItemEntry.COLUMN_ITEM_QUANTITY, itemQuantity);
-            Uri updateUri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, itemID);
-            getContentResolver().update(updateUri, values, null, null);
-            Toast.makeText(this, "Minimum quantity reached, Please order from the supplier", Toast.LENGTH_LONG).show();
-        }
+    // The provider applies the change in the database, so fast repeated taps can't lose sales.
+    public void quantitySale(final int itemID) {
+        Uri itemUri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, itemID);
+        InventoryWriteQueue.getInstance(this).adjustQuantity(itemUri, -1, StockMovementEntry.REASON_SALE,
+                new InventoryWriteQueue.QuantityCallback() {
+            @Override
+            public void onQuantityAdjusted(int itemQuantity, boolean lowStock) {
+                if (itemQuantity < 0) {
+                    return;
+                }
+                if (lowStock) {
+                    // The item went below its reorder threshold
+                    Toast.makeText(InventoryActivity.this, R.string.low_stock_reached, Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(InventoryActivity.this, "Quantity was reduced by one piece", Toast.LENGTH_SHORT).show();
+                    // Log to show the new quantity of the item in the inventory database
+                    Log.d("Log msg", "Item with ID " + itemID + " has been reduced to quantity " + itemQuantity);
+                }
+            }
+        });
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // Search as you type by product name and description
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query, 0);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText, SEARCH_DEBOUNCE_MILLIS);
+                return true;
+            }
+        });
         return super.onCreateOptionsMenu(menu);
     }
 
+    // Helper method to search the items once the user hasn't typed for the given delay.
+    private void search(String text, long delayMillis) {
+        mPendingSearchText = text;
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        mSearchHandler.postDelayed(mSearchRunnable, delayMillis);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
@@ -128,6 +284,49 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
                 aboutDialog.getWindow().setBackgroundDrawable(new ColorDrawable(Color.TRANSPARENT));
                 aboutDialog.show();
                 break;
+            case R.id.action_filter:
+                loadSuppliersAndShowFilterDialog();
+                return true;
+            case R.id.action_import:
+                // Let the user pick the CSV or JSON lines file of the catalog
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("*/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, REQUEST_IMPORT);
+                return true;
+            case R.id.action_export:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    // Let the user choose where to save the CSV file
+                    Intent exportIntent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                    exportIntent.setType("text/csv");
+                    exportIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                    exportIntent.putExtra(Intent.EXTRA_TITLE, EXPORT_FILE_NAME);
+                    startActivityForResult(exportIntent, REQUEST_EXPORT);
+                } else {
+                    exportInventory(null);
+                }
+                return true;
+            case R.id.action_backup:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    Intent backupIntent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                    backupIntent.setType("application/zip");
+                    backupIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                    backupIntent.putExtra(Intent.EXTRA_TITLE, BACKUP_FILE_NAME);
+                    startActivityForResult(backupIntent, REQUEST_BACKUP);
+                } else {
+                    backUpOrRestore(null, true);
+                }
+                return true;
+            case R.id.action_restore:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    Intent restoreIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                    restoreIntent.setType("application/zip");
+                    restoreIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                    startActivityForResult(restoreIntent, REQUEST_RESTORE);
+                } else {
+                    showRestoreConfirmationDialog(null);
+                }
+                return true;
             case R.id.action_delete_all_entries:
                 showDeleteConfirmationDialog();
                 return true;
@@ -137,12 +336,366 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
         return true;
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_IMPORT && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            importCatalog(data.getData());
+        } else if (requestCode == REQUEST_EXPORT && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            exportInventory(data.getData());
+        } else if (requestCode == REQUEST_BACKUP && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            backUpOrRestore(data.getData(), true);
+        } else if (requestCode == REQUEST_RESTORE && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            showRestoreConfirmationDialog(data.getData());
+        }
+    }
+
+    /**
+     * Helper method to read the suppliers on a background thread, then show the dialog filtering
+     * and sorting the list with them.
+     */
+    private void loadSuppliersAndShowFilterDialog() {
+        final ContentResolver contentResolver = getContentResolver();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final List<Long> supplierIds = new ArrayList<>();
+                final List<String> supplierNames = new ArrayList<>();
+                try {
+                    Cursor cursor = contentResolver.query(SupplierEntry.CONTENT_URI,
+                            new String[]{SupplierEntry._ID, SupplierEntry.COLUMN_SUPPLIER_NAME},
+                            null, null, SupplierEntry._ID + " ASC");
+                    if (cursor != null) {
+                        try {
+                            while (cursor.moveToNext()) {
+                                supplierIds.add(cursor.getLong(0));
+                                supplierNames.add(cursor.getString(1));
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // The list can still be filtered on the other columns
+                    Log.e("InventoryActivity", "Failed to read the suppliers", e);
+                }
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            showFilterDialog(supplierIds, supplierNames);
+                        }
+                    }
+                });
+            }
+        }).start();
+    }
+
+    /**
+     * Show the dialog filtering and sorting the list, with the current filter selected. The first
+     * option of each spinner doesn't filter the items, so the positions of the categories and
+     * availabilities are their values plus one (and {@link ItemFilter#ANY} is -1).
+     */
+    private void showFilterDialog(final List<Long> supplierIds, List<String> supplierNames) {
+        View filterView = LayoutInflater.from(this).inflate(R.layout.dialog_filter, null);
+        final Spinner categorySpinner = filterView.findViewById(R.id.spinner_filter_category);
+        final Spinner supplierSpinner = filterView.findViewById(R.id.spinner_filter_supplier);
+        final Spinner availabilitySpinner = filterView.findViewById(R.id.spinner_filter_availability);
+        final EditText minQuantityEditText = filterView.findViewById(R.id.edit_filter_min_quantity);
+        final EditText maxQuantityEditText = filterView.findViewById(R.id.edit_filter_max_quantity);
+        final Spinner sortSpinner = filterView.findViewById(R.id.spinner_sort);
+        final CheckBox descendingCheckBox = filterView.findViewById(R.id.check_sort_descending);
+
+        categorySpinner.setAdapter(createSpinnerAdapter(R.array.array_filter_category_options));
+        availabilitySpinner.setAdapter(createSpinnerAdapter(R.array.array_filter_availability_options));
+        sortSpinner.setAdapter(createSpinnerAdapter(R.array.array_sort_options));
+        List<String> supplierOptions = new ArrayList<>();
+        supplierOptions.add(getString(R.string.filter_any_supplier));
+        supplierOptions.addAll(supplierNames);
+        ArrayAdapter<String> supplierAdapter = new ArrayAdapter<>(this,
+                android.R.layout.simple_spinner_item, supplierOptions);
+        supplierAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        supplierSpinner.setAdapter(supplierAdapter);
+
+        categorySpinner.setSelection(mFilter.categoryType + 1);
+        // A supplier deleted since the filter was saved isn't listed anymore, All suppliers is selected
+        supplierSpinner.setSelection(supplierIds.indexOf(mFilter.supplierId) + 1);
+        availabilitySpinner.setSelection(mFilter.availability + 1);
+        if (mFilter.minQuantity != ItemFilter.ANY) {
+            minQuantityEditText.setText(String.valueOf(mFilter.minQuantity));
+        }
+        if (mFilter.maxQuantity != ItemFilter.ANY) {
+            maxQuantityEditText.setText(String.valueOf(mFilter.maxQuantity));
+        }
+        sortSpinner.setSelection(mFilter.sort);
+        descendingCheckBox.setChecked(mFilter.descending);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_filter);
+        builder.setView(filterView);
+        builder.setPositiveButton(R.string.filter_apply, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                int supplierPosition = supplierSpinner.getSelectedItemPosition();
+                long supplierId = supplierPosition > 0 ? supplierIds.get(supplierPosition - 1) : ItemFilter.ANY;
+                applyFilter(new ItemFilter(categorySpinner.getSelectedItemPosition() - 1, supplierId,
+                        availabilitySpinner.getSelectedItemPosition() - 1, readQuantity(minQuantityEditText),
+                        readQuantity(maxQuantityEditText), sortSpinner.getSelectedItemPosition(),
+                        descendingCheckBox.isChecked()));
+            }
+        });
+        builder.setNeutralButton(R.string.filter_clear, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                applyFilter(ItemFilter.NONE);
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    // Helper method to create the adapter of a spinner showing the options of the given array.
+    private ArrayAdapter<CharSequence> createSpinnerAdapter(int arrayId) {
+        ArrayAdapter<CharSequence> adapter = ArrayAdapter.createFromResource(this, arrayId,
+                android.R.layout.simple_spinner_item);
+        adapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        return adapter;
+    }
+
+    // Helper method to read a quantity of the filter, ItemFilter.ANY if the field is empty.
+    private static int readQuantity(EditText editText) {
+        try {
+            return Integer.parseInt(editText.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return ItemFilter.ANY;
+        }
+    }
+
+    /**
+     * Show the items with the given filter, reading the list again from its first page, and save
+     * the filter so the list opens with it next time.
+     */
+    private void applyFilter(ItemFilter filter) {
+        mFilter = filter;
+        SharedPreferences.Editor editor = mPreferences.edit();
+        filter.writeTo(editor);
+        editor.apply();
+        mPagingSource.setFilter(filter);
+        updateFilterSubtitle();
+    }
+
+    // Helper method to show in the subtitle of the list whether some items are hidden by the filter.
+    private void updateFilterSubtitle() {
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setSubtitle(mFilter.isFiltering() ? getString(R.string.filter_active) : null);
+        }
+    }
+
+    /**
+     * Helper method to back up the inventory database to the given document, or restore it from it,
+     * on a background thread. The backup file of the app files is used if the document is null.
+     */
+    private void backUpOrRestore(final Uri documentUri, final boolean backup) {
+        File backupDir = getExternalFilesDir(null) != null ? getExternalFilesDir(null) : getFilesDir();
+        final File backupFile = new File(backupDir, BACKUP_FILE_NAME);
+        final ContentResolver contentResolver = getContentResolver();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean done = false;
+                try {
+                    ParcelFileDescriptor fileDescriptor;
+                    if (documentUri != null) {
+                        fileDescriptor = contentResolver.openFileDescriptor(documentUri, backup ? "rwt" : "r");
+                    } else {
+                        fileDescriptor = ParcelFileDescriptor.open(backupFile, backup
+                                ? ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE
+                                | ParcelFileDescriptor.MODE_TRUNCATE
+                                : ParcelFileDescriptor.MODE_READ_ONLY);
+                    }
+                    if (fileDescriptor != null) {
+                        try {
+                            Bundle extras = new Bundle();
+                            extras.putParcelable(ItemContract.EXTRA_FILE_DESCRIPTOR, fileDescriptor);
+                            contentResolver.call(ItemEntry.CONTENT_URI, backup ? ItemContract.METHOD_BACKUP
+                                    : ItemContract.METHOD_RESTORE, null, extras);
+                            done = true;
+                        } finally {
+                            fileDescriptor.close();
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.e("InventoryActivity", "Failed to " + (backup ? "back up" : "restore") + " the inventory", e);
+                }
+
+                final boolean succeeded = done;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        int message;
+                        if (backup) {
+                            message = succeeded ? R.string.backup_finished : R.string.backup_failed;
+                        } else {
+                            message = succeeded ? R.string.restore_finished : R.string.restore_failed;
+                        }
+                        Toast.makeText(InventoryActivity.this, message, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }).start();
+    }
+
+    private void showRestoreConfirmationDialog(final Uri documentUri) {
+        // Restoring replaces all the items, so ask the user first
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.restore_dialog_msg);
+        builder.setPositiveButton(R.string.restore, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                backUpOrRestore(documentUri, false);
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Helper method to export the inventory on a background thread to the given document,
+     * or to the app files if it's null.
+     */
+    private void exportInventory(final Uri documentUri) {
+        final ItemExporter exporter = new ItemExporter(this);
+        File exportDir = getExternalFilesDir(null) != null ? getExternalFilesDir(null) : getFilesDir();
+        final File exportFile = new File(exportDir, EXPORT_FILE_NAME);
+        final ContentResolver contentResolver = getContentResolver();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long count = -1;
+                try {
+                    if (documentUri == null) {
+                        count = exporter.exportTo(exportFile);
+                    } else {
+                        ParcelFileDescriptor fileDescriptor = contentResolver.openFileDescriptor(documentUri, "w");
+                        if (fileDescriptor != null) {
+                            try {
+                                count = exporter.exportTo(fileDescriptor);
+                            } finally {
+                                fileDescriptor.close();
+                            }
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.e("InventoryActivity", "Failed to export the inventory", e);
+                }
+
+                final long exported = count;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (exported < 0) {
+                            Toast.makeText(InventoryActivity.this, R.string.export_failed, Toast.LENGTH_LONG).show();
+                        } else {
+                            Toast.makeText(InventoryActivity.this, getString(R.string.export_finished, exported),
+                                    Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
+            }
+        }).start();
+    }
+
+    /**
+     * Helper method to import the catalog file on a background thread, showing the progress
+     * as the subtitle of the list. The rejected records are appended to the import errors file.
+     */
+    private void importCatalog(final Uri fileUri) {
+        final ContentResolver contentResolver = getContentResolver();
+        String type = contentResolver.getType(fileUri);
+        String path = fileUri.getPath() == null ? "" : fileUri.getPath();
+        final int format = (type != null && type.contains("json")) || path.endsWith(".jsonl")
+                || path.endsWith(".json") ? ItemImporter.FORMAT_JSON_LINES : ItemImporter.FORMAT_CSV;
+        File errorsDir = getExternalFilesDir(null) != null ? getExternalFilesDir(null) : getFilesDir();
+        final File errorsFile = new File(errorsDir, IMPORT_ERRORS_FILE_NAME);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ItemImporter importer = new ItemImporter(contentResolver, fileUri.toString(), format);
+                ItemImporter.Result result = null;
+                try {
+                    InputStream in = contentResolver.openInputStream(fileUri);
+                    Writer errors = new FileWriter(errorsFile, true);
+                    try {
+                        result = importer.importFrom(new InputStreamReader(in, "UTF-8"), errors,
+                                new ItemImporter.ProgressListener() {
+                                    @Override
+                                    public void onProgress(final long recordsRead, final long rowsImported,
+                                                           long rowsRejected) {
+                                        runOnUiThread(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                if (getSupportActionBar() != null) {
+                                                    getSupportActionBar().setSubtitle(
+                                                            getString(R.string.import_progress, rowsImported));
+                                                }
+                                            }
+                                        });
+                                    }
+                                });
+                    } finally {
+                        errors.close();
+                        if (in != null) {
+                            in.close();
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.e("InventoryActivity", "Failed to import " + fileUri, e);
+                }
+
+                final ItemImporter.Result importResult = result;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateFilterSubtitle();
+                        if (importResult == null) {
+                            Toast.makeText(InventoryActivity.this, R.string.import_failed, Toast.LENGTH_LONG).show();
+                        } else {
+                            Toast.makeText(InventoryActivity.this, getString(R.string.import_finished,
+                                    importResult.rowsImported, importResult.rowsRejected), Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
+            }
+        }).start();
+    }
+
     /**
      * Helper method to delete all items in the database.
      */
     private void deleteAllItems() {
-        int rowsDeleted = getContentResolver().delete(ItemEntry.CONTENT_URI, null, null);
-        Log.v("InventoryActivity", rowsDeleted + " rows deleted from inventory database");
+        InventoryWriteQueue.getInstance(this).delete(ItemEntry.CONTENT_URI, new InventoryWriteQueue.Callback() {
+            @Override
+            public void onWriteComplete(Uri uri, int rowsDeleted) {
+                Log.v("InventoryActivity", rowsDeleted + " rows deleted from inventory database");
+            }
+        });
     }
 
     private void showDeleteConfirmationDialog() {
@@ -170,38 +723,4 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
         AlertDialog alertDialog = builder.create();
         alertDialog.show();
     }
-
-    @NonNull
-    @Override
-    public Loader<Cursor> onCreateLoader(int id, @Nullable Bundle args) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ItemEntry._ID,
-                ItemEntry.COLUMN_ITEM_CATEGORY_TYPE,
-                ItemEntry.COLUMN_ITEM_PRODUCT_NAME,
-                ItemEntry.COLUMN_ITEM_DESCRIPTION,
-                ItemEntry.COLUMN_ITEM_PRICE,
-                ItemEntry.COLUMN_ITEM_QUANTITY,
-                ItemEntry.COLUMN_ITEM_SUPPLIER_NAME,
-                ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER};
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,      // Parent activity context
-                ItemEntry.CONTENT_URI,             // Provider content URI to query
-                projection,                        // Columns to include in the resulting cursor
-                null,                     // No selection clause
-                null,                  // No selection arguments
-                null);                   // Default sort order
-    }
-
-    @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
-        // Update {@link ProductsCursorAdapter} with this new cursor containing updated item data.
-        mCursorAdapter.swapCursor(data);
-    }
-
-    @Override
-    public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-        // This callback called when data need to be deleted
-        mCursorAdapter.swapCursor(null);
-    }
 }
\ No newline at end of file
@@ -1,163 +1,322 @@
 package com.example.wisemo.myinventory;
 
+import android.content.AsyncQueryHandler;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 
+import com.example.wisemo.myinventory.data.InventoryMetrics;
 import com.example.wisemo.myinventory.data.ItemContract;
+import com.example.wisemo.myinventory.data.ItemPagingSource;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * {@link ProductsCursorAdapter} is an adapter for a list or grid view
- * that uses a {@link Cursor} of product item data as its data source. This adapter knows
- * how to create list items for each row of item data in the {@link Cursor}.
+ * {@link ProductsCursorAdapter} is an adapter for a {@link RecyclerView}
+ * that uses the pages of product item data of an {@link ItemPagingSource} as its data source.
+ * This adapter knows how to create list items for each row of item data in the page {@link Cursor}s.
  */
-public class ProductsCursorAdapter extends CursorAdapter {
+public class ProductsCursorAdapter extends RecyclerView.Adapter<ProductsCursorAdapter.ItemViewHolder> {
+
+    private final Context mContext;
+    private final ItemPagingSource mPagingSource;
+
+    /** Number of lines of the description of a collapsed row, like the list item layout */
+    private static final int DESCRIPTION_SNIPPET_LINES = 3;
+
+    /** Time to bind a row with its item */
+    private final InventoryMetrics.Histogram mBindTime = InventoryMetrics.getInstance().histogram("list.bind_us");
+
+    /**
+     * Column indices of the item attributes, resolved on the first bind since all the pages
+     * of the paging source share the same projection.
+     */
+    private int mIdColumnIndex = -1;
+    private int mTypeColumnIndex;
+    private int mNameColumnIndex;
+    private int mDescriptionSnippetColumnIndex;
+    private int mPriceColumnIndex;
+    private int mQuantityColumnIndex;
+    private int mSupplierNameColumnIndex;
+    private int mSupplierPhoneColumnIndex;
+
+    /**
+     * Sale button click listener shared by all the rows to:
+     * change the quantity of the item & reduce it by One item sold.
+     * The ID of the item is the tag of the button.
+     */
+    private final View.OnClickListener mSaleClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            long itemId = (Long) view.getTag();
+            InventoryActivity activity = (InventoryActivity) mContext;
+            activity.quantitySale((int) itemId);
+        }
+    };
+
+    /**
+     * Edit item on click listener shared by all the rows to
+     * open the editor activity for the selected item in the list to be edited.
+     * The ID of the item is the tag of the button.
+     */
+    private final View.OnClickListener mEditClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            long itemId = (Long) view.getTag();
+            Intent intent = new Intent(view.getContext(), EditorActivity.class);
+            Uri currentItemUri = ContentUris.withAppendedId(ItemContract.ItemEntry.CONTENT_URI, itemId);
+            intent.setData(currentItemUri);
+            mContext.startActivity(intent);
+        }
+    };
+
+    /**
+     * Full descriptions of the expanded rows by item ID. The rows only read the snippet of the
+     * description, the full one is read when the row is expanded.
+     */
+    private final Map<Long, String> mExpandedDescriptions = new HashMap<>();
+
+    /** Reads the full descriptions of the rows being expanded on a background thread */
+    private final AsyncQueryHandler mDescriptionQueryHandler;
+
+    /**
+     * Description click listener shared by all the rows to expand the description of the item,
+     * or collapse it back to its snippet. The view holder of the row is the tag of the description.
+     */
+    private final View.OnClickListener mDescriptionClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ItemViewHolder holder = (ItemViewHolder) view.getTag();
+            if (holder.itemId == -1) {
+                return;
+            }
+            if (mExpandedDescriptions.remove(holder.itemId) != null) {
+                notifyRowChanged(holder);
+            } else if (holder.descriptionTruncated) {
+                Uri itemUri = ContentUris.withAppendedId(ItemContract.ItemEntry.CONTENT_URI, holder.itemId);
+                mDescriptionQueryHandler.startQuery(0, holder, itemUri, new String[]{ItemContract.ItemEntry._ID,
+                        ItemContract.ItemEntry.COLUMN_ITEM_DESCRIPTION}, null, null, null);
+            }
+        }
+    };
+
+    /**
+     * Holds the views of a list item, so they are only looked up once when the item is created.
+     */
+    static class ItemViewHolder extends RecyclerView.ViewHolder {
+        /** ID of the item bound to the row, -1 while it's a placeholder */
+        long itemId = -1;
+        /** Whether the description shown is a snippet shorter than the description */
+        boolean descriptionTruncated;
+        final TextView itemTypeTv;
+        final TextView itemNameTv;
+        final TextView itemDescriptionTv;
+        final TextView itemPriceTv;
+        final TextView itemQuantityTv;
+        final TextView supplierNameTv;
+        final TextView supplierPhoneTv;
+        final Button saleBtn;
+        final Button editItemBtn;
+
+        ItemViewHolder(View view) {
+            super(view);
+            // Find individual views that we want to modify in the list item layout
+            itemTypeTv = view.findViewById(R.id.type_tv);
+            itemNameTv = view.findViewById(R.id.name_tv);
+            itemDescriptionTv = view.findViewById(R.id.description_tv);
+            itemPriceTv = view.findViewById(R.id.price_tv);
+            itemQuantityTv = view.findViewById(R.id.quantity_tv);
+            supplierNameTv = view.findViewById(R.id.supplier_name_tv);
+            supplierPhoneTv = view.findViewById(R.id.phone_tv);
+            saleBtn = view.findViewById(R.id.sale_btn);
+            editItemBtn = view.findViewById(R.id.edit_btn);
+        }
+    }
 
     /**
      * Constructs a new {@link ProductsCursorAdapter}.
      *
-     * @param context The context
-     * @param c       The cursor from which to get the data.
+     * @param context      The context
+     * @param pagingSource The source of the pages from which to get the data.
      */
-    public ProductsCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0 /* flags */);
+    public ProductsCursorAdapter(Context context, ItemPagingSource pagingSource) {
+        mContext = context;
+        mPagingSource = pagingSource;
+        mDescriptionQueryHandler = new AsyncQueryHandler(context.getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                if (cursor == null) {
+                    return;
+                }
+                try {
+                    if (cursor.moveToFirst()) {
+                        mExpandedDescriptions.put(cursor.getLong(0), cursor.getString(1));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                // The row may show another item by now, it's expanded when bound again then
+                notifyRowChanged((ItemViewHolder) cookie);
+            }
+        };
+    }
+
+    /** Bind the row of the view holder again, if it's still in the list. */
+    private void notifyRowChanged(ItemViewHolder holder) {
+        int position = holder.getAdapterPosition();
+        if (position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(position);
+        }
     }
 
+    @Override
+    public int getItemCount() {
+        return mPagingSource.getCount();
+    }
 
     /**
      * Makes a new blank list item view. No data is set (or bound) to the views yet.
      *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
+     * @param parent   The parent to which the new view is attached to
+     * @param viewType The view type of the new view, there's only one in this list
+     * @return the view holder of the newly created list item view.
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public ItemViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+        ItemViewHolder holder = new ItemViewHolder(view);
+        holder.saleBtn.setOnClickListener(mSaleClickListener);
+        holder.editItemBtn.setOnClickListener(mEditClickListener);
+        holder.itemDescriptionTv.setTag(holder);
+        holder.itemDescriptionTv.setOnClickListener(mDescriptionClickListener);
+        return holder;
     }
 
     /**
-     * This method binds the pet data (in the current row pointed to by cursor) to the given
-     * list item layout. For example, the name_tv for the current item can be set on the item name_tv TextView
-     * in the list item layout.
-     *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * This method binds the item data (in the row at the given position) to the given
+     * list item layout, or clears it while the page of the row is being read again.
      */
     @Override
-    public void bindView(View view, final Context context, Cursor cursor) {
-        // Find individual views that we want to modify in the list item layout
-        TextView itemTypeTv = view.findViewById(R.id.type_tv);
-        TextView itemNameTv = view.findViewById(R.id.name_tv);
-        TextView itemDescriptionTv = view.findViewById(R.id.description_tv);
-        TextView itemPriceTv = view.findViewById(R.id.price_tv);
-        TextView itemQuantityTv = view.findViewById(R.id.quantity_tv);
-        TextView supplierNameTv = view.findViewById(R.id.supplier_name_tv);
-        TextView supplierPhoneTv = view.findViewById(R.id.phone_tv);
-        Button saleBtn = view.findViewById(R.id.sale_btn);
-        Button editItemBtn = view.findViewById(R.id.edit_btn);
-
-
-        // Find the columns of item attributes that we're interested in
-        final int idColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry._ID);
-        int typeColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_CATEGORY_TYPE);
-        int nameColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_PRODUCT_NAME);
-        int descriptionColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_DESCRIPTION);
-        int priceColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_PRICE);
-        final int quantityColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY);
-        int sNameColumnIndex =  cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_SUPPLIER_NAME);
-        int sPhoneColumnIndex =  cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER);
+    public void onBindViewHolder(ItemViewHolder holder, int position) {
+        long start = System.nanoTime();
+        Cursor cursor = mPagingSource.getRow(position);
+        if (cursor == null) {
+            bindPlaceholder(holder);
+            return;
+        }
+        if (mIdColumnIndex == -1) {
+            resolveColumnIndices(cursor);
+        }
 
         // Read the item attributes from the Cursor for the current item
-        final String itemId = cursor.getString(idColumnIndex);
-        int itemType = cursor.getInt(typeColumnIndex);
-        String itemName = cursor.getString(nameColumnIndex);
-        String itemDescription = cursor.getString(descriptionColumnIndex);
-        String itemPrice = cursor.getString(priceColumnIndex);
-        final String itemQuantity = cursor.getString(quantityColumnIndex);
-        int supplierName = cursor.getInt(sNameColumnIndex);
-        String supplierPhone = cursor.getString(sPhoneColumnIndex);
+        long itemId = cursor.getLong(mIdColumnIndex);
+        int itemType = cursor.getInt(mTypeColumnIndex);
+        String itemName = cursor.getString(mNameColumnIndex);
+        String descriptionSnippet = cursor.getString(mDescriptionSnippetColumnIndex);
+        String itemDescription = mExpandedDescriptions.get(itemId);
+        if (itemDescription != null && (descriptionSnippet == null || !itemDescription.startsWith(descriptionSnippet))) {
+            // The description has been edited since the row was expanded
+            mExpandedDescriptions.remove(itemId);
+            itemDescription = null;
+        }
+        boolean expanded = itemDescription != null;
+        if (!expanded) {
+            itemDescription = descriptionSnippet;
+        }
+        // A snippet as long as the limit may have been cut, it's shown with an ellipsis
+        boolean truncated = !expanded && itemDescription != null
+                && itemDescription.length() >= ItemContract.ItemEntry.DESCRIPTION_SNIPPET_LENGTH;
+        String itemPrice = cursor.getString(mPriceColumnIndex);
+        String itemQuantity = cursor.getString(mQuantityColumnIndex);
+        String supplierName = cursor.getString(mSupplierNameColumnIndex);
+        String supplierPhone = cursor.getString(mSupplierPhoneColumnIndex);
 
         // If the item name is empty string or null, then use some default text
         // that says "No description", so the TextView isn't blank.
         if (TextUtils.isEmpty(itemDescription)) {
-            itemDescription = context.getString(R.string.no_description);
+            itemDescription = mContext.getString(R.string.no_description);
+        } else if (truncated) {
+            itemDescription = itemDescription + "\u2026";
         }
+        holder.itemId = itemId;
+        holder.descriptionTruncated = truncated;
 
-        // Sale button click listener to:
-        // change the quantity of current item & reduce it by One item sold
-        saleBtn.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                InventoryActivity activity = (InventoryActivity) context;
-                activity.quantitySale(Integer.valueOf(itemId),Integer.valueOf(itemQuantity));
-            }
-        });
+        // The shared click listeners find the item by the tag of the buttons
+        holder.saleBtn.setTag(itemId);
+        holder.saleBtn.setEnabled(true);
+        holder.editItemBtn.setTag(itemId);
+        holder.editItemBtn.setEnabled(true);
 
         // Update the TextViews with the attributes for the current item
         switch (itemType){
             case 1:
-                itemTypeTv.setText(R.string.type_formal);
+                holder.itemTypeTv.setText(R.string.type_formal);
                 break;
             case 2:
-                itemTypeTv.setText(R.string.type_life_style);
+                holder.itemTypeTv.setText(R.string.type_life_style);
                 break;
             case 3:
-                itemTypeTv.setText(R.string.type_cotton_socks);
+                holder.itemTypeTv.setText(R.string.type_cotton_socks);
                 break;
             case 4:
-                itemTypeTv.setText(R.string.type_care_products);
+                holder.itemTypeTv.setText(R.string.type_care_products);
                 break;
             case 5:
-                itemTypeTv.setText(R.string.type_belts_and_wallets);
-                break;
-            default:
-                itemTypeTv.setText(R.string.type_casual);
-                break;
-        }
-        itemNameTv.setText(itemName);
-        itemDescriptionTv.setText(itemDescription);
-        itemPriceTv.setText(itemPrice);
-        itemQuantityTv.setText(itemQuantity);
-        switch (supplierName){
-            case 1:
-                supplierNameTv.setText(R.string.supplier_number_one);
-                break;
-            case 2:
-                supplierNameTv.setText(R.string.supplier_number_two);
-                break;
-            case 3:
-                supplierNameTv.setText(R.string.supplier_number_three);
+                holder.itemTypeTv.setText(R.string.type_belts_and_wallets);
                 break;
             default:
-                supplierNameTv.setText(R.string.supplier_main);
+                holder.itemTypeTv.setText(R.string.type_casual);
                 break;
         }
-        supplierPhoneTv.setText(supplierPhone);
-        // Edit item on click listener to
-        // open the editor activity for the selected item in the list to be edited
-        editItemBtn.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View view) {
-                Intent intent = new Intent(view.getContext(), EditorActivity.class);
-                Uri currentItemUri = ContentUris.withAppendedId(ItemContract.ItemEntry.CONTENT_URI, Long.parseLong(itemId));
-                intent.setData(currentItemUri);
-                context.startActivity(intent);
-            }
-        });
+        holder.itemNameTv.setText(itemName);
+        holder.itemDescriptionTv.setText(itemDescription);
+        holder.itemDescriptionTv.setMaxLines(expanded ? Integer.MAX_VALUE : DESCRIPTION_SNIPPET_LINES);
+        holder.itemPriceTv.setText(itemPrice);
+        holder.itemQuantityTv.setText(itemQuantity);
+        holder.supplierNameTv.setText(supplierName);
+        holder.supplierPhoneTv.setText(supplierPhone);
+        mBindTime.recordSince(start);
+    }
+
+    /**
+     * Find the columns of item attributes that we're interested in.
+     */
+    private void resolveColumnIndices(Cursor cursor) {
+        mIdColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry._ID);
+        mTypeColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_CATEGORY_TYPE);
+        mNameColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_PRODUCT_NAME);
+        mDescriptionSnippetColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_DESCRIPTION_SNIPPET);
+        mPriceColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_PRICE);
+        mQuantityColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY);
+        mSupplierNameColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_SUPPLIER_NAME);
+        mSupplierPhoneColumnIndex = cursor.getColumnIndex(ItemContract.ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER);
+    }
+
+    /**
+     * Clears the list item while the page of its item is being read again.
+     */
+    private void bindPlaceholder(ItemViewHolder holder) {
+        holder.itemId = -1;
+        holder.descriptionTruncated = false;
+        holder.itemTypeTv.setText(null);
+        holder.itemNameTv.setText(null);
+        holder.itemDescriptionTv.setText(null);
+        holder.itemPriceTv.setText(null);
+        holder.itemQuantityTv.setText(null);
+        holder.supplierNameTv.setText(null);
+        holder.supplierPhoneTv.setText(null);
+        holder.saleBtn.setEnabled(false);
+        holder.editItemBtn.setEnabled(false);
     }
 }
@@ -0,0 +1,58 @@
+package com.example.wisemo.myinventory;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+
+import com.example.wisemo.myinventory.data.InventoryMetrics;
+
+/**
+ * {@link ScrollFrameMonitor} records the time between the frames drawn while a list scrolls in the
+ * {@code list.scroll_frame_us} histogram of the {@link InventoryMetrics}: at 60 Hz a smooth scroll
+ * has frames of about 16.7 ms, the longer ones are the dropped frames.
+ * Choreographer is only available from Jelly Bean, the monitor must not be created before.
+ */
+class ScrollFrameMonitor extends RecyclerView.OnScrollListener implements Choreographer.FrameCallback {
+
+    private final InventoryMetrics.Histogram mFrameTime =
+            InventoryMetrics.getInstance().histogram("list.scroll_frame_us");
+
+    private boolean mScrolling;
+
+    /** Whether the frame callback is posted */
+    private boolean mPosted;
+
+    /** Time of the previous frame of the scroll, 0 for the first one */
+    private long mLastFrameNanos;
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        mScrolling = newState != RecyclerView.SCROLL_STATE_IDLE;
+        if (mScrolling && !mPosted) {
+            mLastFrameNanos = 0;
+            mPosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mPosted = false;
+        if (mLastFrameNanos != 0) {
+            mFrameTime.record((frameTimeNanos - mLastFrameNanos) / 1000);
+        }
+        if (mScrolling) {
+            mLastFrameNanos = frameTimeNanos;
+            mPosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /** Stop recording the frames, when the list goes away. */
+    void stop() {
+        mScrolling = false;
+        if (mPosted) {
+            mPosted = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link ChangeNotifier} coalesces the change notifications of the {@link ItemProvider}.
+ * The URIs changed within the notification window are merged and notified once each when the
+ * window ends (or earlier when {@link #flush()} is called at the end of a batch), so a burst
+ * of writes makes the list loader requery once instead of once per write.
+ */
+final class ChangeNotifier {
+
+    private final ContentResolver mContentResolver;
+    private final long mWindowMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** URIs changed since the last notification, guarded by this */
+    private final Set<Uri> mPending = new LinkedHashSet<>();
+
+    /** Number of notifications sent and merged into another one, guarded by this */
+    private long mSentCount;
+    private long mSuppressedCount;
+
+    /** {@link System#nanoTime()} of the first change of the pending notifications, guarded by this */
+    private long mFirstPendingNanos;
+
+    /** Delay between a change and its notification, and when the last notification was sent */
+    private final InventoryMetrics mMetrics = InventoryMetrics.getInstance();
+    private final InventoryMetrics.Histogram mDelay = mMetrics.histogram("notify.delay_us");
+
+    /** Runnable that sends the pending notifications once the window ends */
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param contentResolver The resolver used to send the notifications.
+     * @param windowMillis    How long the changes are merged before they're notified.
+     */
+    ChangeNotifier(ContentResolver contentResolver, long windowMillis) {
+        mContentResolver = contentResolver;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Remember that the data at the given URI has changed, the listeners are notified
+     * when the current window ends.
+     */
+    void notifyChange(Uri uri) {
+        synchronized (this) {
+            if (!mPending.add(uri)) {
+                // Already notified by the pending notification of the same URI
+                mSuppressedCount++;
+                return;
+            }
+            if (mPending.size() > 1) {
+                // The window is already open
+                return;
+            }
+            mFirstPendingNanos = System.nanoTime();
+        }
+        mHandler.postDelayed(mFlush, mWindowMillis);
+    }
+
+    /**
+     * Send the pending notifications right away, one for each changed URI.
+     */
+    void flush() {
+        mHandler.removeCallbacks(mFlush);
+        List<Uri> uris = new ArrayList<>();
+        long firstPendingNanos;
+        synchronized (this) {
+            firstPendingNanos = mFirstPendingNanos;
+            for (Uri uri : mPending) {
+                // Skip the URIs whose parent is notified as well, the listeners of the parent
+                // URI are notified for its descendants.
+                if (hasPendingParent(uri)) {
+                    mSuppressedCount++;
+                } else {
+                    uris.add(uri);
+                }
+            }
+            mPending.clear();
+            mSentCount += uris.size();
+        }
+        if (uris.isEmpty()) {
+            return;
+        }
+        mDelay.recordSince(firstPendingNanos);
+        mMetrics.onChangeNotified(firstPendingNanos);
+        for (Uri uri : uris) {
+            mContentResolver.notifyChange(uri, null);
+        }
+    }
+
+    /** Returns the number of notifications actually sent. */
+    synchronized long getSentCount() {
+        return mSentCount;
+    }
+
+    /** Returns the number of notifications merged into another one. */
+    synchronized long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    private boolean hasPendingParent(Uri uri) {
+        String path = uri.toString();
+        for (Uri pending : mPending) {
+            if (path.startsWith(pending.toString() + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.wisemo.myinventory.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * File operations of the backup and restore of the inventory database, run by the {@link ItemProvider}
+ * which owns the database. A backup is a zip archive holding a consistent copy of the database
+ * and the SHA-256 checksum of that copy.
+ */
+final class InventoryBackup {
+
+    /** Name of the archive entry holding the database */
+    private static final String DATABASE_ENTRY = ItemDbHelper.DATABASE_NAME;
+
+    /** Name of the archive entry holding the hexadecimal SHA-256 checksum of the database */
+    private static final String CHECKSUM_ENTRY = ItemDbHelper.DATABASE_NAME + ".sha256";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private InventoryBackup() {
+    }
+
+    /**
+     * Write a consistent copy of the live database to the staging file, as a single file without
+     * write-ahead log. With VACUUM INTO (Android 11 on) the copy is made by a read transaction and
+     * doesn't block the writers at all. Before that, the database and its write-ahead log are copied
+     * while a transaction holds the write lock, which only blocks the writers for the time of a raw
+     * file copy, then the log of the copy is checkpointed into it.
+     */
+    static void snapshot(SQLiteDatabase database, File liveFile, File stagingFile) throws IOException {
+        deleteDatabaseFiles(stagingFile);
+        // VACUUM INTO needs SQLite 3.27, shipped from Android 11 (API 30) on
+        if (Build.VERSION.SDK_INT >= 30) {
+            database.execSQL("VACUUM INTO ?", new Object[]{stagingFile.getPath()});
+            return;
+        }
+
+        File liveLog = new File(liveFile.getPath() + "-wal");
+        database.beginTransaction();
+        try {
+            copy(liveFile, stagingFile);
+            if (liveLog.exists()) {
+                copy(liveLog, new File(stagingFile.getPath() + "-wal"));
+            }
+        } finally {
+            database.endTransaction();
+        }
+
+        // Opening the copy reads its log, the checkpoint writes it into the database file
+        SQLiteDatabase copy = SQLiteDatabase.openDatabase(stagingFile.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            queryPragma(copy, "PRAGMA wal_checkpoint(TRUNCATE)");
+            queryPragma(copy, "PRAGMA journal_mode = DELETE");
+        } finally {
+            copy.close();
+        }
+        new File(stagingFile.getPath() + "-wal").delete();
+        new File(stagingFile.getPath() + "-shm").delete();
+    }
+
+    /**
+     * Compress the staging copy of the database into a backup archive written to the output.
+     * Returns the hexadecimal SHA-256 checksum of the database.
+     */
+    static String compress(File stagingFile, OutputStream out) throws IOException {
+        MessageDigest digest = newDigest();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.putNextEntry(new ZipEntry(DATABASE_ENTRY));
+        InputStream in = new DigestInputStream(new FileInputStream(stagingFile), digest);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                zip.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        zip.closeEntry();
+
+        String checksum = toHex(digest.digest());
+        zip.putNextEntry(new ZipEntry(CHECKSUM_ENTRY));
+        zip.write(checksum.getBytes("US-ASCII"));
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+        return checksum;
+    }
+
+    /**
+     * Extract the database of a backup archive to the staging file, checking it against the checksum
+     * of the archive. Returns the checksum, throws an IOException if the archive is invalid.
+     */
+    static String extract(InputStream in, File stagingFile) throws IOException {
+        deleteDatabaseFiles(stagingFile);
+        MessageDigest digest = newDigest();
+        String actual = null;
+        String expected = null;
+
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while ((entry = zip.getNextEntry()) != null) {
+            if (DATABASE_ENTRY.equals(entry.getName())) {
+                OutputStream out = new DigestOutputStream(new FileOutputStream(stagingFile), digest);
+                try {
+                    int read;
+                    while ((read = zip.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
+                actual = toHex(digest.digest());
+            } else if (CHECKSUM_ENTRY.equals(entry.getName())) {
+                StringBuilder checksum = new StringBuilder();
+                int read;
+                while ((read = zip.read(buffer)) != -1) {
+                    checksum.append(new String(buffer, 0, read, "US-ASCII"));
+                }
+                expected = checksum.toString().trim();
+            }
+        }
+
+        if (actual == null || expected == null) {
+            throw new IOException("The backup has no database or no checksum");
+        }
+        if (!actual.equalsIgnoreCase(expected)) {
+            throw new IOException("The checksum of the backup doesn't match its database");
+        }
+        return actual;
+    }
+
+    /**
+     * Check that the staging file is a sound inventory database which the current version of the app
+     * can open, throw an IOException otherwise.
+     */
+    static void checkDatabase(File stagingFile) throws IOException {
+        SQLiteDatabase database;
+        try {
+            database = SQLiteDatabase.openDatabase(stagingFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        } catch (RuntimeException e) {
+            throw new IOException("The backup isn't a database", e);
+        }
+        try {
+            String check = queryPragma(database, "PRAGMA quick_check");
+            if (!"ok".equals(check)) {
+                throw new IOException("The backup database is damaged: " + check);
+            }
+            if (database.getVersion() > ItemDbHelper.DATABASE_VERSION) {
+                throw new IOException("The backup comes from a newer version of the app");
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("The backup database can't be read", e);
+        } finally {
+            database.close();
+        }
+    }
+
+    /** Delete the database file and its journal, log and shared memory files. */
+    static void deleteDatabaseFiles(File databaseFile) {
+        databaseFile.delete();
+        new File(databaseFile.getPath() + "-journal").delete();
+        new File(databaseFile.getPath() + "-wal").delete();
+        new File(databaseFile.getPath() + "-shm").delete();
+    }
+
+    /** Run a pragma returning a row (which execSQL() refuses) and return its first column. */
+    private static String queryPragma(SQLiteDatabase database, String pragma) {
+        Cursor cursor = database.rawQuery(pragma, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        FileChannel in = new FileInputStream(from).getChannel();
+        try {
+            FileChannel out = new FileOutputStream(to).getChannel();
+            try {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.wisemo.myinventory.data;
+
+import android.os.Bundle;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link InventoryMetrics} collects the counters and histograms of the app process: the latency of
+ * the operations of the {@link ItemProvider} per URI, the rows and window fill time of its cursors,
+ * the delay from a change notification to the list page showing it and the bind time of the rows.
+ * The recording code resolves its histograms once, recording a value is then a few atomic increments
+ * without lock nor allocation, so the metrics stay on in production. They are read through {@link ItemContract#METHOD_GET_METRICS} or the dump of the
+ * provider ({@code adb shell dumpsys activity provider ItemProvider}).
+ */
+public final class InventoryMetrics {
+
+    private static final InventoryMetrics sInstance = new InventoryMetrics();
+
+    private final ConcurrentMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+
+    /** {@link System#nanoTime()} of the change behind the last notification sent, 0 if none */
+    private volatile long mLastNotifiedChangeNanos;
+
+    private InventoryMetrics() {
+    }
+
+    public static InventoryMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns the histogram with the given name, created on first use. The callers recording often
+     * keep it instead of looking it up every time. By convention, the names of the histograms of
+     * durations end with {@code _us} (microseconds) and the ones of counts with {@code _rows}.
+     */
+    public Histogram histogram(String name) {
+        Histogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = mHistograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Remember when the change behind a notification being sent happened, the list measures the
+     * delay until it shows the change from it.
+     */
+    void onChangeNotified(long changeNanos) {
+        mLastNotifiedChangeNanos = changeNanos;
+    }
+
+    /** Returns the {@link System#nanoTime()} of the change behind the last notification sent, 0 if none. */
+    public long getLastNotifiedChangeNanos() {
+        return mLastNotifiedChangeNanos;
+    }
+
+    /** Returns the metrics as a Bundle holding a Bundle per histogram, see {@link Histogram#toBundle()}. */
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            bundle.putBundle(entry.getKey(), entry.getValue().toBundle());
+        }
+        return bundle;
+    }
+
+    /** Print one line per histogram, sorted by name. */
+    void dump(PrintWriter writer) {
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(mHistograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            writer.print(entry.getKey());
+            writer.print(" count=");
+            writer.print(histogram.getCount());
+            writer.print(" mean=");
+            writer.print(histogram.getMean());
+            writer.print(" p50=");
+            writer.print(histogram.getPercentile(50));
+            writer.print(" p90=");
+            writer.print(histogram.getPercentile(90));
+            writer.print(" p99=");
+            writer.print(histogram.getPercentile(99));
+            writer.print(" max=");
+            writer.println(histogram.getMax());
+        }
+    }
+
+    /** Clear all the histograms, for a new measurement. */
+    void reset() {
+        for (Histogram histogram : mHistograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Histogram of non negative values in power of 2 buckets: the bucket i holds the values of
+     * {@code [2^(i-1), 2^i - 1]}, so the percentiles are upper bounds within a factor of 2 of the
+     * actual values, while the count, the total and the maximum are exact.
+     */
+    public static final class Histogram {
+
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotal = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        Histogram() {
+        }
+
+        /** Record a value, negative values are recorded as 0. */
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mBuckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+            mCount.incrementAndGet();
+            mTotal.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        /** Record the microseconds elapsed since the given {@link System#nanoTime()}. */
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        public long getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mTotal.get() / count;
+        }
+
+        /** Returns the upper bound of the bucket holding the given percentile of the values. */
+        public long getPercentile(int percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (count * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        /** Returns the count, mean, median, 90th and 99th percentiles and maximum of the values. */
+        Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            bundle.putLong("count", getCount());
+            bundle.putLong("mean", getMean());
+            bundle.putLong("p50", getPercentile(50));
+            bundle.putLong("p90", getPercentile(90));
+            bundle.putLong("p99", getPercentile(99));
+            bundle.putLong("max", getMax());
+            return bundle;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mTotal.set(0);
+            mMax.set(0);
+        }
+    }
+}
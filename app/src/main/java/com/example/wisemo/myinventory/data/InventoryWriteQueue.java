@@ -0,0 +1,307 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link InventoryWriteQueue} applies all the writes to the {@link ItemProvider} on a single
+ * background writer thread, so the UI thread never waits for SQLite.
+ * Writes that are queued while the writer is busy are flushed together as one batch
+ * (one transaction through {@link ContentResolver#applyBatch}), and the quantity adjustments queued
+ * next to each other as one {@link ItemContract#METHOD_ADJUST_QUANTITIES} call, then the result of
+ * every write is posted back to its callback on the main thread. A write which fails, whatever the
+ * error, is reported to its callback and doesn't stop the writer thread.
+ */
+public final class InventoryWriteQueue {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = InventoryWriteQueue.class.getSimpleName();
+
+    /**
+     * Callback for a queued write, always called on the main thread.
+     */
+    public interface Callback {
+        /**
+         * @param uri   The content URI of the new item for an insert, or null if the insert failed.
+         * @param count The number of rows affected for an update or delete.
+         */
+        void onWriteComplete(Uri uri, int count);
+    }
+
+    /**
+     * Callback for a queued quantity adjustment, always called on the main thread.
+     */
+    public interface QuantityCallback {
+        /**
+         * @param quantity The new quantity of the item, or -1 if the adjustment has been refused.
+         * @param lowStock True if the quantity of the item is below its reorder threshold.
+         */
+        void onQuantityAdjusted(int quantity, boolean lowStock);
+    }
+
+    private static InventoryWriteQueue sInstance;
+
+    /**
+     * Returns the single write queue of the app, so all writes go through the same writer thread.
+     */
+    public static synchronized InventoryWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new InventoryWriteQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final ContentResolver mContentResolver;
+    private final Handler mWriterHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Writes waiting for the next flush, guarded by itself */
+    private final List<Write> mPending = new ArrayList<>();
+
+    /** Runnable that drains {@link #mPending} on the writer thread */
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private InventoryWriteQueue(Context context) {
+        mContentResolver = context.getContentResolver();
+        HandlerThread writerThread = new HandlerThread(LOG_TAG);
+        writerThread.start();
+        mWriterHandler = new Handler(writerThread.getLooper());
+    }
+
+    /** Queue the insertion of a new item into the given content URI. */
+    public void insert(Uri uri, ContentValues values, Callback callback) {
+        enqueue(new Write(Write.INSERT, uri, values, 0, 0, 0, callback, null));
+    }
+
+    /** Queue an update of the item(s) at the given content URI. */
+    public void update(Uri uri, ContentValues values, Callback callback) {
+        enqueue(new Write(Write.UPDATE, uri, values, 0, 0, 0, callback, null));
+    }
+
+    /** Queue the deletion of the item(s) at the given content URI. */
+    public void delete(Uri uri, Callback callback) {
+        enqueue(new Write(Write.DELETE, uri, null, 0, 0, 0, callback, null));
+    }
+
+    /**
+     * Queue an atomic change of the quantity of the item at the given content URI, recorded in the
+     * stock ledger with the given reason, see {@link ItemContract#METHOD_ADJUST_QUANTITY}.
+     */
+    public void adjustQuantity(Uri itemUri, int delta, int reason, QuantityCallback callback) {
+        adjustQuantity(itemUri, ItemContract.LocationEntry.LOCATION_MAIN, delta, reason, callback);
+    }
+
+    /**
+     * Queue an atomic change of the stock of the item at the given content URI at one location,
+     * the callback receives the total quantity of the item across the locations.
+     */
+    public void adjustQuantity(Uri itemUri, long locationId, int delta, int reason, QuantityCallback callback) {
+        enqueue(new Write(Write.ADJUST_QUANTITY, itemUri, null, locationId, delta, reason, null, callback));
+    }
+
+    private void enqueue(Write write) {
+        synchronized (mPending) {
+            mPending.add(write);
+            // Only the first write of a batch needs to schedule the flush, the others join it.
+            if (mPending.size() == 1) {
+                mWriterHandler.post(mFlush);
+            }
+        }
+    }
+
+    /**
+     * Apply all the pending writes in order. Inserts, updates and deletes are applied as one
+     * batch, consecutive quantity adjustments as one provider call.
+     */
+    private void flush() {
+        List<Write> writes;
+        synchronized (mPending) {
+            writes = new ArrayList<>(mPending);
+            mPending.clear();
+        }
+
+        // Keep the order of the writes: a run of one kind is applied before the next run starts
+        List<Write> batch = new ArrayList<>();
+        List<Write> adjustments = new ArrayList<>();
+        for (Write write : writes) {
+            if (write.mKind == Write.ADJUST_QUANTITY) {
+                applyBatch(batch);
+                batch.clear();
+                adjustments.add(write);
+            } else {
+                applyAdjustments(adjustments);
+                adjustments.clear();
+                batch.add(write);
+            }
+        }
+        applyBatch(batch);
+        applyAdjustments(adjustments);
+    }
+
+    private void applyBatch(List<Write> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size());
+        for (Write write : batch) {
+            operations.add(write.toOperation());
+        }
+        try {
+            ContentProviderResult[] results =
+                    mContentResolver.applyBatch(ItemContract.CONTENT_AUTHORITY, operations);
+            for (int i = 0; i < batch.size(); i++) {
+                Write write = batch.get(i);
+                if (write.mKind == Write.INSERT) {
+                    deliver(write, results[i].uri, 0);
+                } else {
+                    deliver(write, null, results[i].count == null ? 0 : results[i].count);
+                }
+            }
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            if (batch.size() == 1) {
+                Log.e(LOG_TAG, "Failed to apply write to " + batch.get(0).mUri, e);
+                deliver(batch.get(0), null, 0);
+                return;
+            }
+            // One invalid write rolls back the whole batch, apply them one by one instead
+            // so only the invalid one fails.
+            for (Write write : batch) {
+                applyBatch(Collections.singletonList(write));
+            }
+        }
+    }
+
+    /**
+     * Apply the quantity adjustments in a single provider call, so they are committed in a single
+     * transaction. The provider refuses a whole call with an invalid argument, then the adjustments
+     * are applied one by one so only the invalid one fails.
+     */
+    private void applyAdjustments(List<Write> adjustments) {
+        if (adjustments.isEmpty()) {
+            return;
+        }
+        int count = adjustments.size();
+        long[] ids = new long[count];
+        long[] locationIds = new long[count];
+        int[] deltas = new int[count];
+        int[] reasons = new int[count];
+        for (int i = 0; i < count; i++) {
+            Write write = adjustments.get(i);
+            ids[i] = ContentUris.parseId(write.mUri);
+            locationIds[i] = write.mLocationId;
+            deltas[i] = write.mDelta;
+            reasons[i] = write.mReason;
+        }
+        try {
+            Bundle extras = new Bundle();
+            extras.putLongArray(ItemContract.EXTRA_ITEM_IDS, ids);
+            extras.putLongArray(ItemContract.EXTRA_LOCATION_IDS, locationIds);
+            extras.putIntArray(ItemContract.EXTRA_QUANTITY_DELTAS, deltas);
+            extras.putIntArray(ItemContract.EXTRA_REASONS, reasons);
+            Bundle result = mContentResolver.call(ItemContract.ItemEntry.CONTENT_URI,
+                    ItemContract.METHOD_ADJUST_QUANTITIES, null, extras);
+            int[] quantities = result == null ? null : result.getIntArray(ItemContract.EXTRA_QUANTITIES);
+            boolean[] lowStocks = result == null ? null : result.getBooleanArray(ItemContract.EXTRA_LOW_STOCKS);
+            for (int i = 0; i < count; i++) {
+                deliverQuantity(adjustments.get(i), quantities == null ? -1 : quantities[i],
+                        lowStocks != null && lowStocks[i]);
+            }
+        } catch (RuntimeException e) {
+            if (count == 1) {
+                Log.e(LOG_TAG, "Failed to adjust the quantity of " + adjustments.get(0).mUri, e);
+                deliverQuantity(adjustments.get(0), -1, false);
+                return;
+            }
+            for (Write write : adjustments) {
+                applyAdjustments(Collections.singletonList(write));
+            }
+        }
+    }
+
+    /** Post the result of the quantity adjustment back to its callback on the main thread. */
+    private void deliverQuantity(final Write write, final int quantity, final boolean lowStock) {
+        if (write.mQuantityCallback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                write.mQuantityCallback.onQuantityAdjusted(quantity, lowStock);
+            }
+        });
+    }
+
+    /** Post the result of the write back to its callback on the main thread. */
+    private void deliver(final Write write, final Uri uri, final int count) {
+        if (write.mCallback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                write.mCallback.onWriteComplete(uri, count);
+            }
+        });
+    }
+
+    /** A single queued write. */
+    private static final class Write {
+        static final int INSERT = 0;
+        static final int UPDATE = 1;
+        static final int DELETE = 2;
+        static final int ADJUST_QUANTITY = 3;
+
+        final int mKind;
+        final Uri mUri;
+        final ContentValues mValues;
+        final long mLocationId;
+        final int mDelta;
+        final int mReason;
+        final Callback mCallback;
+        final QuantityCallback mQuantityCallback;
+
+        Write(int kind, Uri uri, ContentValues values, long locationId, int delta, int reason, Callback callback,
+              QuantityCallback quantityCallback) {
+            mKind = kind;
+            mUri = uri;
+            mValues = values;
+            mLocationId = locationId;
+            mDelta = delta;
+            mReason = reason;
+            mCallback = callback;
+            mQuantityCallback = quantityCallback;
+        }
+
+        ContentProviderOperation toOperation() {
+            switch (mKind) {
+                case INSERT:
+                    return ContentProviderOperation.newInsert(mUri).withValues(mValues).build();
+                case UPDATE:
+                    return ContentProviderOperation.newUpdate(mUri).withValues(mValues).build();
+                default:
+                    return ContentProviderOperation.newDelete(mUri).build();
+            }
+        }
+    }
+}
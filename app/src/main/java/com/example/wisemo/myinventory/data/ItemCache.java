@@ -0,0 +1,192 @@
+package com.example.wisemo.myinventory.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.LruCache;
+
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link ItemCache} keeps the most recently read rows of the items of the {@link ItemProvider},
+ * with all their columns and the name and phone number of their supplier, so the single item queries of the editor are answered without SQLite.
+ * The provider removes or updates the rows it writes, and clears the cache when it writes rows it
+ * can't name. A row read before such a write is not cached, so the cache never holds a stale row.
+ */
+final class ItemCache {
+
+    /** Rows of the items by ID, each value holding the columns of {@link #mColumnIndices} */
+    private final LruCache<Long, Object[]> mRows;
+
+    /** Index of every column of the items and their supplier in the cached rows, guarded by this */
+    private Map<String, Integer> mColumnIndices;
+
+    /** Incremented by every write, so a row read before a write is not cached, guarded by this */
+    private long mGeneration;
+
+    /**
+     * @param maxItems The number of items kept in the cache, the least recently used are evicted.
+     */
+    ItemCache(int maxItems) {
+        mRows = new LruCache<>(maxItems);
+    }
+
+    /**
+     * Returns a cursor over the item with the given columns (all of them if null), read from the cache
+     * or, if it isn't cached, from the database and then cached. Returns null if a column isn't a plain
+     * column of the items or their supplier, the query must then go to the database.
+     */
+    Cursor query(SQLiteDatabase database, long id, String[] projection) {
+        Map<String, Integer> columnIndices;
+        Object[] row = null;
+        synchronized (this) {
+            columnIndices = mColumnIndices;
+            if (columnIndices != null) {
+                if (!isCached(columnIndices, projection)) {
+                    return null;
+                }
+                row = mRows.get(id);
+            }
+        }
+
+        if (row == null) {
+            // Read the whole row, so any projection of the item can be answered by the cache next time
+            long generation = getGeneration();
+            Cursor cursor = database.query(ItemEntry.VIEW_NAME, null, ItemEntry._ID + "=?",
+                    new String[]{String.valueOf(id)}, null, null, null);
+            try {
+                columnIndices = indexColumns(cursor.getColumnNames());
+                if (!isCached(columnIndices, projection)) {
+                    return null;
+                }
+                if (!cursor.moveToFirst()) {
+                    // No such item
+                    return new MatrixCursor(projection == null ? cursor.getColumnNames() : projection, 0);
+                }
+                row = readRow(cursor);
+            } finally {
+                cursor.close();
+            }
+            put(id, row, columnIndices, generation);
+        }
+
+        if (projection == null) {
+            projection = new String[columnIndices.size()];
+            for (Map.Entry<String, Integer> column : columnIndices.entrySet()) {
+                projection[column.getValue()] = column.getKey();
+            }
+        }
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            values[i] = row[columnIndices.get(projection[i])];
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    /** Returns whether all the columns of the projection are in the cached rows. */
+    private static boolean isCached(Map<String, Integer> columnIndices, String[] projection) {
+        if (projection != null) {
+            for (String column : projection) {
+                if (!columnIndices.containsKey(column)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, Integer> indexColumns(String[] columns) {
+        Map<String, Integer> columnIndices = new HashMap<>();
+        for (int i = 0; i < columns.length; i++) {
+            columnIndices.put(columns[i], i);
+        }
+        return columnIndices;
+    }
+
+    /** Returns the values of the row at the current position of the cursor. */
+    private static Object[] readRow(Cursor cursor) {
+        Object[] row = new Object[cursor.getColumnCount()];
+        for (int i = 0; i < row.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    row[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = null;
+                    break;
+            }
+        }
+        return row;
+    }
+
+    private synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /** Cache the row, unless an item has been written since it was read at the given generation. */
+    private synchronized void put(long id, Object[] row, Map<String, Integer> columnIndices, long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        if (mColumnIndices == null) {
+            mColumnIndices = columnIndices;
+        }
+        mRows.put(id, row);
+    }
+
+    /** Replace the value of a column of the cached item, if it's cached. */
+    synchronized void update(long id, String column, Object value) {
+        mGeneration++;
+        Object[] row = mRows.get(id);
+        if (row == null || mColumnIndices == null || !mColumnIndices.containsKey(column)) {
+            return;
+        }
+        // The rows are shared with the readers, replace the row instead of changing it
+        Object[] updated = row.clone();
+        updated[mColumnIndices.get(column)] = value;
+        mRows.put(id, updated);
+    }
+
+    /** Remove the item from the cache. */
+    synchronized void remove(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /** Remove all the items from the cache, and forget their columns in case the schema has changed. */
+    synchronized void clear() {
+        mGeneration++;
+        mRows.evictAll();
+        mColumnIndices = null;
+    }
+
+    int getHitCount() {
+        return mRows.hitCount();
+    }
+
+    int getMissCount() {
+        return mRows.missCount();
+    }
+
+    int getEvictionCount() {
+        return mRows.evictionCount();
+    }
+
+    int getSize() {
+        return mRows.size();
+    }
+}
@@ -33,12 +33,287 @@ public final class ItemContract {
      */
     public static final String PATH_ITEMS = "items";
 
+    /**
+     * Path of the full-text search over the product name and description of the items,
+     * for instance content://com.example.wisemo.myinventory/items/search?q=cotton
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path of the items whose quantity is below their reorder threshold,
+     * for instance content://com.example.wisemo.myinventory/items/low_stock
+     */
+    public static final String PATH_LOW_STOCK = "low_stock";
+
+    /**
+     * Path of the aggregates of the items per category and per supplier,
+     * for instance content://com.example.wisemo.myinventory/items/stats
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path of the stock movement ledger of the items,
+     * for instance content://com.example.wisemo.myinventory/stock_movements
+     */
+    public static final String PATH_STOCK_MOVEMENTS = "stock_movements";
+
+    /**
+     * Path of the checkpoints of the catalog imports,
+     * for instance content://com.example.wisemo.myinventory/imports
+     */
+    public static final String PATH_IMPORTS = "imports";
+
+    /**
+     * Path of the suppliers of the items,
+     * for instance content://com.example.wisemo.myinventory/suppliers
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /**
+     * Path of the locations (stores and warehouses) holding the stock,
+     * for instance content://com.example.wisemo.myinventory/locations
+     */
+    public static final String PATH_LOCATIONS = "locations";
+
+    /**
+     * Path of the quantities of the items per location,
+     * for instance content://com.example.wisemo.myinventory/stock_levels
+     */
+    public static final String PATH_STOCK_LEVELS = "stock_levels";
+
+    /** Query parameter of the search content URI holding the text typed by the user. */
+    public static final String QUERY_PARAMETER_SEARCH = "q";
+
+    /**
+     * Optional query parameter of the items content URI that limits the number of rows returned,
+     * for instance content://com.example.wisemo.myinventory/items?limit=100
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Optional query parameters of the items content URI passed to {@code bulkInsert()} by an import:
+     * the source of the imported rows and the number of its records read so far. The checkpoint of the
+     * source is written in the same transaction as the rows, so an interrupted import can resume
+     * after the last rows written without duplicating them.
+     */
+    public static final String QUERY_PARAMETER_IMPORT_SOURCE = "import_source";
+    public static final String QUERY_PARAMETER_IMPORT_POSITION = "import_position";
+
+    /**
+     * Name of the provider {@code call()} method that atomically adds a delta to the quantity of
+     * a single item at a location. The item ID is passed as the {@code arg} string, the delta as
+     * {@link #EXTRA_QUANTITY_DELTA} and the location as {@link #EXTRA_LOCATION_ID}. The returned Bundle
+     * holds {@link #EXTRA_QUANTITY} with the new quantity, or -1 if the item doesn't exist or the stock
+     * at the location would drop below zero.
+     */
+    public static final String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+
+    /**
+     * Bundle key for the ID of the location whose stock is changed by {@link #METHOD_ADJUST_QUANTITY},
+     * {@link LocationEntry#LOCATION_MAIN} if not provided. The returned quantity is still the total
+     * of the item across all the locations.
+     */
+    public static final String EXTRA_LOCATION_ID = "location_id";
+
+    /** Bundle key for the (signed) quantity delta passed to {@link #METHOD_ADJUST_QUANTITY}. */
+    public static final String EXTRA_QUANTITY_DELTA = "quantity_delta";
+
+    /**
+     * Bundle key for the reason of the change passed to {@link #METHOD_ADJUST_QUANTITY}, one of the
+     * {@link StockMovementEntry} reasons. A sale if not provided and the delta is negative, a restock otherwise.
+     */
+    public static final String EXTRA_REASON = "reason";
+
+    /** Bundle key for the resulting quantity returned by {@link #METHOD_ADJUST_QUANTITY}. */
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /**
+     * Bundle key for the boolean returned by {@link #METHOD_ADJUST_QUANTITY}, true if the quantity
+     * of the item is below its reorder threshold after the change.
+     */
+    public static final String EXTRA_LOW_STOCK = "low_stock";
+
+    /**
+     * Name of the provider {@code call()} method that applies several quantity adjustments in a single
+     * transaction, each one like {@link #METHOD_ADJUST_QUANTITY}. The adjustments are passed as the
+     * parallel arrays {@link #EXTRA_ITEM_IDS}, {@link #EXTRA_LOCATION_IDS}, {@link #EXTRA_QUANTITY_DELTAS}
+     * and {@link #EXTRA_REASONS}, and the returned Bundle holds {@link #EXTRA_QUANTITIES} and
+     * {@link #EXTRA_LOW_STOCKS} in the same order. A refused adjustment gets -1 and doesn't stop the others.
+     */
+    public static final String METHOD_ADJUST_QUANTITIES = "adjust_quantities";
+
+    /* Bundle keys of the arrays passed to and returned by METHOD_ADJUST_QUANTITIES */
+    public static final String EXTRA_ITEM_IDS = "item_ids";
+    public static final String EXTRA_LOCATION_IDS = "location_ids";
+    public static final String EXTRA_QUANTITY_DELTAS = "quantity_deltas";
+    public static final String EXTRA_REASONS = "reasons";
+    public static final String EXTRA_QUANTITIES = "quantities";
+    public static final String EXTRA_LOW_STOCKS = "low_stocks";
+
+    /**
+     * Name of the provider {@code call()} method that returns the change notification counters,
+     * as {@link #EXTRA_NOTIFICATIONS_SENT} and {@link #EXTRA_NOTIFICATIONS_SUPPRESSED}.
+     */
+    public static final String METHOD_GET_NOTIFICATION_STATS = "get_notification_stats";
+
+    /** Bundle key for the number of change notifications sent by the provider. */
+    public static final String EXTRA_NOTIFICATIONS_SENT = "notifications_sent";
+
+    /** Bundle key for the number of change notifications merged into another one. */
+    public static final String EXTRA_NOTIFICATIONS_SUPPRESSED = "notifications_suppressed";
+
+    /**
+     * Name of the provider {@code call()} method that returns the quantity of a single item at a given
+     * time as {@link #EXTRA_QUANTITY}. The item ID is passed as the {@code arg} string and the time
+     * as {@link #EXTRA_TIMESTAMP}. The quantity is read from the nearest stock snapshot before that
+     * time plus the movements recorded after it.
+     */
+    public static final String METHOD_GET_QUANTITY_AT = "get_quantity_at";
+
+    /**
+     * Name of the provider {@code call()} method that returns the number of units sold between
+     * {@link #EXTRA_FROM_TIMESTAMP} (included) and {@link #EXTRA_TO_TIMESTAMP} (excluded) as
+     * {@link #EXTRA_UNITS_SOLD}, for the item whose ID is the {@code arg} string or for all the items
+     * if it's null.
+     */
+    public static final String METHOD_GET_UNITS_SOLD = "get_units_sold";
+
+    /**
+     * Name of the provider {@code call()} method that compacts the stock movements recorded since
+     * the last snapshot into a new snapshot of the items they changed. The provider also does it
+     * on its own every few hundred movements. The returned Bundle holds {@link #EXTRA_SNAPSHOT_COUNT}.
+     */
+    public static final String METHOD_COMPACT_STOCK = "compact_stock";
+
+    /** Bundle key for the time, in milliseconds since the epoch, passed to {@link #METHOD_GET_QUANTITY_AT}. */
+    public static final String EXTRA_TIMESTAMP = "timestamp";
+
+    /** Bundle key for the start of the period passed to {@link #METHOD_GET_UNITS_SOLD}. */
+    public static final String EXTRA_FROM_TIMESTAMP = "from_timestamp";
+
+    /** Bundle key for the end of the period passed to {@link #METHOD_GET_UNITS_SOLD}. */
+    public static final String EXTRA_TO_TIMESTAMP = "to_timestamp";
+
+    /** Bundle key for the number of units returned by {@link #METHOD_GET_UNITS_SOLD}. */
+    public static final String EXTRA_UNITS_SOLD = "units_sold";
+
+    /** Bundle key for the number of item snapshots written by {@link #METHOD_COMPACT_STOCK}. */
+    public static final String EXTRA_SNAPSHOT_COUNT = "snapshot_count";
+
+    /**
+     * Name of the provider {@code call()} method that writes a compressed backup of the inventory
+     * database to the file descriptor passed as {@link #EXTRA_FILE_DESCRIPTOR}. The copy is consistent
+     * and the sales are only blocked for a short time, if at all. The returned Bundle holds
+     * {@link #EXTRA_CHECKSUM}.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Name of the provider {@code call()} method that replaces the inventory database with the backup
+     * read from the file descriptor passed as {@link #EXTRA_FILE_DESCRIPTOR}. The backup is checked
+     * before the database is swapped, the current database is kept if it's invalid. The device then
+     * syncs under a new ID and pulls every change of the sync server again.
+     * The returned Bundle holds {@link #EXTRA_CHECKSUM}.
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /** Bundle key for the ParcelFileDescriptor passed to {@link #METHOD_BACKUP} and {@link #METHOD_RESTORE}. */
+    public static final String EXTRA_FILE_DESCRIPTOR = "file_descriptor";
+
+    /** Bundle key for the hexadecimal SHA-256 checksum of the database of a backup. */
+    public static final String EXTRA_CHECKSUM = "checksum";
+
+    /**
+     * Method of {@link ItemProvider#call} returning the counters of the cache of the single item
+     * queries as {@link #EXTRA_CACHE_HITS}, {@link #EXTRA_CACHE_MISSES}, {@link #EXTRA_CACHE_EVICTIONS}
+     * and {@link #EXTRA_CACHE_SIZE}, to tune its size.
+     */
+    public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+
+    /** Bundle key for the number of item queries answered by the cache. */
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+
+    /** Bundle key for the number of item queries which had to read the database. */
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+
+    /** Bundle key for the number of items dropped from the cache to make room, or cleared by a write of many items. */
+    public static final String EXTRA_CACHE_EVICTIONS = "cache_evictions";
+
+    /** Bundle key for the number of items in the cache. */
+    public static final String EXTRA_CACHE_SIZE = "cache_size";
+
+    /**
+     * Method of {@link ItemProvider#call} returning the histograms of the app process, one Bundle per
+     * histogram name holding its "count", "mean", "p50", "p90", "p99" and "max" as longs. The
+     * latencies ({@code _us} names) are in microseconds, for instance {@code query.items_us}, the
+     * cursor sizes ({@code _rows} names) in rows. The histograms are cleared after being read if
+     * {@link #EXTRA_METRICS_RESET} is true.
+     */
+    public static final String METHOD_GET_METRICS = "get_metrics";
+
+    /** Bundle key for the boolean passed to {@link #METHOD_GET_METRICS} to clear the histograms. */
+    public static final String EXTRA_METRICS_RESET = "metrics_reset";
+
+    /**
+     * Name of the provider {@code call()} method that returns the local changes of the items not yet
+     * pushed to the sync server: at most {@link #EXTRA_SYNC_LIMIT} changed items and deleted items as
+     * {@link #EXTRA_SYNC_CHANGES}, with the ID of the device as {@link #EXTRA_SYNC_DEVICE_ID} and the
+     * watermark of the changes already pulled as {@link #EXTRA_SYNC_WATERMARK}.
+     */
+    public static final String METHOD_GET_SYNC_CHANGES = "get_sync_changes";
+
+    /**
+     * Name of the provider {@code call()} method that marks the changes passed as {@link #EXTRA_SYNC_CHANGES}
+     * as pushed, unless the items have changed again since they were read.
+     */
+    public static final String METHOD_ACK_SYNC_CHANGES = "ack_sync_changes";
+
+    /**
+     * Name of the provider {@code call()} method that replays the changes pulled from the sync server,
+     * passed as {@link #EXTRA_SYNC_CHANGES}, in a single transaction which also stores their
+     * {@link #EXTRA_SYNC_WATERMARK}. The returned Bundle holds the number of items written as
+     * {@link #EXTRA_SYNC_APPLIED}.
+     */
+    public static final String METHOD_APPLY_SYNC_CHANGES = "apply_sync_changes";
+
+    /**
+     * Bundle key for the changes of the sync methods, an ArrayList of ContentValues holding the
+     * {@link ItemEntry#SYNC_COLUMNS} of a changed item, or only its sync ID, version and time with
+     * {@link ItemEntry#SYNC_DELETED} set for a deleted item, or the {@link ItemEntry#SYNC_COUNTER_COLUMNS}
+     * of a changed quantity counter.
+     */
+    public static final String EXTRA_SYNC_CHANGES = "sync_changes";
+
+    /** Bundle key for the maximum number of changes returned by {@link #METHOD_GET_SYNC_CHANGES}. */
+    public static final String EXTRA_SYNC_LIMIT = "sync_limit";
+
+    /** Bundle key for the ID of the device, which identifies its changes on the sync server. */
+    public static final String EXTRA_SYNC_DEVICE_ID = "sync_device_id";
+
+    /** Bundle key for the position of the sync server in its log of changes, pulled up to there. */
+    public static final String EXTRA_SYNC_WATERMARK = "sync_watermark";
+
+    /** Bundle key for the number of items written by {@link #METHOD_APPLY_SYNC_CHANGES}. */
+    public static final String EXTRA_SYNC_APPLIED = "sync_applied";
+
     /* Inner class that defines the ItemEntry table contents */
     public static class ItemEntry implements BaseColumns {
 
         /** The content URI to access the item data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ITEMS);
 
+        /**
+         * The content URI to search the items by product name and description, the results are
+         * ranked by relevance. The words typed are matched as prefixes of the indexed words.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI of the items that need reordering, sorted by quantity.
+         * It's answered from the {@link #LOW_STOCK_TABLE_NAME} table without scanning the items.
+         */
+        public static final Uri LOW_STOCK_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LOW_STOCK);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of items.
          */
@@ -54,6 +329,28 @@ public final class ItemContract {
         /** Name of database table for items */
         public static final String TABLE_NAME = "items";
 
+        /**
+         * Name of the view of the items joined with their supplier, read by the item queries so the
+         * list gets the name and phone number of the supplier of each item in the same query. It also
+         * has the snippet of the description of each item, see {@link #COLUMN_ITEM_DESCRIPTION_SNIPPET}.
+         */
+        public static final String VIEW_NAME = "items_with_suppliers";
+
+        /**
+         * Name of the full-text index of the items, an FTS4 table over the product name and
+         * description columns kept in sync with {@link #TABLE_NAME} by triggers.
+         */
+        public static final String FTS_TABLE_NAME = "items_fts";
+
+        /**
+         * Name of the table holding the IDs of the items whose quantity is below their reorder
+         * threshold, kept up to date by triggers on {@link #TABLE_NAME}.
+         */
+        public static final String LOW_STOCK_TABLE_NAME = "low_stock";
+
+        /** ID of the item in the low stock table. Type: INTEGER */
+        public static final String COLUMN_LOW_STOCK_ITEM_ID = "item_id";
+
         /**
          * Unique ID number for the item (only for use in the database table).
          * Type: INTEGER
@@ -66,9 +363,155 @@ public final class ItemContract {
         public static final String COLUMN_ITEM_AVAILABILITY = "availability";
         public static final String COLUMN_ITEM_PRICE = "price";
         public static final String COLUMN_ITEM_QUANTITY = "quantity";
+
+        /**
+         * ID of the supplier of the item in the {@link SupplierEntry#TABLE_NAME} table.
+         * Type: INTEGER, {@link #SUPPLIER_MAIN} if not provided.
+         */
+        public static final String COLUMN_ITEM_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Name and phone number of the supplier of the item, read from the suppliers table.
+         * They can be queried but not written with the item, see {@link SupplierEntry}.
+         * Type: TEXT
+         */
         public static final String COLUMN_ITEM_SUPPLIER_NAME = "supplier_name";
         public static final String COLUMN_ITEM_SUPPLIER_PHONE_NUMBER = "phone_number";
 
+        /**
+         * The first {@link #DESCRIPTION_SNIPPET_LENGTH} characters of the description of the item,
+         * computed when it's read. It can be queried but not written.
+         * Type: TEXT
+         */
+        public static final String COLUMN_ITEM_DESCRIPTION_SNIPPET = "description_snippet";
+
+        /** Number of characters of the description snippets, about the 3 lines a row of the list shows */
+        public static final int DESCRIPTION_SNIPPET_LENGTH = 120;
+
+        /**
+         * Columns of a row of the items list: the description snippet instead of the whole description,
+         * so a long description doesn't take the space of many rows in the cursor window. The full
+         * description is read with the single item when needed.
+         */
+        public static final String[] LIST_PROJECTION = {
+                _ID,
+                COLUMN_ITEM_CATEGORY_TYPE,
+                COLUMN_ITEM_PRODUCT_NAME,
+                COLUMN_ITEM_DESCRIPTION_SNIPPET,
+                COLUMN_ITEM_PRICE,
+                COLUMN_ITEM_QUANTITY,
+                COLUMN_ITEM_SUPPLIER_NAME,
+                COLUMN_ITEM_SUPPLIER_PHONE_NUMBER};
+
+        /**
+         * Quantity under which the item needs to be ordered from the supplier.
+         * Type: INTEGER, {@link #DEFAULT_REORDER_THRESHOLD} if not provided.
+         */
+        public static final String COLUMN_ITEM_REORDER_THRESHOLD = "reorder_threshold";
+
+        /** Reorder threshold of the items which don't have their own */
+        public static final int DEFAULT_REORDER_THRESHOLD = 50;
+
+        /**
+         * Random ID of the item shared by all the devices, its _ID is only local. Set when the item is
+         * created. Type: TEXT
+         */
+        public static final String COLUMN_ITEM_SYNC_ID = "sync_id";
+
+        /** Time of the last change of the item in milliseconds since the epoch. Type: INTEGER */
+        public static final String COLUMN_ITEM_UPDATED_AT = "updated_at";
+
+        /**
+         * Number of changes of the item, on any device. The change with the highest version, then the
+         * latest one, wins a conflict. Type: INTEGER
+         */
+        public static final String COLUMN_ITEM_VERSION = "version";
+
+        /** 1 if the item has changed since it was last pushed to the sync server, 0 otherwise. Type: INTEGER */
+        public static final String COLUMN_ITEM_DIRTY = "dirty";
+
+        /**
+         * The sync columns are set by the triggers of the database and the sync, they can't be written
+         * through the provider.
+         */
+        public static final String[] SYNC_METADATA_COLUMNS = {
+                COLUMN_ITEM_SYNC_ID,
+                COLUMN_ITEM_UPDATED_AT,
+                COLUMN_ITEM_VERSION,
+                COLUMN_ITEM_DIRTY};
+
+        /**
+         * The columns of an item exchanged with the sync server, the latest change of an item wins.
+         * The quantity isn't one of them, it's synced through the {@link #COUNTER_TABLE_NAME} counters
+         * so the concurrent sales of the devices add up.
+         */
+        public static final String[] SYNC_COLUMNS = {
+                COLUMN_ITEM_SYNC_ID,
+                COLUMN_ITEM_VERSION,
+                COLUMN_ITEM_UPDATED_AT,
+                COLUMN_ITEM_CATEGORY_TYPE,
+                COLUMN_ITEM_PRODUCT_NAME,
+                COLUMN_ITEM_DESCRIPTION,
+                COLUMN_ITEM_PRICE,
+                COLUMN_ITEM_AVAILABILITY,
+                COLUMN_ITEM_SUPPLIER_ID,
+                COLUMN_ITEM_REORDER_THRESHOLD};
+
+        /** Key of a synced change which deletes the item, not a column */
+        public static final String SYNC_DELETED = "deleted";
+
+        /**
+         * Name of the table of the tombstones, the sync ID, version and time of the items deleted on
+         * this device which haven't been pushed to the sync server yet.
+         */
+        public static final String TOMBSTONE_TABLE_NAME = "item_tombstones";
+
+        /* Columns of the tombstone table */
+        public static final String COLUMN_TOMBSTONE_SYNC_ID = "sync_id";
+        public static final String COLUMN_TOMBSTONE_VERSION = "version";
+        public static final String COLUMN_TOMBSTONE_DELETED_AT = "deleted_at";
+
+        /**
+         * Name of the table of the quantity counters, one per item and device which has changed its
+         * quantity: the units added and the units removed by that device, which only grow (a PN-counter).
+         * Two copies of a counter merge by keeping the highest of each, in any order, and the quantity
+         * of the item is the sum of the units added minus the units removed over all its counters,
+         * never below the stock of the locations other than the main one.
+         */
+        public static final String COUNTER_TABLE_NAME = "quantity_counters";
+
+        /* Columns of the counter table */
+        public static final String COLUMN_COUNTER_SYNC_ID = "item_sync_id";
+        public static final String COLUMN_COUNTER_DEVICE_ID = "device_id";
+        public static final String COLUMN_COUNTER_INCREMENTS = "increments";
+        public static final String COLUMN_COUNTER_DECREMENTS = "decrements";
+        public static final String COLUMN_COUNTER_DIRTY = "dirty";
+
+        /** The columns of a quantity counter exchanged with the sync server */
+        public static final String[] SYNC_COUNTER_COLUMNS = {
+                COLUMN_COUNTER_SYNC_ID,
+                COLUMN_COUNTER_DEVICE_ID,
+                COLUMN_COUNTER_INCREMENTS,
+                COLUMN_COUNTER_DECREMENTS};
+
+        /**
+         * Device ID of the counters holding the quantities the items had before the counters existed,
+         * shared by all the devices.
+         */
+        public static final String COUNTER_DEVICE_BASE = "";
+
+        /**
+         * Name of the key-value table of the sync state: the ID of the device and the watermark of the
+         * changes pulled from the server.
+         */
+        public static final String SYNC_STATE_TABLE_NAME = "sync_state";
+
+        /* Columns and keys of the sync state table */
+        public static final String COLUMN_SYNC_STATE_KEY = "key";
+        public static final String COLUMN_SYNC_STATE_VALUE = "value";
+        public static final String SYNC_STATE_DEVICE_ID = "device_id";
+        public static final String SYNC_STATE_PULL_WATERMARK = "pull_watermark";
+
         /* Additional constance for product item type */
         public static final int TYPE_CASUAL = 0;
         public static final int TYPE_FORMAL = 1;
@@ -80,11 +523,8 @@ public final class ItemContract {
         public static final int ITEM_IN_STOCK = 1;
         public static final int ITEM_OUT_STOCK = 0;
 
-        /* Additional constance for product item Suppliers Names*/
+        /** ID of the main supplier, created with the suppliers table and the default supplier of the items */
         public final static int SUPPLIER_MAIN = 0;
-        public final static int SUPPLIER_NUMBER_ONE = 1;
-        public final static int SUPPLIER_NUMBER_TWO = 2;
-        public final static int SUPPLIER_NUMBER_THREE = 3;
 
         /**
          * Returns whether or not the given availability is {@link #ITEM_IN_STOCK}, {@link #ITEM_OUT_STOCK},
@@ -97,5 +537,242 @@ public final class ItemContract {
         }
     }
 
+    /**
+     * Inner class that defines the table of the import checkpoints, one row per source being imported.
+     */
+    public static class ImportEntry {
+
+        /** The content URI to read and clear the import checkpoints */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_IMPORTS);
 
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of import checkpoints.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_IMPORTS;
+
+        /** Name of database table for the import checkpoints */
+        public static final String TABLE_NAME = "imports";
+
+        /** Key of the imported source, like the URI of the file. Type: TEXT */
+        public static final String COLUMN_IMPORT_SOURCE = "source";
+
+        /** Number of records of the source read (imported or rejected). Type: INTEGER */
+        public static final String COLUMN_IMPORT_POSITION = "position";
+
+        /** Number of items inserted from the source. Type: INTEGER */
+        public static final String COLUMN_IMPORT_ROWS_IMPORTED = "rows_imported";
+
+        /** Time of the last checkpoint in milliseconds since the epoch. Type: INTEGER */
+        public static final String COLUMN_IMPORT_UPDATED_AT = "updated_at";
+    }
+
+    /**
+     * Inner class that defines the table of the suppliers. The items refer to their supplier by ID,
+     * so the contact data of a supplier is stored once, whatever the number of its items.
+     */
+    public static class SupplierEntry implements BaseColumns {
+
+        /** The content URI to access the suppliers in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /** Name of database table for suppliers */
+        public static final String TABLE_NAME = "suppliers";
+
+        /** Name of the supplier. Type: TEXT */
+        public static final String COLUMN_SUPPLIER_NAME = "name";
+
+        /** Phone number of the supplier. Type: TEXT */
+        public static final String COLUMN_SUPPLIER_PHONE_NUMBER = "phone_number";
+    }
+
+    /**
+     * Inner class that defines the table of the locations, the stores and warehouses holding the stock.
+     * The main location always exists: it holds the stock of the items created without a location.
+     */
+    public static class LocationEntry implements BaseColumns {
+
+        /** The content URI to access the locations in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LOCATIONS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of locations.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single location.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /** Name of database table for locations */
+        public static final String TABLE_NAME = "locations";
+
+        /** Name of the location. Type: TEXT */
+        public static final String COLUMN_LOCATION_NAME = "name";
+
+        /** ID of the main location, which can't be deleted */
+        public static final long LOCATION_MAIN = 0;
+    }
+
+    /**
+     * Inner class that defines the table of the stock levels, the quantity of an item at a location.
+     * The quantity column of the items is the total of their stock levels, kept up to date by triggers,
+     * so the list reads it without adding up the locations. The stock levels are read only, they change
+     * through {@link #METHOD_ADJUST_QUANTITY} with a {@link #EXTRA_LOCATION_ID}.
+     */
+    public static class StockLevelEntry implements BaseColumns {
+
+        /** The content URI to read the stock levels in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STOCK_LEVELS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of stock levels.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK_LEVELS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single stock level.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK_LEVELS;
+
+        /** Name of database table for stock levels */
+        public static final String TABLE_NAME = "stock_levels";
+
+        /** ID of the item. Type: INTEGER */
+        public static final String COLUMN_STOCK_ITEM_ID = "item_id";
+
+        /** ID of the location of the stock. Type: INTEGER */
+        public static final String COLUMN_STOCK_LOCATION_ID = "location_id";
+
+        /** Quantity of the item at the location, never below zero. Type: INTEGER */
+        public static final String COLUMN_STOCK_QUANTITY = "quantity";
+    }
+
+    /**
+     * Inner class that defines the table of the inventory aggregates: the number of items, the units
+     * in stock and their value (price x quantity) in total, per category and per supplier.
+     * Triggers on the items keep it up to date, so reading it doesn't scan the items.
+     */
+    public static class ItemStatsEntry {
+
+        /** The content URI to read the aggregates, they can't be written through the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ItemEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of aggregates.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ITEMS + "/" + PATH_STATS;
+
+        /** Name of database table for the aggregates */
+        public static final String TABLE_NAME = "item_stats";
+
+        /** What the row aggregates, one of the DIMENSION constants. Type: INTEGER */
+        public static final String COLUMN_STATS_DIMENSION = "dimension";
+
+        /**
+         * The category type or the supplier ID of the items aggregated by the row, 0 for the total.
+         * Type: same as the item column
+         */
+        public static final String COLUMN_STATS_KEY = "group_key";
+
+        /** Number of items. Type: INTEGER */
+        public static final String COLUMN_STATS_ITEM_COUNT = "item_count";
+
+        /** Sum of the quantities of the items. Type: INTEGER */
+        public static final String COLUMN_STATS_TOTAL_UNITS = "total_units";
+
+        /** Sum of price x quantity of the items. Type: INTEGER */
+        public static final String COLUMN_STATS_TOTAL_VALUE = "total_value";
+
+        /* Additional constance for the dimensions of the aggregates */
+        public static final int DIMENSION_TOTAL = 0;
+        public static final int DIMENSION_CATEGORY = 1;
+        public static final int DIMENSION_SUPPLIER = 2;
+    }
+
+    /**
+     * Inner class that defines the stock movements table, the append-only ledger of every change
+     * of the quantity of the items. The quantity column of the items holds the sum of their movements.
+     */
+    public static class StockMovementEntry implements BaseColumns {
+
+        /** The content URI to read the stock movements, they can't be written through the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STOCK_MOVEMENTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of stock movements.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK_MOVEMENTS;
+
+        /** Name of database table for stock movements */
+        public static final String TABLE_NAME = "stock_movements";
+
+        /**
+         * Name of the table of the stock snapshots, the quantity and the units sold of an item
+         * compacted from all its movements up to {@link #COLUMN_SNAPSHOT_LAST_MOVEMENT_ID}.
+         */
+        public static final String SNAPSHOT_TABLE_NAME = "stock_snapshots";
+
+        public static final String _ID = BaseColumns._ID;
+
+        /** ID of the item whose quantity has changed. Type: INTEGER */
+        public static final String COLUMN_MOVEMENT_ITEM_ID = "item_id";
+
+        /** Signed change of the quantity. Type: INTEGER */
+        public static final String COLUMN_MOVEMENT_DELTA = "delta";
+
+        /** Reason of the change, one of the REASON constants. Type: INTEGER */
+        public static final String COLUMN_MOVEMENT_REASON = "reason";
+
+        /** Time of the change in milliseconds since the epoch. Type: INTEGER */
+        public static final String COLUMN_MOVEMENT_TIMESTAMP = "timestamp";
+
+        /** ID of the location whose stock has changed. Type: INTEGER */
+        public static final String COLUMN_MOVEMENT_LOCATION_ID = "location_id";
+
+        /* Columns of the snapshot table */
+        public static final String COLUMN_SNAPSHOT_ITEM_ID = "item_id";
+        public static final String COLUMN_SNAPSHOT_LAST_MOVEMENT_ID = "last_movement_id";
+        public static final String COLUMN_SNAPSHOT_TIMESTAMP = "timestamp";
+        public static final String COLUMN_SNAPSHOT_QUANTITY = "quantity";
+        public static final String COLUMN_SNAPSHOT_UNITS_SOLD = "units_sold";
+
+        /* Additional constance for the reasons of the stock movements */
+        public static final int REASON_ADJUSTMENT = 0;
+        public static final int REASON_SALE = 1;
+        public static final int REASON_RESTOCK = 2;
+        public static final int REASON_OPENING_BALANCE = 3;
+
+        /**
+         * Change of the quantity merged from the counters of the other devices, only recorded by the sync.
+         * It isn't a valid reason for {@link ItemContract#METHOD_ADJUST_QUANTITY}.
+         */
+        public static final int REASON_SYNC = 4;
+
+        /**
+         * Returns whether or not the given reason is one of the REASON constants a client can record.
+         */
+        public static boolean isValidReason(int reason) {
+            return reason >= REASON_ADJUSTMENT && reason <= REASON_OPENING_BALANCE;
+        }
+    }
 }
@@ -1,18 +1,783 @@
 package com.example.wisemo.myinventory.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.wisemo.myinventory.data.ItemContract.ImportEntry;
 import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+import com.example.wisemo.myinventory.data.ItemContract.ItemStatsEntry;
+import com.example.wisemo.myinventory.data.ItemContract.LocationEntry;
+import com.example.wisemo.myinventory.data.ItemContract.StockLevelEntry;
+import com.example.wisemo.myinventory.data.ItemContract.StockMovementEntry;
+import com.example.wisemo.myinventory.data.ItemContract.SupplierEntry;
 
 public class ItemDbHelper extends SQLiteOpenHelper {
 
     public static final String DATABASE_NAME = "inventory.db";
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 13;
+
+    /**
+     * Columns of the items up to version 7: the code of the supplier (0 to 3) and the phone number
+     * of the supplier copied on every item. Only the migration steps up to version 8 use them.
+     */
+    private static final String LEGACY_COLUMN_SUPPLIER_CODE = "supplier_name";
+    private static final String LEGACY_COLUMN_PHONE_NUMBER = "phone_number";
+
+    /**
+     * Names and phone numbers of the suppliers of the codes 0 to 3 of version 7, which become the
+     * first rows of the suppliers table with the same IDs.
+     */
+    private static final String[][] LEGACY_SUPPLIERS = {
+            {"Main Supplier", "01008887112"},
+            {"Supplier Number One", "01004764654"},
+            {"Supplier Number Two", "010001401404"},
+            {"Supplier Number Three", "01144202325"},
+    };
+
+    /** Number of database pages (of 4 KB by default) cached by the connection */
+    private static final int CACHE_SIZE_PAGES = 2000;
+
+    /** How long a connection waits for a lock held by another one before failing */
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+    /** SQL expression of a new random ID, 32 hexadecimal digits */
+    static final String NEW_SYNC_ID = "lower(hex(randomblob(16)))";
+
+    /** SQL expression of the current time in milliseconds since the epoch */
+    private static final String NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /**
+     * Whether the database uses write-ahead logging, so the list can be read while
+     * the sales are written. Only turned off to compare with the rollback journal.
+     */
+    private final boolean mWriteAheadLogging;
+
+    /**
+     * Step of the schema migration, upgrading the database from the previous version to {@link #version}.
+     * SQLiteOpenHelper runs all the steps of an upgrade and the version change in one transaction, so an
+     * interrupted upgrade is rolled back as a whole and starts again from the old version.
+     */
+    private abstract static class Migration {
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    /** All the migration steps, ordered by version. */
+    private static final Migration[] MIGRATIONS = {
+            // Version 2: indexes for the filters on the category, supplier and availability,
+            // the low stock queries on the quantity and the sort by product name.
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createItemIndexes(db, LEGACY_COLUMN_SUPPLIER_CODE);
+                }
+            },
+            // Version 3: full-text index of the product name and description. The FTS table reads
+            // its content from the items table, the triggers only keep the index up to date, and
+            // an update that doesn't touch the indexed columns (like a sale) doesn't fire them.
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + ItemEntry.FTS_TABLE_NAME
+                            + " USING fts4(content=\"" + ItemEntry.TABLE_NAME + "\", "
+                            + ItemEntry.COLUMN_ITEM_PRODUCT_NAME + ", " + ItemEntry.COLUMN_ITEM_DESCRIPTION + ")");
+                    createFtsTriggers(db);
+
+                    // Index the items which already exist
+                    db.execSQL("INSERT INTO " + ItemEntry.FTS_TABLE_NAME + " (" + ItemEntry.FTS_TABLE_NAME
+                            + ") VALUES ('rebuild')");
+                }
+            },
+            // Version 4: reorder threshold of the items and the low stock table, maintained by
+            // triggers on every change of the quantity or the threshold of an item.
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    addColumnIfMissing(db, ItemEntry.TABLE_NAME, ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD,
+                            "INTEGER NOT NULL DEFAULT " + ItemEntry.DEFAULT_REORDER_THRESHOLD);
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + ItemEntry.LOW_STOCK_TABLE_NAME + " ("
+                            + ItemEntry.COLUMN_LOW_STOCK_ITEM_ID + " INTEGER PRIMARY KEY)");
+                    createLowStockTriggers(db);
+
+                    // Fill the table with the items which already exist
+                    db.execSQL("INSERT OR IGNORE INTO " + ItemEntry.LOW_STOCK_TABLE_NAME
+                            + " SELECT " + ItemEntry._ID + " FROM " + ItemEntry.TABLE_NAME
+                            + " WHERE " + ItemEntry.COLUMN_ITEM_QUANTITY + " < " + ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD);
+                }
+            },
+            // Version 5: ledger of the stock movements and the snapshots compacted from it. The ledger
+            // is indexed by item (and so by item and ID) for the quantity of an item after a snapshot,
+            // and by time for the sales of a period.
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + StockMovementEntry.TABLE_NAME + " ("
+                            + StockMovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + StockMovementEntry.COLUMN_MOVEMENT_ITEM_ID + " INTEGER NOT NULL, "
+                            + StockMovementEntry.COLUMN_MOVEMENT_DELTA + " INTEGER NOT NULL, "
+                            + StockMovementEntry.COLUMN_MOVEMENT_REASON + " INTEGER NOT NULL, "
+                            + StockMovementEntry.COLUMN_MOVEMENT_TIMESTAMP + " INTEGER NOT NULL)");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS stock_movements_item_index ON "
+                            + StockMovementEntry.TABLE_NAME + " (" + StockMovementEntry.COLUMN_MOVEMENT_ITEM_ID + ")");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS stock_movements_timestamp_index ON "
+                            + StockMovementEntry.TABLE_NAME + " (" + StockMovementEntry.COLUMN_MOVEMENT_TIMESTAMP + ")");
+
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + StockMovementEntry.SNAPSHOT_TABLE_NAME + " ("
+                            + StockMovementEntry.COLUMN_SNAPSHOT_ITEM_ID + " INTEGER NOT NULL, "
+                            + StockMovementEntry.COLUMN_SNAPSHOT_LAST_MOVEMENT_ID + " INTEGER NOT NULL, "
+                            + StockMovementEntry.COLUMN_SNAPSHOT_TIMESTAMP + " INTEGER NOT NULL, "
+                            + StockMovementEntry.COLUMN_SNAPSHOT_QUANTITY + " INTEGER NOT NULL, "
+                            + StockMovementEntry.COLUMN_SNAPSHOT_UNITS_SOLD + " INTEGER NOT NULL, "
+                            + "PRIMARY KEY (" + StockMovementEntry.COLUMN_SNAPSHOT_ITEM_ID + ", "
+                            + StockMovementEntry.COLUMN_SNAPSHOT_LAST_MOVEMENT_ID + "))");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS stock_snapshots_last_movement_index ON "
+                            + StockMovementEntry.SNAPSHOT_TABLE_NAME + " ("
+                            + StockMovementEntry.COLUMN_SNAPSHOT_LAST_MOVEMENT_ID + ")");
+
+                    // The quantities of the items which already exist become their opening balance,
+                    // unless the step has already recorded them.
+                    db.execSQL("INSERT INTO " + StockMovementEntry.TABLE_NAME + " ("
+                            + StockMovementEntry.COLUMN_MOVEMENT_ITEM_ID + ", " + StockMovementEntry.COLUMN_MOVEMENT_DELTA
+                            + ", " + StockMovementEntry.COLUMN_MOVEMENT_REASON + ", "
+                            + StockMovementEntry.COLUMN_MOVEMENT_TIMESTAMP + ") SELECT " + ItemEntry._ID + ", "
+                            + ItemEntry.COLUMN_ITEM_QUANTITY + ", " + StockMovementEntry.REASON_OPENING_BALANCE
+                            + ", " + System.currentTimeMillis() + " FROM " + ItemEntry.TABLE_NAME
+                            + " WHERE " + ItemEntry.COLUMN_ITEM_QUANTITY + " <> 0 AND NOT EXISTS (SELECT 1 FROM "
+                            + StockMovementEntry.TABLE_NAME + ")");
+                }
+            },
+            // Version 6: aggregates of the items in total, per category and per supplier, maintained
+            // by triggers. A sale only changes the quantity, so it only adds its delta to 3 rows.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + ItemStatsEntry.TABLE_NAME + " ("
+                            + ItemStatsEntry.COLUMN_STATS_DIMENSION + " INTEGER NOT NULL, "
+                            + ItemStatsEntry.COLUMN_STATS_KEY + " NOT NULL, "
+                            + ItemStatsEntry.COLUMN_STATS_ITEM_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                            + ItemStatsEntry.COLUMN_STATS_TOTAL_UNITS + " INTEGER NOT NULL DEFAULT 0, "
+                            + ItemStatsEntry.COLUMN_STATS_TOTAL_VALUE + " INTEGER NOT NULL DEFAULT 0, "
+                            + "PRIMARY KEY (" + ItemStatsEntry.COLUMN_STATS_DIMENSION + ", "
+                            + ItemStatsEntry.COLUMN_STATS_KEY + "))");
+
+                    createStatsTriggers(db, LEGACY_COLUMN_SUPPLIER_CODE);
+                    fillStats(db, LEGACY_COLUMN_SUPPLIER_CODE);
+                }
+            },
+            // Version 7: checkpoints of the catalog imports.
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + ImportEntry.TABLE_NAME + " ("
+                            + ImportEntry.COLUMN_IMPORT_SOURCE + " TEXT PRIMARY KEY, "
+                            + ImportEntry.COLUMN_IMPORT_POSITION + " INTEGER NOT NULL, "
+                            + ImportEntry.COLUMN_IMPORT_ROWS_IMPORTED + " INTEGER NOT NULL, "
+                            + ImportEntry.COLUMN_IMPORT_UPDATED_AT + " INTEGER NOT NULL)");
+                }
+            },
+            // Version 8: suppliers table. The items refer to their supplier by ID instead of a code and
+            // a copy of its phone number, so the items table is rebuilt without the old columns (SQLite
+            // can't drop them), keeping the item IDs, then its indexes and triggers are created again.
+            // The item queries read a view joining every item with its supplier.
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + SupplierEntry.TABLE_NAME + " ("
+                            + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                            + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL)");
+
+                    if (!hasColumn(db, ItemEntry.TABLE_NAME, ItemEntry.COLUMN_ITEM_SUPPLIER_ID)) {
+                        // Each supplier keeps the phone number most of its items had, if any. The column
+                        // had a numeric affinity, so only the phone numbers stored as text kept their
+                        // leading zeros, the others are replaced by the known number of the supplier.
+                        for (int code = 0; code < LEGACY_SUPPLIERS.length; code++) {
+                            db.execSQL("INSERT OR IGNORE INTO " + SupplierEntry.TABLE_NAME + " ("
+                                    + SupplierEntry._ID + ", " + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                                    + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ") VALUES (" + code + ", ?, "
+                                    + "IFNULL((SELECT " + LEGACY_COLUMN_PHONE_NUMBER + " FROM " + ItemEntry.TABLE_NAME
+                                    + " WHERE " + LEGACY_COLUMN_SUPPLIER_CODE + " = " + code + " AND "
+                                    + "typeof(" + LEGACY_COLUMN_PHONE_NUMBER + ") = 'text' AND "
+                                    + LEGACY_COLUMN_PHONE_NUMBER + " <> '' GROUP BY " + LEGACY_COLUMN_PHONE_NUMBER
+                                    + " ORDER BY COUNT(*) DESC LIMIT 1), ?))",
+                                    new Object[]{LEGACY_SUPPLIERS[code][0], LEGACY_SUPPLIERS[code][1]});
+                        }
+                        rebuildItemsTable(db);
+                    }
+
+                    createItemsView(db);
+                }
+            },
+            // Version 9: indexes of the filtered and sorted list, see createListIndexes. They replace
+            // the indexes on the product name and on the quantity, which are prefixes of them, so a
+            // sale still updates as many indexes as before.
+            new Migration(9) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createListIndexes(db);
+                    db.execSQL("DROP INDEX IF EXISTS items_product_name_index");
+                    db.execSQL("DROP INDEX IF EXISTS items_quantity_index");
+                }
+            },
+            // Version 10: the view of the items gets the snippet of their description, which the list
+            // reads instead of the whole description. A view can't be altered, it's created again.
+            new Migration(10) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("DROP VIEW IF EXISTS " + ItemEntry.VIEW_NAME);
+                    createItemsView(db);
+                }
+            },
+            // Version 11: stock per location. The quantity of the items stays the total of the item,
+            // kept up to date by the triggers of createStockTriggers, so the list doesn't add up the
+            // stock levels. The stock which already exists goes to the main location, like its movements.
+            new Migration(11) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + LocationEntry.TABLE_NAME + " ("
+                            + LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + LocationEntry.COLUMN_LOCATION_NAME + " TEXT NOT NULL)");
+                    db.execSQL("INSERT OR IGNORE INTO " + LocationEntry.TABLE_NAME + " ("
+                            + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_NAME + ") VALUES ("
+                            + LocationEntry.LOCATION_MAIN + ", 'Main Store')");
+
+                    // The stock of an item is looked up by item and location (the unique index), and
+                    // the index on the location lets SQLite check a deleted location has no stock left
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + StockLevelEntry.TABLE_NAME + " ("
+                            + StockLevelEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + StockLevelEntry.COLUMN_STOCK_ITEM_ID + " INTEGER NOT NULL REFERENCES "
+                            + ItemEntry.TABLE_NAME + " (" + ItemEntry._ID + ") ON DELETE CASCADE, "
+                            + StockLevelEntry.COLUMN_STOCK_LOCATION_ID + " INTEGER NOT NULL REFERENCES "
+                            + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), "
+                            + StockLevelEntry.COLUMN_STOCK_QUANTITY + " INTEGER NOT NULL CHECK ("
+                            + StockLevelEntry.COLUMN_STOCK_QUANTITY + " >= 0), "
+                            + "UNIQUE (" + StockLevelEntry.COLUMN_STOCK_ITEM_ID + ", "
+                            + StockLevelEntry.COLUMN_STOCK_LOCATION_ID + "))");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS stock_levels_location_index ON "
+                            + StockLevelEntry.TABLE_NAME + " (" + StockLevelEntry.COLUMN_STOCK_LOCATION_ID + ")");
+
+                    addColumnIfMissing(db, StockMovementEntry.TABLE_NAME, StockMovementEntry.COLUMN_MOVEMENT_LOCATION_ID,
+                            "INTEGER NOT NULL DEFAULT " + LocationEntry.LOCATION_MAIN);
+
+                    // The triggers are created after the rows of the existing items, which don't change the totals
+                    db.execSQL("INSERT OR IGNORE INTO " + StockLevelEntry.TABLE_NAME + " ("
+                            + StockLevelEntry.COLUMN_STOCK_ITEM_ID + ", " + StockLevelEntry.COLUMN_STOCK_LOCATION_ID
+                            + ", " + StockLevelEntry.COLUMN_STOCK_QUANTITY + ") SELECT " + ItemEntry._ID + ", "
+                            + LocationEntry.LOCATION_MAIN + ", MAX(" + ItemEntry.COLUMN_ITEM_QUANTITY + ", 0) FROM "
+                            + ItemEntry.TABLE_NAME);
+                    createStockTriggers(db);
+                }
+            },
+            // Version 12: sync of the items between the devices. Every item gets a random sync ID shared
+            // by the devices, the version and time of its last change, and a dirty flag set by the
+            // triggers of createSyncTriggers until the change is pushed. The flag is indexed, so a push
+            // reads the changed items only. The deleted items leave a tombstone until it's pushed.
+            new Migration(12) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    addColumnIfMissing(db, ItemEntry.TABLE_NAME, ItemEntry.COLUMN_ITEM_SYNC_ID, "TEXT");
+                    addColumnIfMissing(db, ItemEntry.TABLE_NAME, ItemEntry.COLUMN_ITEM_UPDATED_AT,
+                            "INTEGER NOT NULL DEFAULT 0");
+                    addColumnIfMissing(db, ItemEntry.TABLE_NAME, ItemEntry.COLUMN_ITEM_VERSION,
+                            "INTEGER NOT NULL DEFAULT 0");
+                    addColumnIfMissing(db, ItemEntry.TABLE_NAME, ItemEntry.COLUMN_ITEM_DIRTY,
+                            "INTEGER NOT NULL DEFAULT 0");
+                    // The items which already exist are new to the server
+                    db.execSQL("UPDATE " + ItemEntry.TABLE_NAME + " SET " + ItemEntry.COLUMN_ITEM_SYNC_ID + " = "
+                            + NEW_SYNC_ID + ", " + ItemEntry.COLUMN_ITEM_VERSION + " = 1, "
+                            + ItemEntry.COLUMN_ITEM_UPDATED_AT + " = " + NOW_MILLIS + ", "
+                            + ItemEntry.COLUMN_ITEM_DIRTY + " = 1 WHERE " + ItemEntry.COLUMN_ITEM_SYNC_ID + " IS NULL");
+                    db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS items_sync_id_index ON "
+                            + ItemEntry.TABLE_NAME + " (" + ItemEntry.COLUMN_ITEM_SYNC_ID + ")");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS items_dirty_index ON "
+                            + ItemEntry.TABLE_NAME + " (" + ItemEntry.COLUMN_ITEM_DIRTY + ")");
+
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + ItemEntry.TOMBSTONE_TABLE_NAME + " ("
+                            + ItemEntry.COLUMN_TOMBSTONE_SYNC_ID + " TEXT PRIMARY KEY, "
+                            + ItemEntry.COLUMN_TOMBSTONE_VERSION + " INTEGER NOT NULL, "
+                            + ItemEntry.COLUMN_TOMBSTONE_DELETED_AT + " INTEGER NOT NULL)");
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + ItemEntry.SYNC_STATE_TABLE_NAME + " ("
+                            + ItemEntry.COLUMN_SYNC_STATE_KEY + " TEXT PRIMARY KEY, "
+                            + ItemEntry.COLUMN_SYNC_STATE_VALUE + " NOT NULL)");
+                    db.execSQL("INSERT OR IGNORE INTO " + ItemEntry.SYNC_STATE_TABLE_NAME + " VALUES ('"
+                            + ItemEntry.SYNC_STATE_DEVICE_ID + "', " + NEW_SYNC_ID + ")");
+                    db.execSQL("INSERT OR IGNORE INTO " + ItemEntry.SYNC_STATE_TABLE_NAME + " VALUES ('"
+                            + ItemEntry.SYNC_STATE_PULL_WATERMARK + "', 0)");
+
+                    createSyncTriggers(db);
+                }
+            },
+            // Version 13: the quantities are synced as counters of the units added and removed by each
+            // device, kept by the triggers of createCounterTriggers, instead of the latest quantity which
+            // loses the sales made on two devices at once. The quantities the items already have become
+            // the base counters, shared by the devices, which merge into the highest one. The changes of
+            // the quantity alone no longer make the items dirty, so the update trigger is created again.
+            new Migration(13) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + ItemEntry.COUNTER_TABLE_NAME + " ("
+                            + ItemEntry.COLUMN_COUNTER_SYNC_ID + " TEXT NOT NULL, "
+                            + ItemEntry.COLUMN_COUNTER_DEVICE_ID + " TEXT NOT NULL, "
+                            + ItemEntry.COLUMN_COUNTER_INCREMENTS + " INTEGER NOT NULL DEFAULT 0, "
+                            + ItemEntry.COLUMN_COUNTER_DECREMENTS + " INTEGER NOT NULL DEFAULT 0, "
+                            + ItemEntry.COLUMN_COUNTER_DIRTY + " INTEGER NOT NULL DEFAULT 0, "
+                            + "PRIMARY KEY (" + ItemEntry.COLUMN_COUNTER_SYNC_ID + ", "
+                            + ItemEntry.COLUMN_COUNTER_DEVICE_ID + "))");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS quantity_counters_dirty_index ON "
+                            + ItemEntry.COUNTER_TABLE_NAME + " (" + ItemEntry.COLUMN_COUNTER_DIRTY + ")");
+                    db.execSQL("INSERT OR IGNORE INTO " + ItemEntry.COUNTER_TABLE_NAME + " SELECT "
+                            + ItemEntry.COLUMN_ITEM_SYNC_ID + ", '" + ItemEntry.COUNTER_DEVICE_BASE + "', MAX("
+                            + ItemEntry.COLUMN_ITEM_QUANTITY + ", 0), 0, 1 FROM " + ItemEntry.TABLE_NAME);
+
+                    db.execSQL("DROP TRIGGER IF EXISTS items_sync_after_update");
+                    createSyncTriggers(db);
+                    createCounterTriggers(db);
+                }
+            },
+    };
+
+    /**
+     * Create the view of the items joined with their supplier, with the snippet of their description.
+     * The snippet is computed when it's read, so the writes of the items don't change.
+     */
+    private static void createItemsView(SQLiteDatabase db) {
+        db.execSQL("CREATE VIEW IF NOT EXISTS " + ItemEntry.VIEW_NAME + " AS SELECT "
+                + ItemEntry.TABLE_NAME + ".*, "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                + ItemEntry.COLUMN_ITEM_SUPPLIER_NAME + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " AS "
+                + ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER + ", "
+                + "substr(" + ItemEntry.TABLE_NAME + "." + ItemEntry.COLUMN_ITEM_DESCRIPTION + ", 1, "
+                + ItemEntry.DESCRIPTION_SNIPPET_LENGTH + ") AS " + ItemEntry.COLUMN_ITEM_DESCRIPTION_SNIPPET
+                + " FROM " + ItemEntry.TABLE_NAME + " LEFT JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = "
+                + ItemEntry.TABLE_NAME + "." + ItemEntry.COLUMN_ITEM_SUPPLIER_ID);
+    }
+
+    /**
+     * Replace the items table of version 7 by one with the supplier ID instead of the supplier code
+     * and phone number, keeping the rows, their IDs and the last ID given, then create its indexes
+     * and triggers again. The full-text index and the low stock table stay valid since the IDs
+     * don't change, the aggregates are computed again for the supplier IDs.
+     */
+    private static void rebuildItemsTable(SQLiteDatabase db) {
+        String items = ItemEntry.TABLE_NAME;
+        String rebuilt = items + "_rebuilt";
+        long lastId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence"
+                + " WHERE name = ?", new String[]{items});
+
+        db.execSQL("DROP TABLE IF EXISTS " + rebuilt);
+        db.execSQL("CREATE TABLE " + rebuilt + " ("
+                + ItemEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ItemEntry.COLUMN_ITEM_CATEGORY_TYPE + " INTEGER NOT NULL DEFAULT 0, "
+                + ItemEntry.COLUMN_ITEM_PRODUCT_NAME + " TEXT NOT NULL, "
+                + ItemEntry.COLUMN_ITEM_DESCRIPTION + " TEXT NOT NULL, "
+                + ItemEntry.COLUMN_ITEM_PRICE + " INTEGER NOT NULL, "
+                + ItemEntry.COLUMN_ITEM_AVAILABILITY + " INTEGER NOT NULL DEFAULT 0, "
+                + ItemEntry.COLUMN_ITEM_QUANTITY + " INTEGER NOT NULL, "
+                + ItemEntry.COLUMN_ITEM_SUPPLIER_ID + " INTEGER NOT NULL DEFAULT " + ItemEntry.SUPPLIER_MAIN
+                + " REFERENCES " + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + "), "
+                + ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT "
+                + ItemEntry.DEFAULT_REORDER_THRESHOLD + ")");
+
+        // The codes without a supplier row (which the app never wrote) go to the main supplier
+        String copiedColumns = ItemEntry._ID + ", " + ItemEntry.COLUMN_ITEM_CATEGORY_TYPE + ", "
+                + ItemEntry.COLUMN_ITEM_PRODUCT_NAME + ", " + ItemEntry.COLUMN_ITEM_DESCRIPTION + ", "
+                + ItemEntry.COLUMN_ITEM_PRICE + ", " + ItemEntry.COLUMN_ITEM_AVAILABILITY + ", "
+                + ItemEntry.COLUMN_ITEM_QUANTITY;
+        db.execSQL("INSERT INTO " + rebuilt + " (" + copiedColumns + ", " + ItemEntry.COLUMN_ITEM_SUPPLIER_ID
+                + ", " + ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD + ") SELECT " + copiedColumns
+                + ", IFNULL((SELECT " + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry._ID + " = CAST(" + LEGACY_COLUMN_SUPPLIER_CODE + " AS INTEGER)), "
+                + ItemEntry.SUPPLIER_MAIN + "), " + ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD + " FROM " + items);
+
+        // Dropping the table drops its indexes and triggers too
+        db.execSQL("DROP TABLE " + items);
+        db.execSQL("ALTER TABLE " + rebuilt + " RENAME TO " + items);
+
+        // The IDs of deleted items must not be given again, their stock movements are still recorded
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name IN (?, ?)", new Object[]{items, rebuilt});
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT ?, MAX(?, IFNULL(MAX(" + ItemEntry._ID
+                + "), 0)) FROM " + items, new Object[]{items, lastId});
+
+        createItemIndexes(db, ItemEntry.COLUMN_ITEM_SUPPLIER_ID);
+        createFtsTriggers(db);
+        createLowStockTriggers(db);
+        createStatsTriggers(db, ItemEntry.COLUMN_ITEM_SUPPLIER_ID);
+        fillStats(db, ItemEntry.COLUMN_ITEM_SUPPLIER_ID);
+    }
+
+    /**
+     * Create the indexes for the filters on the category, supplier and availability, the low stock
+     * queries on the quantity and the sort by product name.
+     */
+    private static void createItemIndexes(SQLiteDatabase db, String supplierColumn) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS items_type_index ON "
+                + ItemEntry.TABLE_NAME + " (" + ItemEntry.COLUMN_ITEM_CATEGORY_TYPE + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS items_" + supplierColumn + "_index ON "
+                + ItemEntry.TABLE_NAME + " (" + supplierColumn + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS items_availability_index ON "
+                + ItemEntry.TABLE_NAME + " (" + ItemEntry.COLUMN_ITEM_AVAILABILITY + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS items_quantity_index ON "
+                + ItemEntry.TABLE_NAME + " (" + ItemEntry.COLUMN_ITEM_QUANTITY + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS items_product_name_index ON "
+                + ItemEntry.TABLE_NAME + " (" + ItemEntry.COLUMN_ITEM_PRODUCT_NAME + ")");
+    }
+
+    /**
+     * Create the indexes of the list sorted by product name, price or quantity. Each one starts with
+     * the sort column and the item ID, the order of the pages, so a page is a range of the index, and
+     * holds the filtered columns after them (category, supplier, availability and quantity): the
+     * filters are checked on the index entries and only the rows shown are read from the table.
+     * The names are sorted without case.
+     */
+    private static void createListIndexes(SQLiteDatabase db) {
+        String filteredColumns = ItemEntry.COLUMN_ITEM_CATEGORY_TYPE + ", " + ItemEntry.COLUMN_ITEM_SUPPLIER_ID
+                + ", " + ItemEntry.COLUMN_ITEM_AVAILABILITY;
+        db.execSQL("CREATE INDEX IF NOT EXISTS items_list_name_index ON " + ItemEntry.TABLE_NAME + " ("
+                + ItemEntry.COLUMN_ITEM_PRODUCT_NAME + " COLLATE NOCASE, " + ItemEntry._ID + ", "
+                + filteredColumns + ", " + ItemEntry.COLUMN_ITEM_QUANTITY + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS items_list_price_index ON " + ItemEntry.TABLE_NAME + " ("
+                + ItemEntry.COLUMN_ITEM_PRICE + ", " + ItemEntry._ID + ", "
+                + filteredColumns + ", " + ItemEntry.COLUMN_ITEM_QUANTITY + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS items_list_quantity_index ON " + ItemEntry.TABLE_NAME + " ("
+                + ItemEntry.COLUMN_ITEM_QUANTITY + ", " + ItemEntry._ID + ", " + filteredColumns + ")");
+    }
+
+    /**
+     * Create the triggers keeping the full-text index up to date. The FTS table reads its content
+     * from the items table, and an update that doesn't touch the indexed columns (like a sale)
+     * doesn't fire them.
+     */
+    private static void createFtsTriggers(SQLiteDatabase db) {
+        String indexNew = "INSERT INTO " + ItemEntry.FTS_TABLE_NAME + " (docid, "
+                + ItemEntry.COLUMN_ITEM_PRODUCT_NAME + ", " + ItemEntry.COLUMN_ITEM_DESCRIPTION
+                + ") VALUES (new." + ItemEntry._ID + ", new." + ItemEntry.COLUMN_ITEM_PRODUCT_NAME
+                + ", new." + ItemEntry.COLUMN_ITEM_DESCRIPTION + "); ";
+        String removeOld = "DELETE FROM " + ItemEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + ItemEntry._ID + "; ";
+        String indexedColumns = ItemEntry.COLUMN_ITEM_PRODUCT_NAME + ", "
+                + ItemEntry.COLUMN_ITEM_DESCRIPTION;
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS items_fts_after_insert AFTER INSERT ON "
+                + ItemEntry.TABLE_NAME + " BEGIN " + indexNew + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS items_fts_before_update BEFORE UPDATE OF "
+                + indexedColumns + " ON " + ItemEntry.TABLE_NAME + " BEGIN " + removeOld + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS items_fts_after_update AFTER UPDATE OF "
+                + indexedColumns + " ON " + ItemEntry.TABLE_NAME + " BEGIN " + indexNew + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS items_fts_before_delete BEFORE DELETE ON "
+                + ItemEntry.TABLE_NAME + " BEGIN " + removeOld + "END");
+    }
+
+    /**
+     * Create the triggers keeping the low stock table up to date on every change of the quantity
+     * or the threshold of an item.
+     */
+    private static void createLowStockTriggers(SQLiteDatabase db) {
+        String isLow = "new." + ItemEntry.COLUMN_ITEM_QUANTITY
+                + " < new." + ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD;
+        String addNew = "INSERT OR IGNORE INTO " + ItemEntry.LOW_STOCK_TABLE_NAME
+                + " SELECT new." + ItemEntry._ID + " WHERE " + isLow + "; ";
+        String removeOld = "DELETE FROM " + ItemEntry.LOW_STOCK_TABLE_NAME
+                + " WHERE " + ItemEntry.COLUMN_LOW_STOCK_ITEM_ID + " = old." + ItemEntry._ID + "; ";
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS low_stock_after_insert AFTER INSERT ON "
+                + ItemEntry.TABLE_NAME + " BEGIN " + addNew + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS low_stock_after_update AFTER UPDATE OF "
+                + ItemEntry.COLUMN_ITEM_QUANTITY + ", " + ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD
+                + " ON " + ItemEntry.TABLE_NAME + " BEGIN " + removeOld + addNew + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS low_stock_after_delete AFTER DELETE ON "
+                + ItemEntry.TABLE_NAME + " BEGIN " + removeOld + "END");
+    }
+
+    /**
+     * Create the triggers keeping the quantity of the items equal to the total of their stock levels.
+     * A change of a stock level writes the new total to its item, only if it differs, so the stats and
+     * low stock triggers of the items still run once per change. A new item gets its quantity at the
+     * main location, and a quantity written directly to an item (the editor, an import) moves the
+     * stock of the main location by the difference; it can't be less than the stock of the other
+     * locations. Every item has a stock level at the main location, which is never deleted.
+     */
+    private static void createStockTriggers(SQLiteDatabase db) {
+        String total = "(SELECT IFNULL(SUM(" + StockLevelEntry.COLUMN_STOCK_QUANTITY + "), 0) FROM "
+                + StockLevelEntry.TABLE_NAME + " WHERE " + StockLevelEntry.COLUMN_STOCK_ITEM_ID + " = %1$s)";
+        String rollUp = "UPDATE " + ItemEntry.TABLE_NAME + " SET " + ItemEntry.COLUMN_ITEM_QUANTITY + " = "
+                + total + " WHERE " + ItemEntry._ID + " = %1$s AND " + ItemEntry.COLUMN_ITEM_QUANTITY
+                + " <> " + total + "; ";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS stock_levels_after_insert AFTER INSERT ON "
+                + StockLevelEntry.TABLE_NAME + " BEGIN "
+                + String.format(rollUp, "new." + StockLevelEntry.COLUMN_STOCK_ITEM_ID) + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS stock_levels_after_update AFTER UPDATE OF "
+                + StockLevelEntry.COLUMN_STOCK_QUANTITY + " ON " + StockLevelEntry.TABLE_NAME + " BEGIN "
+                + String.format(rollUp, "new." + StockLevelEntry.COLUMN_STOCK_ITEM_ID) + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS stock_levels_after_delete AFTER DELETE ON "
+                + StockLevelEntry.TABLE_NAME + " BEGIN "
+                + String.format(rollUp, "old." + StockLevelEntry.COLUMN_STOCK_ITEM_ID) + "END");
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS items_stock_after_insert AFTER INSERT ON "
+                + ItemEntry.TABLE_NAME + " BEGIN INSERT INTO " + StockLevelEntry.TABLE_NAME + " ("
+                + StockLevelEntry.COLUMN_STOCK_ITEM_ID + ", " + StockLevelEntry.COLUMN_STOCK_LOCATION_ID + ", "
+                + StockLevelEntry.COLUMN_STOCK_QUANTITY + ") VALUES (new." + ItemEntry._ID + ", "
+                + LocationEntry.LOCATION_MAIN + ", new." + ItemEntry.COLUMN_ITEM_QUANTITY + "); END");
+
+        String otherLocations = "(SELECT IFNULL(SUM(" + StockLevelEntry.COLUMN_STOCK_QUANTITY + "), 0) FROM "
+                + StockLevelEntry.TABLE_NAME + " WHERE " + StockLevelEntry.COLUMN_STOCK_ITEM_ID + " = new."
+                + ItemEntry._ID + " AND " + StockLevelEntry.COLUMN_STOCK_LOCATION_ID + " <> "
+                + LocationEntry.LOCATION_MAIN + ")";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS items_stock_after_quantity_update AFTER UPDATE OF "
+                + ItemEntry.COLUMN_ITEM_QUANTITY + " ON " + ItemEntry.TABLE_NAME + " WHEN new."
+                + ItemEntry.COLUMN_ITEM_QUANTITY + " <> " + String.format(total, "new." + ItemEntry._ID)
+                + " BEGIN SELECT RAISE(ABORT, 'The quantity is less than the stock of the other locations')"
+                + " WHERE new." + ItemEntry.COLUMN_ITEM_QUANTITY + " < " + otherLocations + "; "
+                + "UPDATE " + StockLevelEntry.TABLE_NAME + " SET " + StockLevelEntry.COLUMN_STOCK_QUANTITY
+                + " = new." + ItemEntry.COLUMN_ITEM_QUANTITY + " - " + otherLocations + " WHERE "
+                + StockLevelEntry.COLUMN_STOCK_ITEM_ID + " = new." + ItemEntry._ID + " AND "
+                + StockLevelEntry.COLUMN_STOCK_LOCATION_ID + " = " + LocationEntry.LOCATION_MAIN + "; END");
+    }
+
+    /**
+     * Create the triggers tracking the local changes of the items for the sync. A new item gets its
+     * sync ID, and a changed item its next version, unless the sync itself has written them; both are
+     * then dirty until they are pushed. The sync tells its own writes apart as they set the version,
+     * the time or the dirty flag, which the other writes of the items never do. The quantity isn't
+     * watched, it's synced through the counters of createCounterTriggers.
+     */
+    private static void createSyncTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS items_sync_after_insert AFTER INSERT ON "
+                + ItemEntry.TABLE_NAME + " WHEN new." + ItemEntry.COLUMN_ITEM_SYNC_ID + " IS NULL BEGIN UPDATE "
+                + ItemEntry.TABLE_NAME + " SET " + ItemEntry.COLUMN_ITEM_SYNC_ID + " = " + NEW_SYNC_ID + ", "
+                + ItemEntry.COLUMN_ITEM_VERSION + " = 1, " + ItemEntry.COLUMN_ITEM_UPDATED_AT + " = " + NOW_MILLIS
+                + ", " + ItemEntry.COLUMN_ITEM_DIRTY + " = 1 WHERE " + ItemEntry._ID + " = new." + ItemEntry._ID
+                + "; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS items_sync_after_update AFTER UPDATE OF "
+                + ItemEntry.COLUMN_ITEM_CATEGORY_TYPE + ", " + ItemEntry.COLUMN_ITEM_PRODUCT_NAME + ", "
+                + ItemEntry.COLUMN_ITEM_DESCRIPTION + ", " + ItemEntry.COLUMN_ITEM_PRICE + ", "
+                + ItemEntry.COLUMN_ITEM_AVAILABILITY + ", " + ItemEntry.COLUMN_ITEM_SUPPLIER_ID + ", "
+                + ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD + " ON " + ItemEntry.TABLE_NAME + " WHEN new."
+                + ItemEntry.COLUMN_ITEM_VERSION + " IS old." + ItemEntry.COLUMN_ITEM_VERSION + " AND new."
+                + ItemEntry.COLUMN_ITEM_UPDATED_AT + " IS old." + ItemEntry.COLUMN_ITEM_UPDATED_AT + " AND new."
+                + ItemEntry.COLUMN_ITEM_DIRTY + " IS old." + ItemEntry.COLUMN_ITEM_DIRTY + " BEGIN UPDATE " + ItemEntry.TABLE_NAME + " SET "
+                + ItemEntry.COLUMN_ITEM_VERSION + " = old." + ItemEntry.COLUMN_ITEM_VERSION + " + 1, "
+                + ItemEntry.COLUMN_ITEM_UPDATED_AT + " = " + NOW_MILLIS + ", " + ItemEntry.COLUMN_ITEM_DIRTY
+                + " = 1 WHERE " + ItemEntry._ID + " = new." + ItemEntry._ID + "; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS items_sync_after_delete AFTER DELETE ON "
+                + ItemEntry.TABLE_NAME + " BEGIN INSERT OR REPLACE INTO " + ItemEntry.TOMBSTONE_TABLE_NAME
+                + " VALUES (old." + ItemEntry.COLUMN_ITEM_SYNC_ID + ", old." + ItemEntry.COLUMN_ITEM_VERSION
+                + " + 1, " + NOW_MILLIS + "); END");
+    }
+
+    /**
+     * Create the triggers keeping the quantity counter of this device: every movement of the stock
+     * ledger, which all the local changes of the quantities record, adds its units to the increments
+     * or the decrements of the item's counter and makes it dirty until it's pushed. The movements
+     * merged from the other devices are left out, they are in their own counters already.
+     */
+    private static void createCounterTriggers(SQLiteDatabase db) {
+        String syncId = "(SELECT " + ItemEntry.COLUMN_ITEM_SYNC_ID + " FROM " + ItemEntry.TABLE_NAME
+                + " WHERE " + ItemEntry._ID + " = new." + StockMovementEntry.COLUMN_MOVEMENT_ITEM_ID + ")";
+        String deviceId = "(SELECT " + ItemEntry.COLUMN_SYNC_STATE_VALUE + " FROM " + ItemEntry.SYNC_STATE_TABLE_NAME
+                + " WHERE " + ItemEntry.COLUMN_SYNC_STATE_KEY + " = '" + ItemEntry.SYNC_STATE_DEVICE_ID + "')";
+        String delta = "new." + StockMovementEntry.COLUMN_MOVEMENT_DELTA;
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS stock_movements_counter_after_insert AFTER INSERT ON "
+                + StockMovementEntry.TABLE_NAME + " WHEN new." + StockMovementEntry.COLUMN_MOVEMENT_REASON
+                + " <> " + StockMovementEntry.REASON_SYNC + " AND " + delta + " <> 0 BEGIN "
+                + "INSERT OR IGNORE INTO " + ItemEntry.COUNTER_TABLE_NAME + " (" + ItemEntry.COLUMN_COUNTER_SYNC_ID
+                + ", " + ItemEntry.COLUMN_COUNTER_DEVICE_ID + ") VALUES (" + syncId + ", " + deviceId + "); "
+                + "UPDATE " + ItemEntry.COUNTER_TABLE_NAME + " SET " + ItemEntry.COLUMN_COUNTER_INCREMENTS + " = "
+                + ItemEntry.COLUMN_COUNTER_INCREMENTS + " + MAX(" + delta + ", 0), "
+                + ItemEntry.COLUMN_COUNTER_DECREMENTS + " = " + ItemEntry.COLUMN_COUNTER_DECREMENTS + " + MAX(-"
+                + delta + ", 0), " + ItemEntry.COLUMN_COUNTER_DIRTY + " = 1 WHERE "
+                + ItemEntry.COLUMN_COUNTER_SYNC_ID + " = " + syncId + " AND "
+                + ItemEntry.COLUMN_COUNTER_DEVICE_ID + " = " + deviceId + "; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS items_counters_after_delete AFTER DELETE ON "
+                + ItemEntry.TABLE_NAME + " BEGIN DELETE FROM " + ItemEntry.COUNTER_TABLE_NAME + " WHERE "
+                + ItemEntry.COLUMN_COUNTER_SYNC_ID + " = old." + ItemEntry.COLUMN_ITEM_SYNC_ID + "; END");
+    }
+
+    /**
+     * Create the triggers keeping the aggregates up to date, with the given supplier column
+     * as the key of the supplier dimension.
+     */
+    private static void createStatsTriggers(SQLiteDatabase db, String supplierColumn) {
+        String sameGroups = "old." + ItemEntry.COLUMN_ITEM_CATEGORY_TYPE + " IS new." + ItemEntry.COLUMN_ITEM_CATEGORY_TYPE
+                + " AND old." + supplierColumn + " IS new." + supplierColumn
+                + " AND old." + ItemEntry.COLUMN_ITEM_PRICE + " IS new." + ItemEntry.COLUMN_ITEM_PRICE;
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS item_stats_after_insert AFTER INSERT ON "
+                + ItemEntry.TABLE_NAME + " BEGIN " + addToStats("new", 1, supplierColumn) + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS item_stats_after_delete AFTER DELETE ON "
+                + ItemEntry.TABLE_NAME + " BEGIN " + addToStats("old", -1, supplierColumn) + "END");
+        // The category, supplier or price changed: move the item from its old rows to its new ones
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS item_stats_after_update AFTER UPDATE OF "
+                + ItemEntry.COLUMN_ITEM_CATEGORY_TYPE + ", " + supplierColumn + ", "
+                + ItemEntry.COLUMN_ITEM_PRICE + ", " + ItemEntry.COLUMN_ITEM_QUANTITY + " ON "
+                + ItemEntry.TABLE_NAME + " WHEN NOT (" + sameGroups + ") BEGIN "
+                + addToStats("old", -1, supplierColumn) + addToStats("new", 1, supplierColumn) + "END");
+        // Only the quantity changed: add the difference to the rows of the item
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS item_stats_after_quantity_update AFTER UPDATE OF "
+                + ItemEntry.COLUMN_ITEM_QUANTITY + " ON " + ItemEntry.TABLE_NAME + " WHEN " + sameGroups
+                + " AND old." + ItemEntry.COLUMN_ITEM_QUANTITY + " IS NOT new." + ItemEntry.COLUMN_ITEM_QUANTITY
+                + " BEGIN " + addQuantityToStats(supplierColumn) + "END");
+    }
+
+    /** Aggregate the items which already exist, replacing the aggregates. */
+    private static void fillStats(SQLiteDatabase db, String supplierColumn) {
+        db.execSQL("DELETE FROM " + ItemStatsEntry.TABLE_NAME);
+        String aggregates = "COUNT(*), IFNULL(SUM(" + ItemEntry.COLUMN_ITEM_QUANTITY + "), 0), IFNULL(SUM("
+                + ItemEntry.COLUMN_ITEM_PRICE + " * " + ItemEntry.COLUMN_ITEM_QUANTITY + "), 0) FROM "
+                + ItemEntry.TABLE_NAME;
+        db.execSQL("INSERT INTO " + ItemStatsEntry.TABLE_NAME + " SELECT "
+                + ItemStatsEntry.DIMENSION_TOTAL + ", 0, " + aggregates);
+        db.execSQL("INSERT INTO " + ItemStatsEntry.TABLE_NAME + " SELECT "
+                + ItemStatsEntry.DIMENSION_CATEGORY + ", " + ItemEntry.COLUMN_ITEM_CATEGORY_TYPE + ", "
+                + aggregates + " GROUP BY " + ItemEntry.COLUMN_ITEM_CATEGORY_TYPE);
+        db.execSQL("INSERT INTO " + ItemStatsEntry.TABLE_NAME + " SELECT "
+                + ItemStatsEntry.DIMENSION_SUPPLIER + ", " + supplierColumn + ", "
+                + aggregates + " GROUP BY " + supplierColumn);
+    }
+
+    /** Returns the dimensions of the item aggregates and the key of the given row in each of them. */
+    private static String[][] statsKeys(String row, String supplierColumn) {
+        return new String[][]{
+                {String.valueOf(ItemStatsEntry.DIMENSION_TOTAL), "0"},
+                {String.valueOf(ItemStatsEntry.DIMENSION_CATEGORY), row + "." + ItemEntry.COLUMN_ITEM_CATEGORY_TYPE},
+                {String.valueOf(ItemStatsEntry.DIMENSION_SUPPLIER), row + "." + supplierColumn},
+        };
+    }
+
+    /**
+     * Returns the trigger statements adding (sign 1) or removing (sign -1) the given row of the items
+     * to or from its aggregates. The rows of a category or supplier without items are removed.
+     */
+    private static String addToStats(String row, int sign, String supplierColumn) {
+        StringBuilder statements = new StringBuilder();
+        for (String[] key : statsKeys(row, supplierColumn)) {
+            String where = " WHERE " + ItemStatsEntry.COLUMN_STATS_DIMENSION + " = " + key[0]
+                    + " AND " + ItemStatsEntry.COLUMN_STATS_KEY + " = " + key[1] + "; ";
+            if (sign > 0) {
+                statements.append("INSERT OR IGNORE INTO ").append(ItemStatsEntry.TABLE_NAME).append(" (")
+                        .append(ItemStatsEntry.COLUMN_STATS_DIMENSION).append(", ").append(ItemStatsEntry.COLUMN_STATS_KEY)
+                        .append(") VALUES (").append(key[0]).append(", ").append(key[1]).append("); ");
+            }
+            statements.append("UPDATE ").append(ItemStatsEntry.TABLE_NAME).append(" SET ")
+                    .append(ItemStatsEntry.COLUMN_STATS_ITEM_COUNT).append(" = ")
+                    .append(ItemStatsEntry.COLUMN_STATS_ITEM_COUNT).append(" + ").append(sign).append(", ")
+                    .append(ItemStatsEntry.COLUMN_STATS_TOTAL_UNITS).append(" = ")
+                    .append(ItemStatsEntry.COLUMN_STATS_TOTAL_UNITS).append(" + ").append(sign).append(" * ")
+                    .append(row).append(".").append(ItemEntry.COLUMN_ITEM_QUANTITY).append(", ")
+                    .append(ItemStatsEntry.COLUMN_STATS_TOTAL_VALUE).append(" = ")
+                    .append(ItemStatsEntry.COLUMN_STATS_TOTAL_VALUE).append(" + ").append(sign).append(" * ")
+                    .append(row).append(".").append(ItemEntry.COLUMN_ITEM_PRICE).append(" * ")
+                    .append(row).append(".").append(ItemEntry.COLUMN_ITEM_QUANTITY).append(where);
+            if (sign < 0 && !key[1].equals("0")) {
+                statements.append("DELETE FROM ").append(ItemStatsEntry.TABLE_NAME).append(where, 0, where.length() - 2)
+                        .append(" AND ").append(ItemStatsEntry.COLUMN_STATS_ITEM_COUNT).append(" = 0; ");
+            }
+        }
+        return statements.toString();
+    }
+
+    /**
+     * Returns the trigger statements adding the change of the quantity of an item to its aggregates.
+     */
+    private static String addQuantityToStats(String supplierColumn) {
+        String delta = "(new." + ItemEntry.COLUMN_ITEM_QUANTITY + " - old." + ItemEntry.COLUMN_ITEM_QUANTITY + ")";
+        StringBuilder statements = new StringBuilder();
+        for (String[] key : statsKeys("new", supplierColumn)) {
+            statements.append("UPDATE ").append(ItemStatsEntry.TABLE_NAME).append(" SET ")
+                    .append(ItemStatsEntry.COLUMN_STATS_TOTAL_UNITS).append(" = ")
+                    .append(ItemStatsEntry.COLUMN_STATS_TOTAL_UNITS).append(" + ").append(delta).append(", ")
+                    .append(ItemStatsEntry.COLUMN_STATS_TOTAL_VALUE).append(" = ")
+                    .append(ItemStatsEntry.COLUMN_STATS_TOTAL_VALUE).append(" + new.")
+                    .append(ItemEntry.COLUMN_ITEM_PRICE).append(" * ").append(delta)
+                    .append(" WHERE ").append(ItemStatsEntry.COLUMN_STATS_DIMENSION).append(" = ").append(key[0])
+                    .append(" AND ").append(ItemStatsEntry.COLUMN_STATS_KEY).append(" = ").append(key[1]).append("; ");
+        }
+        return statements.toString();
+    }
+
+    /**
+     * Add the column to the table unless it already exists, so the migration steps
+     * adding columns can run twice.
+     */
+    private static void addColumnIfMissing(SQLiteDatabase db, String table, String column, String definition) {
+        if (!hasColumn(db, table, column)) {
+            db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+    }
+
+    /** Returns whether the table has the given column. */
+    private static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameColumnIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameColumnIndex))) {
+                    return true;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return false;
+    }
 
     public ItemDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    ItemDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+    }
+
+    /**
+     * Configure the connection before the database is created or upgraded: write-ahead logging,
+     * so the background reads of the list don't wait for the sale writes (and the other way
+     * round), normal synchronous level which is safe with WAL and fsyncs only at checkpoints,
+     * a larger page cache and a busy timeout so a connection waits for a lock instead of failing.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (mWriteAheadLogging) {
+            db.enableWriteAheadLogging();
+        }
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        db.execSQL("PRAGMA cache_size = " + CACHE_SIZE_PAGES);
+        // The items must refer to an existing supplier
+        db.setForeignKeyConstraintsEnabled(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // busy_timeout returns the new value, so it can't go through execSQL()
+            Cursor cursor = db.rawQuery("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // onConfigure() is only called from Jelly Bean on
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && mWriteAheadLogging
+                && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.execSQL("PRAGMA foreign_keys = ON");
+        }
     }
 
     @Override
@@ -26,14 +791,24 @@ public class ItemDbHelper extends SQLiteOpenHelper {
                 + ItemEntry.COLUMN_ITEM_PRICE + " INTEGER NOT NULL, "
                 + ItemEntry.COLUMN_ITEM_AVAILABILITY + " INTEGER NOT NULL DEFAULT 0, "
                 + ItemEntry.COLUMN_ITEM_QUANTITY + " INTEGER NOT NULL, "
-                + ItemEntry.COLUMN_ITEM_SUPPLIER_NAME + " TEXT NOT NULL, "
-                + ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER + " NUM NOT NULL );";
+                + LEGACY_COLUMN_SUPPLIER_CODE + " TEXT NOT NULL, "
+                + LEGACY_COLUMN_PHONE_NUMBER + " NUM NOT NULL );";
 
         sqLiteDatabase.execSQL(SQL_CREATE_ITEMS_TABLE);
+
+        // The table above is the version 1 schema, bring it to the current version
+        // with the same steps as the upgrade of an existing database.
+        onUpgrade(sqLiteDatabase, 1, DATABASE_VERSION);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // Run the steps after the old version in order, inside the transaction of SQLiteOpenHelper
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= oldVersion || migration.version > newVersion) {
+                continue;
+            }
+            migration.migrate(sqLiteDatabase);
+        }
     }
-}
\ No newline at end of file
+}
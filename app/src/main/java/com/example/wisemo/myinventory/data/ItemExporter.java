@@ -0,0 +1,227 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import com.example.wisemo.myinventory.R;
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * {@link ItemExporter} writes all the items of the {@link ItemProvider} to a CSV file which the
+ * {@link ItemImporter} can read back. The items are read in pages of {@link #PAGE_SIZE} rows ordered
+ * by ID, each page starting after the last ID of the previous one, and every row is encoded into a
+ * single reused buffer written to an NIO channel, so the memory used doesn't depend on the number
+ * of items. The category type codes are written with their labels, looked up in a table built once
+ * from the string resources, and the suppliers with their name and phone number.
+ * The export runs on the calling thread, which must not be the main thread.
+ */
+public final class ItemExporter {
+
+    /** Number of items read per query */
+    private static final int PAGE_SIZE = 1000;
+
+    /** Size of the buffer of encoded bytes written to the channel at once */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Columns exported, in order, before the labels are added */
+    private static final String[] PROJECTION = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_ITEM_CATEGORY_TYPE,
+            ItemEntry.COLUMN_ITEM_PRODUCT_NAME,
+            ItemEntry.COLUMN_ITEM_DESCRIPTION,
+            ItemEntry.COLUMN_ITEM_PRICE,
+            ItemEntry.COLUMN_ITEM_AVAILABILITY,
+            ItemEntry.COLUMN_ITEM_QUANTITY,
+            ItemEntry.COLUMN_ITEM_SUPPLIER_ID,
+            ItemEntry.COLUMN_ITEM_SUPPLIER_NAME,
+            ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER,
+            ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD};
+
+    private static final String HEADER = ItemEntry._ID + "," + ItemEntry.COLUMN_ITEM_CATEGORY_TYPE + ",type_label,"
+            + ItemEntry.COLUMN_ITEM_PRODUCT_NAME + "," + ItemEntry.COLUMN_ITEM_DESCRIPTION + ","
+            + ItemEntry.COLUMN_ITEM_PRICE + "," + ItemEntry.COLUMN_ITEM_AVAILABILITY + ","
+            + ItemEntry.COLUMN_ITEM_QUANTITY + "," + ItemEntry.COLUMN_ITEM_SUPPLIER_ID + ","
+            + ItemEntry.COLUMN_ITEM_SUPPLIER_NAME + "," + ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER + "," + ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD + "\n";
+
+    private final ContentResolver mContentResolver;
+
+    /** Labels of the category types, indexed by their code */
+    private final String[] mTypeLabels;
+
+    private final StringBuilder mLine = new StringBuilder(256);
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder mEncoder = Charset.forName("UTF-8").newEncoder();
+
+    public ItemExporter(Context context) {
+        mContentResolver = context.getContentResolver();
+        mTypeLabels = new String[]{
+                context.getString(R.string.type_casual),
+                context.getString(R.string.type_formal),
+                context.getString(R.string.type_life_style),
+                context.getString(R.string.type_cotton_socks),
+                context.getString(R.string.type_care_products),
+                context.getString(R.string.type_belts_and_wallets)};
+    }
+
+    /** Export all the items to the given file, replacing it. Return the number of items exported. */
+    public long exportTo(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            return exportTo(out.getChannel());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Export all the items to the given file descriptor, like the one of a document created by the user.
+     * Return the number of items exported.
+     */
+    public long exportTo(ParcelFileDescriptor fileDescriptor) throws IOException {
+        FileOutputStream out = new FileOutputStream(fileDescriptor.getFileDescriptor());
+        try {
+            FileChannel channel = out.getChannel();
+            // The document may already have some content
+            channel.truncate(0);
+            return exportTo(channel);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Export all the items to the given channel. Return the number of items exported. */
+    public long exportTo(WritableByteChannel channel) throws IOException {
+        mBuffer.clear();
+        mLine.setLength(0);
+        mLine.append(HEADER);
+        write(channel);
+
+        long count = 0;
+        long lastId = -1;
+        Uri pageUri = ItemEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ItemContract.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE))
+                .build();
+        String[] selectionArgs = new String[1];
+        while (true) {
+            selectionArgs[0] = String.valueOf(lastId);
+            Cursor cursor = mContentResolver.query(pageUri, PROJECTION, ItemEntry._ID + " > ?",
+                    selectionArgs, ItemEntry._ID + " ASC");
+            if (cursor == null) {
+                break;
+            }
+            int rows;
+            try {
+                rows = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    appendRow(cursor);
+                    write(channel);
+                }
+            } finally {
+                cursor.close();
+            }
+            count += rows;
+            if (rows < PAGE_SIZE) {
+                break;
+            }
+        }
+
+        // Write what's left in the buffer
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            channel.write(mBuffer);
+        }
+        mBuffer.clear();
+        return count;
+    }
+
+    /** Append the CSV line of the item at the current position of the cursor to {@link #mLine}. */
+    private void appendRow(Cursor cursor) {
+        int type = cursor.getInt(1);
+        mLine.append(cursor.getLong(0)).append(',')
+                .append(type).append(',');
+        appendField(label(mTypeLabels, type));
+        mLine.append(',');
+        appendField(cursor.getString(2));
+        mLine.append(',');
+        appendField(cursor.getString(3));
+        mLine.append(',')
+                .append(cursor.getLong(4)).append(',')
+                .append(cursor.getInt(5)).append(',')
+                .append(cursor.getLong(6)).append(',')
+                .append(cursor.getLong(7)).append(',');
+        appendField(cursor.getString(8));
+        mLine.append(',');
+        appendField(cursor.getString(9));
+        mLine.append(',')
+                .append(cursor.getLong(10)).append('\n');
+    }
+
+    /** Returns the label of the code, or an empty label for an unknown code. */
+    private static String label(String[] labels, int code) {
+        return code >= 0 && code < labels.length ? labels[code] : "";
+    }
+
+    /** Append a text field, quoted if it holds a separator, a quote or a line break. */
+    private void appendField(String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            mLine.append(value);
+            return;
+        }
+        mLine.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                mLine.append('"');
+            }
+            mLine.append(c);
+        }
+        mLine.append('"');
+    }
+
+    /**
+     * Encode {@link #mLine} into the buffer, then clear it. The buffer is written to the channel
+     * whenever it's full.
+     */
+    private void write(WritableByteChannel channel) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(mLine);
+        mEncoder.reset();
+        while (true) {
+            CoderResult result = mEncoder.encode(chars, mBuffer, true);
+            if (result.isOverflow()) {
+                mBuffer.flip();
+                while (mBuffer.hasRemaining()) {
+                    channel.write(mBuffer);
+                }
+                mBuffer.clear();
+            } else if (result.isError()) {
+                result.throwException();
+            } else {
+                break;
+            }
+        }
+        mLine.setLength(0);
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.SharedPreferences;
+
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+
+import java.util.List;
+
+/**
+ * {@link ItemFilter} holds the filters and the sort order of the items list: the category, supplier
+ * and availability of the items, a range of quantities, and the column the items are sorted by.
+ * It builds the parameterized selection the {@link ItemPagingSource} reads the pages with, and it's
+ * saved to the preferences so the list opens again with the same filter.
+ */
+public final class ItemFilter {
+
+    /** Value of a filter which isn't set */
+    public static final int ANY = -1;
+
+    /* The orders of the items, by ID (the order they were added) or by one of their columns */
+    public static final int SORT_ID = 0;
+    public static final int SORT_NAME = 1;
+    public static final int SORT_PRICE = 2;
+    public static final int SORT_QUANTITY = 3;
+
+    /** The filter showing all the items in the order they were added */
+    public static final ItemFilter NONE = new ItemFilter(ANY, ANY, ANY, ANY, ANY, SORT_ID, false);
+
+    /* Keys of the filter in the preferences */
+    private static final String PREF_CATEGORY_TYPE = "filter_category_type";
+    private static final String PREF_SUPPLIER_ID = "filter_supplier_id";
+    private static final String PREF_AVAILABILITY = "filter_availability";
+    private static final String PREF_MIN_QUANTITY = "filter_min_quantity";
+    private static final String PREF_MAX_QUANTITY = "filter_max_quantity";
+    private static final String PREF_SORT = "filter_sort";
+    private static final String PREF_DESCENDING = "filter_descending";
+
+    public final int categoryType;
+    public final long supplierId;
+    public final int availability;
+    public final int minQuantity;
+    public final int maxQuantity;
+    public final int sort;
+    public final boolean descending;
+
+    /**
+     * @param categoryType The category of the items, or {@link #ANY}.
+     * @param supplierId   The ID of the supplier of the items, or {@link #ANY}.
+     * @param availability {@link ItemEntry#ITEM_IN_STOCK} or {@link ItemEntry#ITEM_OUT_STOCK}, or {@link #ANY}.
+     * @param minQuantity  The lowest quantity of the items, or {@link #ANY}.
+     * @param maxQuantity  The highest quantity of the items, or {@link #ANY}.
+     * @param sort         One of the SORT constants.
+     * @param descending   Whether the items are sorted from the highest value to the lowest.
+     */
+    public ItemFilter(int categoryType, long supplierId, int availability, int minQuantity, int maxQuantity,
+                      int sort, boolean descending) {
+        if (sort < SORT_ID || sort > SORT_QUANTITY) {
+            throw new IllegalArgumentException("Unknown sort " + sort);
+        }
+        this.categoryType = categoryType;
+        this.supplierId = supplierId;
+        this.availability = availability;
+        this.minQuantity = minQuantity;
+        this.maxQuantity = maxQuantity;
+        this.sort = sort;
+        this.descending = descending;
+    }
+
+    /** Returns the filter saved in the preferences, {@link #NONE} if there's none. */
+    public static ItemFilter fromPreferences(SharedPreferences preferences) {
+        int sort = preferences.getInt(PREF_SORT, SORT_ID);
+        if (sort < SORT_ID || sort > SORT_QUANTITY) {
+            return NONE;
+        }
+        return new ItemFilter(preferences.getInt(PREF_CATEGORY_TYPE, ANY),
+                preferences.getLong(PREF_SUPPLIER_ID, ANY),
+                preferences.getInt(PREF_AVAILABILITY, ANY),
+                preferences.getInt(PREF_MIN_QUANTITY, ANY),
+                preferences.getInt(PREF_MAX_QUANTITY, ANY),
+                sort,
+                preferences.getBoolean(PREF_DESCENDING, false));
+    }
+
+    /** Save the filter with the given editor, the caller applies it. */
+    public void writeTo(SharedPreferences.Editor editor) {
+        editor.putInt(PREF_CATEGORY_TYPE, categoryType)
+                .putLong(PREF_SUPPLIER_ID, supplierId)
+                .putInt(PREF_AVAILABILITY, availability)
+                .putInt(PREF_MIN_QUANTITY, minQuantity)
+                .putInt(PREF_MAX_QUANTITY, maxQuantity)
+                .putInt(PREF_SORT, sort)
+                .putBoolean(PREF_DESCENDING, descending);
+    }
+
+    /** Returns whether some of the items may be hidden by the filter. */
+    public boolean isFiltering() {
+        return categoryType != ANY || supplierId != ANY || availability != ANY
+                || minQuantity != ANY || maxQuantity != ANY;
+    }
+
+    /**
+     * Returns the expression the items are sorted by, before their ID. The names are compared
+     * without case, like the index of the sort by name.
+     */
+    String getSortExpression() {
+        switch (sort) {
+            case SORT_NAME:
+                return ItemEntry.COLUMN_ITEM_PRODUCT_NAME + " COLLATE NOCASE";
+            case SORT_PRICE:
+                return ItemEntry.COLUMN_ITEM_PRICE;
+            case SORT_QUANTITY:
+                return ItemEntry.COLUMN_ITEM_QUANTITY;
+            default:
+                return null;
+        }
+    }
+
+    /** Returns the column read for the sort expression, null when sorting by ID. */
+    String getSortColumn() {
+        switch (sort) {
+            case SORT_NAME:
+                return ItemEntry.COLUMN_ITEM_PRODUCT_NAME;
+            case SORT_PRICE:
+                return ItemEntry.COLUMN_ITEM_PRICE;
+            case SORT_QUANTITY:
+                return ItemEntry.COLUMN_ITEM_QUANTITY;
+            default:
+                return null;
+        }
+    }
+
+    /** Returns the sort order of the items, ending with their ID so the order is total. */
+    String getSortOrder() {
+        String direction = descending ? " DESC" : " ASC";
+        String expression = getSortExpression();
+        return (expression == null ? "" : expression + direction + ", ") + ItemEntry._ID + direction;
+    }
+
+    /**
+     * Append the conditions of the filter to the selection, joined by AND, and their arguments to the
+     * selection arguments. Nothing is appended if the filter shows all the items.
+     * <p>
+     * When the items are sorted by a column, SQLite must walk the list index of that column, which
+     * holds the filtered columns too, so a page is read from the index without visiting the rows the
+     * filter hides. The other filtered columns are written as {@code +column}, which stops SQLite from
+     * picking their own index and sorting all the matching items instead. When sorting by ID, the
+     * index of the filtered column already holds its items in ID order and is the best choice.
+     * A {@code +column} has no affinity, so the arguments (always bound as text) are cast to integers.
+     */
+    void appendSelection(StringBuilder selection, List<String> selectionArgs) {
+        String sortColumn = getSortColumn();
+        if (categoryType != ANY) {
+            appendCondition(selection, ItemEntry.COLUMN_ITEM_CATEGORY_TYPE, sortColumn, " = CAST(? AS INTEGER)");
+            selectionArgs.add(String.valueOf(categoryType));
+        }
+        if (supplierId != ANY) {
+            appendCondition(selection, ItemEntry.COLUMN_ITEM_SUPPLIER_ID, sortColumn, " = CAST(? AS INTEGER)");
+            selectionArgs.add(String.valueOf(supplierId));
+        }
+        if (availability != ANY) {
+            appendCondition(selection, ItemEntry.COLUMN_ITEM_AVAILABILITY, sortColumn, " = CAST(? AS INTEGER)");
+            selectionArgs.add(String.valueOf(availability));
+        }
+        if (minQuantity != ANY) {
+            appendCondition(selection, ItemEntry.COLUMN_ITEM_QUANTITY, sortColumn, " >= CAST(? AS INTEGER)");
+            selectionArgs.add(String.valueOf(minQuantity));
+        }
+        if (maxQuantity != ANY) {
+            appendCondition(selection, ItemEntry.COLUMN_ITEM_QUANTITY, sortColumn, " <= CAST(? AS INTEGER)");
+            selectionArgs.add(String.valueOf(maxQuantity));
+        }
+    }
+
+    private static void appendCondition(StringBuilder selection, String column, String sortColumn,
+                                        String condition) {
+        if (selection.length() > 0) {
+            selection.append(" AND ");
+        }
+        if (sortColumn != null && !sortColumn.equals(column)) {
+            selection.append('+');
+        }
+        selection.append(column).append(condition);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ItemFilter)) {
+            return false;
+        }
+        ItemFilter other = (ItemFilter) o;
+        return categoryType == other.categoryType && supplierId == other.supplierId
+                && availability == other.availability && minQuantity == other.minQuantity
+                && maxQuantity == other.maxQuantity && sort == other.sort && descending == other.descending;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = categoryType;
+        hash = 31 * hash + (int) (supplierId ^ (supplierId >>> 32));
+        hash = 31 * hash + availability;
+        hash = 31 * hash + minQuantity;
+        hash = 31 * hash + maxQuantity;
+        hash = 31 * hash + sort;
+        return 31 * hash + (descending ? 1 : 0);
+    }
+}
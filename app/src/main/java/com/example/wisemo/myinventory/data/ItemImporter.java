@@ -0,0 +1,437 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.wisemo.myinventory.data.ItemContract.ImportEntry;
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+import com.example.wisemo.myinventory.data.ItemContract.SupplierEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link ItemImporter} imports a catalog of products into the {@link ItemProvider}, from a CSV file
+ * whose header row holds the item column names, or from a JSON lines file holding one object per line
+ * with the same keys. The records are read one at a time, so the memory used doesn't depend on the
+ * size of the file, and written in chunks of {@link #CHUNK_SIZE} rows, each one in a transaction
+ * with the checkpoint of the import. An interrupted import of the same source resumes after the last
+ * chunk written. The rows which break the rules of {@link ItemProvider#checkNewItem} are not imported
+ * but reported with their record number.
+ * The import runs on the calling thread, which must not be the main thread.
+ */
+public final class ItemImporter {
+
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_JSON_LINES = 1;
+
+    /** Number of records read per chunk, and so per transaction */
+    private static final int CHUNK_SIZE = 500;
+
+    /** The item columns which can be imported, and whether they hold an integer */
+    private static final Map<String, Boolean> COLUMNS = new HashMap<>();
+
+    static {
+        COLUMNS.put(ItemEntry.COLUMN_ITEM_CATEGORY_TYPE, true);
+        COLUMNS.put(ItemEntry.COLUMN_ITEM_PRODUCT_NAME, false);
+        COLUMNS.put(ItemEntry.COLUMN_ITEM_DESCRIPTION, false);
+        COLUMNS.put(ItemEntry.COLUMN_ITEM_AVAILABILITY, true);
+        COLUMNS.put(ItemEntry.COLUMN_ITEM_PRICE, true);
+        COLUMNS.put(ItemEntry.COLUMN_ITEM_QUANTITY, true);
+        COLUMNS.put(ItemEntry.COLUMN_ITEM_SUPPLIER_ID, true);
+        // Read from the exported files, the supplier is only set by its ID
+        COLUMNS.put(ItemEntry.COLUMN_ITEM_SUPPLIER_NAME, false);
+        COLUMNS.put(ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER, false);
+        COLUMNS.put(ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD, true);
+    }
+
+    /**
+     * Listener of the progress of an import, called on the importing thread after every chunk.
+     */
+    public interface ProgressListener {
+        /**
+         * @param recordsRead  The number of records of the source read so far, including a resumed run.
+         * @param rowsImported The number of items imported so far, including a resumed run.
+         * @param rowsRejected The number of records rejected by this run.
+         */
+        void onProgress(long recordsRead, long rowsImported, long rowsRejected);
+    }
+
+    /** Outcome of a complete import. */
+    public static final class Result {
+        public final long recordsRead;
+        public final long rowsImported;
+        public final long rowsRejected;
+        /** The number of records which had already been read by an interrupted run, 0 if none */
+        public final long resumedFrom;
+
+        Result(long recordsRead, long rowsImported, long rowsRejected, long resumedFrom) {
+            this.recordsRead = recordsRead;
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+            this.resumedFrom = resumedFrom;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final String mSource;
+    private final int mFormat;
+
+    /** IDs of the suppliers, read when the import starts, which the imported items may refer to */
+    private final Set<Long> mSupplierIds = new HashSet<>();
+
+    /**
+     * @param contentResolver The resolver used to write the items.
+     * @param source          The key of the imported source, like the URI of the file, which identifies
+     *                        the checkpoint of the import.
+     * @param format          {@link #FORMAT_CSV} or {@link #FORMAT_JSON_LINES}.
+     */
+    public ItemImporter(ContentResolver contentResolver, String source, int format) {
+        if (format != FORMAT_CSV && format != FORMAT_JSON_LINES) {
+            throw new IllegalArgumentException("Unknown import format " + format);
+        }
+        mContentResolver = contentResolver;
+        mSource = source;
+        mFormat = format;
+    }
+
+    /**
+     * Import all the records of the reader, resuming after the checkpoint of an interrupted import
+     * of the same source. The rejected records are written to the error report, one line each, once
+     * the chunk they belong to is written. The checkpoint is cleared once the whole source is imported.
+     */
+    public Result importFrom(Reader reader, Writer errorReport, ProgressListener listener) throws IOException {
+        long resumedFrom = 0;
+        long rowsImported = 0;
+        Cursor checkpoint = mContentResolver.query(ImportEntry.CONTENT_URI,
+                new String[]{ImportEntry.COLUMN_IMPORT_POSITION, ImportEntry.COLUMN_IMPORT_ROWS_IMPORTED},
+                ImportEntry.COLUMN_IMPORT_SOURCE + "=?", new String[]{mSource}, null);
+        if (checkpoint != null) {
+            try {
+                if (checkpoint.moveToFirst()) {
+                    resumedFrom = checkpoint.getLong(0);
+                    rowsImported = checkpoint.getLong(1);
+                }
+            } finally {
+                checkpoint.close();
+            }
+        }
+
+        loadSupplierIds();
+
+        RecordReader records = mFormat == FORMAT_CSV
+                ? new CsvRecordReader(new BufferedReader(reader))
+                : new JsonLinesRecordReader(new BufferedReader(reader));
+
+        // Skip the records already read by an interrupted import
+        long position = 0;
+        while (position < resumedFrom && records.skip()) {
+            position++;
+        }
+
+        List<ContentValues> chunk = new ArrayList<>(CHUNK_SIZE);
+        List<String> errors = new ArrayList<>();
+        long rowsRejected = 0;
+        long chunkStart = position;
+        while (true) {
+            ContentValues values;
+            try {
+                values = records.next();
+                if (values == null) {
+                    break;
+                }
+                checkRow(values);
+                chunk.add(values);
+            } catch (IllegalArgumentException e) {
+                errors.add("Record " + (position + 1) + ": " + e.getMessage());
+            }
+            position++;
+
+            if (position - chunkStart == CHUNK_SIZE) {
+                rowsImported += writeChunk(chunk, position);
+                rowsRejected += report(errors, errorReport);
+                chunkStart = position;
+                if (listener != null) {
+                    listener.onProgress(position, rowsImported, rowsRejected);
+                }
+            }
+        }
+        if (position > chunkStart) {
+            rowsImported += writeChunk(chunk, position);
+            rowsRejected += report(errors, errorReport);
+            if (listener != null) {
+                listener.onProgress(position, rowsImported, rowsRejected);
+            }
+        }
+
+        // The whole source is imported, importing it again starts from the beginning
+        mContentResolver.delete(ImportEntry.CONTENT_URI, ImportEntry.COLUMN_IMPORT_SOURCE + "=?",
+                new String[]{mSource});
+        return new Result(position, rowsImported, rowsRejected, resumedFrom);
+    }
+
+    /**
+     * Insert the rows of the chunk together with the checkpoint of the import at the given position,
+     * then clear the chunk. Return the number of rows inserted.
+     */
+    private int writeChunk(List<ContentValues> chunk, long position) {
+        Uri uri = ItemEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ItemContract.QUERY_PARAMETER_IMPORT_SOURCE, mSource)
+                .appendQueryParameter(ItemContract.QUERY_PARAMETER_IMPORT_POSITION, String.valueOf(position))
+                .build();
+        int inserted = mContentResolver.bulkInsert(uri, chunk.toArray(new ContentValues[chunk.size()]));
+        chunk.clear();
+        return inserted;
+    }
+
+    /** Write the errors of a chunk to the report, then clear them. Return the number of errors. */
+    private static int report(List<String> errors, Writer errorReport) throws IOException {
+        int count = errors.size();
+        if (errorReport != null && count != 0) {
+            for (String error : errors) {
+                errorReport.write(error);
+                errorReport.write('\n');
+            }
+            errorReport.flush();
+        }
+        errors.clear();
+        return count;
+    }
+
+    /** Read the IDs of the existing suppliers into {@link #mSupplierIds}. */
+    private void loadSupplierIds() {
+        mSupplierIds.clear();
+        Cursor suppliers = mContentResolver.query(SupplierEntry.CONTENT_URI, new String[]{SupplierEntry._ID},
+                null, null, null);
+        if (suppliers == null) {
+            return;
+        }
+        try {
+            while (suppliers.moveToNext()) {
+                mSupplierIds.add(suppliers.getLong(0));
+            }
+        } finally {
+            suppliers.close();
+        }
+    }
+
+    /**
+     * Fill the defaults of the columns the provider doesn't check, then check the row with the rules
+     * of the provider, so an invalid row is reported instead of failing its whole chunk.
+     */
+    private void checkRow(ContentValues values) {
+        if (!values.containsKey(ItemEntry.COLUMN_ITEM_PRICE)) {
+            throw new IllegalArgumentException("The product requires a price");
+        }
+        if (!values.containsKey(ItemEntry.COLUMN_ITEM_QUANTITY)) {
+            throw new IllegalArgumentException("The product requires a quantity");
+        }
+        if (!values.containsKey(ItemEntry.COLUMN_ITEM_DESCRIPTION)) {
+            values.put(ItemEntry.COLUMN_ITEM_DESCRIPTION, "");
+        }
+        // The files exported before the suppliers table hold the supplier ID in the supplier name
+        // column, the newer ones hold the name of the supplier, read from its ID
+        String supplierName = values.getAsString(ItemEntry.COLUMN_ITEM_SUPPLIER_NAME);
+        values.remove(ItemEntry.COLUMN_ITEM_SUPPLIER_NAME);
+        values.remove(ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER);
+        if (!values.containsKey(ItemEntry.COLUMN_ITEM_SUPPLIER_ID)) {
+            values.put(ItemEntry.COLUMN_ITEM_SUPPLIER_ID, supplierName != null && supplierName.matches("\\d+")
+                    ? Long.parseLong(supplierName) : ItemEntry.SUPPLIER_MAIN);
+        }
+        if (!mSupplierIds.contains(values.getAsLong(ItemEntry.COLUMN_ITEM_SUPPLIER_ID))) {
+            throw new IllegalArgumentException("Unknown supplier "
+                    + values.getAsLong(ItemEntry.COLUMN_ITEM_SUPPLIER_ID));
+        }
+        ItemProvider.checkNewItem(values);
+    }
+
+    /** Put the text value of an imported column into the values, converted to the type of the column. */
+    private static void putValue(ContentValues values, String column, String value) {
+        Boolean isInteger = COLUMNS.get(column);
+        if (isInteger == null || value.isEmpty()) {
+            // Unknown column or no value, the column is left out
+            return;
+        }
+        if (isInteger) {
+            try {
+                values.put(column, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number " + value + " for " + column);
+            }
+        } else {
+            values.put(column, value);
+        }
+    }
+
+    /** Reads the records of an imported file one at a time. */
+    private interface RecordReader {
+        /**
+         * Returns the values of the next record, or null at the end of the file.
+         * Throws an IllegalArgumentException, once the record is read, if it's malformed.
+         */
+        ContentValues next() throws IOException;
+
+        /** Skip the next record without converting it, returns false at the end of the file. */
+        boolean skip() throws IOException;
+    }
+
+    /**
+     * Reads CSV records (RFC 4180: comma separated, double quoted fields may contain commas,
+     * line breaks and doubled quotes), the first record being the header. Blank lines are ignored.
+     */
+    private static final class CsvRecordReader implements RecordReader {
+        private final BufferedReader mReader;
+        private final StringBuilder mField = new StringBuilder();
+        private List<String> mHeader;
+
+        CsvRecordReader(BufferedReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            List<String> fields = readHeaderAndRecord();
+            if (fields == null) {
+                return null;
+            }
+            if (fields.size() > mHeader.size()) {
+                throw new IllegalArgumentException("The record has " + fields.size()
+                        + " fields, the header has " + mHeader.size());
+            }
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < fields.size(); i++) {
+                putValue(values, mHeader.get(i), fields.get(i));
+            }
+            return values;
+        }
+
+        @Override
+        public boolean skip() throws IOException {
+            return readHeaderAndRecord() != null;
+        }
+
+        private List<String> readHeaderAndRecord() throws IOException {
+            if (mHeader == null) {
+                mHeader = readRecord();
+                if (mHeader == null) {
+                    return null;
+                }
+                for (int i = 0; i < mHeader.size(); i++) {
+                    mHeader.set(i, mHeader.get(i).trim());
+                }
+            }
+            return readRecord();
+        }
+
+        /** Returns the fields of the next non blank record, or null at the end of the file. */
+        private List<String> readRecord() throws IOException {
+            List<String> fields = new ArrayList<>();
+            mField.setLength(0);
+            boolean quoted = false;
+            int c;
+            while ((c = mReader.read()) != -1) {
+                if (quoted) {
+                    if (c != '"') {
+                        mField.append((char) c);
+                    } else {
+                        mReader.mark(1);
+                        if (mReader.read() == '"') {
+                            // Doubled quote inside a quoted field
+                            mField.append('"');
+                        } else {
+                            mReader.reset();
+                            quoted = false;
+                        }
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\n' || c == '\r') {
+                    if (c == '\r') {
+                        mReader.mark(1);
+                        if (mReader.read() != '\n') {
+                            mReader.reset();
+                        }
+                    }
+                    if (fields.isEmpty() && mField.length() == 0) {
+                        // Blank line
+                        continue;
+                    }
+                    fields.add(mField.toString());
+                    return fields;
+                } else {
+                    mField.append((char) c);
+                }
+            }
+            if (fields.isEmpty() && mField.length() == 0) {
+                return null;
+            }
+            // Last record without a line break
+            fields.add(mField.toString());
+            return fields;
+        }
+    }
+
+    /**
+     * Reads JSON lines records, one JSON object per line with the item column names as keys.
+     * Blank lines are ignored.
+     */
+    private static final class JsonLinesRecordReader implements RecordReader {
+        private final BufferedReader mReader;
+
+        JsonLinesRecordReader(BufferedReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            String line = readLine();
+            if (line == null) {
+                return null;
+            }
+            try {
+                JSONObject object = new JSONObject(line);
+                ContentValues values = new ContentValues();
+                for (String column : COLUMNS.keySet()) {
+                    if (!object.isNull(column)) {
+                        putValue(values, column, object.getString(column));
+                    }
+                }
+                return values;
+            } catch (JSONException e) {
+                throw new IllegalArgumentException("Invalid JSON: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public boolean skip() throws IOException {
+            return readLine() != null;
+        }
+
+        /** Returns the next non blank line, or null at the end of the file. */
+        private String readLine() throws IOException {
+            String line;
+            while ((line = mReader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    return line;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,563 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.text.TextUtils;
+
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link ItemPagingSource} loads the items of the {@link ItemProvider} page by page instead of
+ * querying the whole table at once. The pages are read by keyset on the sort value and the item ID
+ * ({@code _id > ? ORDER BY _id LIMIT ?} in the default order) on a background thread, the next page
+ * is prefetched when the list gets close to its end and only a few pages are kept in memory, the
+ * others are closed and read again when the list scrolls back to them.
+ * The items can be filtered and sorted with an {@link ItemFilter}.
+ * When a page is read again after a change, the difference with its previous items is computed
+ * on the background thread too, so the list only binds the rows that actually changed.
+ * All the methods must be called on the main thread.
+ */
+public class ItemPagingSource {
+
+    /** Number of items in a page */
+    static final int PAGE_SIZE = 100;
+
+    /** Maximum number of pages kept open at the same time */
+    static final int MAX_RESIDENT_PAGES = 4;
+
+    /** How close to the end of the loaded items the next page is prefetched */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /**
+     * Listener notified on the main thread when pages have been loaded or reloaded.
+     */
+    public interface Listener {
+        /**
+         * The items of a page have changed, the updates of the diff are relative to the
+         * position of the first item of the page.
+         */
+        void onPageChanged(int offset, DiffUtil.DiffResult diff);
+
+        /**
+         * A page dropped from memory has been read again, its items must be bound again.
+         */
+        void onPageReloaded(int offset, int count);
+
+        /**
+         * All the pages have been dropped, for instance because the search text has changed.
+         */
+        void onPagesReset();
+    }
+
+    /**
+     * Position of an item in the sort order: the value it's sorted by, null when sorting by ID,
+     * and its ID, which orders the items with the same value.
+     */
+    private static final class Key {
+        final String value;
+        final long id;
+
+        Key(String value, long id) {
+            this.value = value;
+            this.id = id;
+        }
+    }
+
+    /**
+     * A page of items, the ones after its start key (from the first item if it's null) up to and
+     * including its end key.
+     */
+    private static final class Page {
+        final Key start;
+        Key end;
+        int count;
+        Cursor cursor;
+        boolean loading;
+        boolean reloadPending;
+        boolean evicted;
+        long lastAccess;
+
+        /**
+         * {@link System#nanoTime()} of the change of the items the page is being read again for,
+         * 0 if none, to measure when the change shows in the list
+         */
+        long changeNanos;
+
+        /** The IDs and a hash of the content of the items, to compute the changes of the page */
+        long[] ids = new long[0];
+        int[] hashes = new int[0];
+
+        Page(Key start) {
+            this.start = start;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final String[] mProjection;
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final List<Page> mPages = new ArrayList<>();
+
+    /** True once a page shorter than PAGE_SIZE has been read */
+    private boolean mEndReached;
+
+    /** The search text, or null to list all the items */
+    private String mSearchText;
+
+    /** The filter and sort order of the items, not applied to the search results */
+    private ItemFilter mFilter;
+
+    /** Incremented on close, so the pages loaded after that are dropped */
+    private int mGeneration;
+
+    /** Counter used to find the least recently used page */
+    private long mAccessClock;
+
+    /** Time to read a page, and from the change of an item to the page showing it */
+    private final InventoryMetrics mMetrics = InventoryMetrics.getInstance();
+    private final InventoryMetrics.Histogram mPageLoad = mMetrics.histogram("list.page_load_us");
+    private final InventoryMetrics.Histogram mChangeToPage = mMetrics.histogram("list.change_to_page_us");
+
+    private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            reloadResidentPages(-1);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            // A change of a single item only needs the page containing it to be read again
+            if (uri != null && ItemEntry.CONTENT_URI.equals(getParent(uri))) {
+                reloadResidentPages(ContentUris.parseId(uri));
+            } else {
+                reloadResidentPages(-1);
+            }
+        }
+    };
+
+    /**
+     * @param contentResolver The resolver used to query the items.
+     * @param projection      The columns to read, must contain {@link ItemEntry#_ID} and the
+     *                        columns the items can be sorted by.
+     * @param filter          The filter and sort order of the items.
+     * @param listener        Notified when the loaded items change.
+     */
+    public ItemPagingSource(ContentResolver contentResolver, String[] projection, ItemFilter filter,
+                            Listener listener) {
+        mContentResolver = contentResolver;
+        mProjection = projection;
+        mFilter = filter;
+        mListener = listener;
+    }
+
+    /** Start loading the first page and listening for changes of the items. */
+    public void start() {
+        mContentResolver.registerContentObserver(ItemEntry.CONTENT_URI, true, mObserver);
+        loadNextPage();
+    }
+
+    /** Stop listening for changes and release all the pages. */
+    public void close() {
+        mContentResolver.unregisterContentObserver(mObserver);
+        dropPages();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Show the best search results for the given text (a single page of them) instead of
+     * all the items, or all the items again if the text is empty.
+     */
+    public void setSearchText(String searchText) {
+        if (TextUtils.isEmpty(searchText)) {
+            searchText = null;
+        }
+        if (TextUtils.equals(searchText, mSearchText)) {
+            return;
+        }
+        mSearchText = searchText;
+        dropPages();
+        mListener.onPagesReset();
+        loadNextPage();
+    }
+
+    /**
+     * Filter and sort the items with the given filter, reading them again from the first page.
+     * The search results aren't filtered, the filter applies again once the search is cleared.
+     */
+    public void setFilter(ItemFilter filter) {
+        if (filter.equals(mFilter)) {
+            return;
+        }
+        mFilter = filter;
+        if (mSearchText != null) {
+            return;
+        }
+        dropPages();
+        mListener.onPagesReset();
+        loadNextPage();
+    }
+
+    /** Close all the pages and ignore the ones being read. */
+    private void dropPages() {
+        mGeneration++;
+        for (Page page : mPages) {
+            if (page.cursor != null) {
+                page.cursor.close();
+            }
+        }
+        mPages.clear();
+        mEndReached = false;
+    }
+
+    /** Returns the number of items loaded so far. */
+    public int getCount() {
+        int count = 0;
+        for (Page page : mPages) {
+            count += page.count;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the cursor moved to the item at the given position, or null if its page isn't
+     * in memory at the moment (the page is then read again and the listener notified).
+     */
+    public Cursor getRow(int position) {
+        if (position >= getCount() - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+
+        int offset = position;
+        for (int i = 0; i < mPages.size(); i++) {
+            Page page = mPages.get(i);
+            if (offset < page.count) {
+                page.lastAccess = ++mAccessClock;
+                if (page.cursor == null) {
+                    loadPage(page, i == mPages.size() - 1);
+                    return null;
+                }
+                page.cursor.moveToPosition(offset);
+                return page.cursor;
+            }
+            offset -= page.count;
+        }
+        return null;
+    }
+
+    /** Read the page following the last loaded one, unless it's being read or there's none. */
+    private void loadNextPage() {
+        // The search results are a single page
+        if (mEndReached || (mSearchText != null && !mPages.isEmpty())) {
+            return;
+        }
+        Page last = mPages.isEmpty() ? null : mPages.get(mPages.size() - 1);
+        if (last != null && (last.loading || last.count < PAGE_SIZE)) {
+            return;
+        }
+        Page page = new Page(last == null ? null : last.end);
+        page.lastAccess = ++mAccessClock;
+        mPages.add(page);
+        loadPage(page, true);
+    }
+
+    /**
+     * Read the pages in memory again after the items have changed, only the one containing
+     * the given item ID if it isn't -1 and the items are in the order of their IDs.
+     */
+    private void reloadResidentPages(long changedId) {
+        int last = mPages.size() - 1;
+        if (mSearchText != null || mFilter.sort != ItemFilter.SORT_ID || mFilter.descending) {
+            // The search results, and the items sorted by another column, aren't in the order of
+            // their IDs: a change may move an item to another page, or add one to the first page.
+            changedId = -1;
+        }
+        if (changedId == -1) {
+            mEndReached = false;
+        }
+        // Changes of another process aren't notified by the provider of this one
+        long changeNanos = mMetrics.getLastNotifiedChangeNanos();
+        for (int i = 0; i <= last; i++) {
+            Page page = mPages.get(i);
+            boolean containsChange = changedId == -1 || ((page.start == null || changedId > page.start.id)
+                    && (page.end == null || changedId <= page.end.id || i == last));
+            if (page.cursor != null && containsChange) {
+                if (page.changeNanos == 0) {
+                    page.changeNanos = changeNanos;
+                }
+                loadPage(page, i == last);
+            }
+        }
+    }
+
+    /** Returns the URI without its last path segment. */
+    private static Uri getParent(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.isEmpty()) {
+            return null;
+        }
+        Uri.Builder builder = uri.buildUpon().path(null);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            builder.appendPath(segments.get(i));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Query the items of the page on the background thread. The last page isn't bounded by
+     * its end key, so it picks up the items added after it, and reads at most PAGE_SIZE items.
+     * The other pages read every item up to their end key without a limit: an item which moved
+     * into their range, like after a sale when sorting by quantity, makes them longer instead of
+     * pushing their last item out of every page.
+     * The selection is the one of the filter and the keyset of the page, with all the values as
+     * arguments, so the provider runs the same few statements for any filter and page.
+     */
+    private void loadPage(final Page page, final boolean isLast) {
+        if (page.loading) {
+            // Read it again once the current read is done, it may miss the latest change
+            page.reloadPending = true;
+            return;
+        }
+        page.loading = true;
+        page.reloadPending = false;
+
+        // Only read on this thread, the background thread must not see the page being changed
+        final long[] oldIds = page.ids;
+        final int[] oldHashes = page.hashes;
+
+        final int generation = mGeneration;
+        final Uri uri;
+        final String selection;
+        final String[] selectionArgs;
+        final String sortOrder;
+        final String sortColumn;
+        if (mSearchText != null) {
+            // The search results are already limited and ranked by the provider
+            uri = ItemEntry.SEARCH_URI.buildUpon()
+                    .appendQueryParameter(ItemContract.QUERY_PARAMETER_SEARCH, mSearchText)
+                    .appendQueryParameter(ItemContract.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE))
+                    .build();
+            selection = null;
+            selectionArgs = null;
+            sortOrder = null;
+            sortColumn = null;
+        } else {
+            StringBuilder where = new StringBuilder();
+            List<String> args = new ArrayList<>();
+            mFilter.appendSelection(where, args);
+            appendKeyCondition(where, args, page.start, true);
+            if (isLast) {
+                uri = ItemEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(ItemContract.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE))
+                        .build();
+            } else {
+                appendKeyCondition(where, args, page.end, false);
+                uri = ItemEntry.CONTENT_URI;
+            }
+            selection = where.length() == 0 ? null : where.toString();
+            selectionArgs = args.toArray(new String[args.size()]);
+            sortOrder = mFilter.getSortOrder();
+            sortColumn = mFilter.getSortColumn();
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                final Cursor cursor = mContentResolver.query(uri, mProjection, selection, selectionArgs,
+                        sortOrder);
+                if (cursor == null) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            page.loading = false;
+                        }
+                    });
+                    return;
+                }
+
+                // Snapshot the items of the page (which also fills the cursor window here rather
+                // than on the main thread) and compare them with the previous ones.
+                final long[] newIds = new long[cursor.getCount()];
+                final int[] newHashes = new int[newIds.length];
+                int idColumnIndex = cursor.getColumnIndex(ItemEntry._ID);
+                while (cursor.moveToNext()) {
+                    newIds[cursor.getPosition()] = cursor.getLong(idColumnIndex);
+                    newHashes[cursor.getPosition()] = hashRow(cursor);
+                }
+                // The key of the last item, where the next page starts
+                Key lastKey = null;
+                if (cursor.moveToLast()) {
+                    String value = sortColumn == null ? null
+                            : cursor.getString(cursor.getColumnIndexOrThrow(sortColumn));
+                    lastKey = new Key(value, cursor.getLong(idColumnIndex));
+                }
+                final Key endKey = lastKey;
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new PageDiffCallback(oldIds, oldHashes, newIds, newHashes), false);
+                mPageLoad.recordSince(start);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(generation, page, isLast, cursor, newIds, newHashes, endKey, diff);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(int generation, Page page, boolean isLast, Cursor cursor,
+                              long[] ids, int[] hashes, Key endKey, DiffUtil.DiffResult diff) {
+        page.loading = false;
+        if (generation != mGeneration) {
+            cursor.close();
+            return;
+        }
+
+        boolean wasEvicted = page.evicted;
+        page.evicted = false;
+        if (page.cursor != null) {
+            page.cursor.close();
+        }
+        page.cursor = cursor;
+        page.count = ids.length;
+        page.ids = ids;
+        page.hashes = hashes;
+        if (isLast) {
+            page.end = endKey == null ? page.start : endKey;
+            mEndReached = page.count < PAGE_SIZE || mSearchText != null;
+        }
+
+        int offset = 0;
+        for (Page previous : mPages) {
+            if (previous == page) {
+                break;
+            }
+            offset += previous.count;
+        }
+        mListener.onPageChanged(offset, diff);
+        if (page.changeNanos != 0) {
+            mChangeToPage.recordSince(page.changeNanos);
+            page.changeNanos = 0;
+        }
+        if (wasEvicted) {
+            // Back from the eviction, the placeholders of its items must be replaced
+            mListener.onPageReloaded(offset, page.count);
+        }
+
+        evictPages();
+        if (page.reloadPending) {
+            loadPage(page, page == mPages.get(mPages.size() - 1));
+        }
+    }
+
+    /**
+     * Append the condition on the sort value and the ID of the items after the given start key, or
+     * up to and including the given end key, in the sort order of the filter. The condition on the
+     * value alone comes first so SQLite reads a range of the index of the sort column:
+     * {@code value >= ? AND (value > ? OR _id > ?)} for the items after a key in ascending order.
+     */
+    private void appendKeyCondition(StringBuilder selection, List<String> selectionArgs, Key key,
+                                    boolean after) {
+        if (key == null) {
+            return;
+        }
+        boolean greater = after != mFilter.descending;
+        String strictOperator = greater ? " > ?" : " < ?";
+        String rangeOperator = greater ? " >= ?" : " <= ?";
+        if (selection.length() > 0) {
+            selection.append(" AND ");
+        }
+        String expression = mFilter.getSortExpression();
+        if (expression != null) {
+            selection.append(expression).append(rangeOperator).append(" AND (")
+                    .append(expression).append(strictOperator).append(" OR ");
+            selectionArgs.add(key.value);
+            selectionArgs.add(key.value);
+        }
+        selection.append(ItemEntry._ID).append(after ? strictOperator : rangeOperator);
+        selectionArgs.add(String.valueOf(key.id));
+        if (expression != null) {
+            selection.append(')');
+        }
+    }
+
+    /** Close the least recently used pages until only MAX_RESIDENT_PAGES are left in memory. */
+    private void evictPages() {
+        while (true) {
+            Page oldest = null;
+            int resident = 0;
+            for (Page page : mPages) {
+                if (page.cursor != null) {
+                    resident++;
+                    if (oldest == null || page.lastAccess < oldest.lastAccess) {
+                        oldest = page;
+                    }
+                }
+            }
+            if (resident <= MAX_RESIDENT_PAGES) {
+                return;
+            }
+            oldest.cursor.close();
+            oldest.cursor = null;
+            oldest.evicted = true;
+        }
+    }
+
+    /** Returns a hash of all the columns of the current row of the cursor. */
+    private static int hashRow(Cursor cursor) {
+        int hash = 1;
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            String value = cursor.getString(i);
+            hash = 31 * hash + (value == null ? 0 : value.hashCode());
+        }
+        return hash;
+    }
+
+    /** Compares the items of a page, by ID and by the hash of their content. */
+    private static final class PageDiffCallback extends DiffUtil.Callback {
+        private final long[] mOldIds;
+        private final int[] mOldHashes;
+        private final long[] mNewIds;
+        private final int[] mNewHashes;
+
+        PageDiffCallback(long[] oldIds, int[] oldHashes, long[] newIds, int[] newHashes) {
+            mOldIds = oldIds;
+            mOldHashes = oldHashes;
+            mNewIds = newIds;
+            mNewHashes = newHashes;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldIds.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewIds.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldIds[oldItemPosition] == mNewIds[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldHashes[oldItemPosition] == mNewHashes[newItemPosition];
+        }
+    }
+}
@@ -1,14 +1,45 @@
 package com.example.wisemo.myinventory.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.database.AbstractWindowedCursor;
 import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.wisemo.myinventory.data.ItemContract.ImportEntry;
+import com.example.wisemo.myinventory.data.ItemContract.ItemStatsEntry;
+import com.example.wisemo.myinventory.data.ItemContract.LocationEntry;
+import com.example.wisemo.myinventory.data.ItemContract.StockLevelEntry;
+import com.example.wisemo.myinventory.data.ItemContract.StockMovementEntry;
+import com.example.wisemo.myinventory.data.ItemContract.SupplierEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 public class ItemProvider extends ContentProvider {
 
     /** URI matcher code for the content URI for the items table */
@@ -17,6 +48,39 @@ public class ItemProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single item in the items table */
     private static final int ITEM_ID = 101;
 
+    /** URI matcher code for the content URI of the full-text search of the items */
+    private static final int ITEMS_SEARCH = 102;
+
+    /** URI matcher code for the content URI of the items that need reordering */
+    private static final int ITEMS_LOW_STOCK = 103;
+
+    /** URI matcher code for the content URI of the stock movements */
+    private static final int STOCK_MOVEMENTS = 104;
+
+    /** URI matcher code for the content URI of the aggregates of the items */
+    private static final int ITEMS_STATS = 105;
+
+    /** URI matcher code for the content URI of the import checkpoints */
+    private static final int IMPORTS = 106;
+
+    /** URI matcher code for the content URI for the suppliers table */
+    private static final int SUPPLIERS = 107;
+
+    /** URI matcher code for the content URI for a single supplier in the suppliers table */
+    private static final int SUPPLIER_ID = 108;
+
+    /** URI matcher code for the content URI for the locations table */
+    private static final int LOCATIONS = 109;
+
+    /** URI matcher code for the content URI for a single location in the locations table */
+    private static final int LOCATION_ID = 110;
+
+    /** URI matcher code for the content URI of the stock levels of the items per location */
+    private static final int STOCK_LEVELS = 111;
+
+    /** URI matcher code for the content URI for a single stock level */
+    private static final int STOCK_LEVEL_ID = 112;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -29,19 +93,93 @@ public class ItemProvider extends ContentProvider {
         // The calls to addURI() go here, for all of the content URI patterns that the provider
         // should recognize. All paths added to the UriMatcher have a corresponding code to return
         // when a match is found.
-        // 2 content URIs to URI matcher
+        // 4 content URIs to URI matcher
 
         sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_ITEMS, ITEMS);
         sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_ITEMS + "/#", ITEM_ID);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY,
+                ItemContract.PATH_ITEMS + "/" + ItemContract.PATH_SEARCH, ITEMS_SEARCH);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY,
+                ItemContract.PATH_ITEMS + "/" + ItemContract.PATH_LOW_STOCK, ITEMS_LOW_STOCK);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_STOCK_MOVEMENTS, STOCK_MOVEMENTS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY,
+                ItemContract.PATH_ITEMS + "/" + ItemContract.PATH_STATS, ITEMS_STATS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_IMPORTS, IMPORTS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_SUPPLIERS, SUPPLIERS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_SUPPLIERS + "/#", SUPPLIER_ID);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_LOCATIONS, LOCATIONS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_LOCATIONS + "/#", LOCATION_ID);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_STOCK_LEVELS, STOCK_LEVELS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_STOCK_LEVELS + "/#", STOCK_LEVEL_ID);
     }
 
 
     /** Tag for the log messages */
     public static final String LOG_TAG = ItemProvider.class.getSimpleName();
 
+    /** How long the change notifications are merged before the listeners are notified */
+    private static final long NOTIFY_WINDOW_MILLIS = 75;
+
+    /** Number of search results returned when the search URI has no limit */
+    private static final String DEFAULT_SEARCH_LIMIT = "50";
+
+    /** Number of stock movements recorded after which they are compacted into a new snapshot */
+    private static final int SNAPSHOT_INTERVAL_MOVEMENTS = 500;
+
+    /** Number of items kept by the cache of the single item queries */
+    private static final int ITEM_CACHE_SIZE = 256;
+
+    /** Number of local changes returned by {@link ItemContract#METHOD_GET_SYNC_CHANGES} if not given */
+    private static final int DEFAULT_SYNC_LIMIT = 500;
+
+
+    /** Database helper object, replaced by a new one when a backup is restored */
+    private volatile ItemDbHelper mDbHelper;
+
+    /** Lock held while a backup is made or restored, so they don't run together */
+    private final Object mBackupLock = new Object();
+
+    /**
+     * Read side held by every operation of the provider while it uses the database, write side held
+     * by a restore while it closes, replaces and opens the database, so no operation uses the old
+     * database once it's closed or opens it again.
+     */
+    private final ReentrantReadWriteLock mDatabaseLock = new ReentrantReadWriteLock();
+
+    /**
+     * Set while {@link #applyBatch} runs on the current thread (null otherwise),
+     * and true once one of the operations of the batch has changed some data.
+     */
+    private final ThreadLocal<Boolean> mBatchChanged = new ThreadLocal<>();
+
+    /** Coalesces the change notifications sent to the listeners */
+    private ChangeNotifier mChangeNotifier;
 
-    /** Database helper object */
-    private ItemDbHelper mDbHelper;
+    /** Number of stock movements recorded by this provider since the last snapshot */
+    private final AtomicInteger mMovementsSinceSnapshot = new AtomicInteger();
+
+    /** Rows of the recently read items, answering the ITEM_ID queries without SQLite */
+    private final ItemCache mItemCache = new ItemCache(ITEM_CACHE_SIZE);
+
+    /** Compiled statements of the frequent writes, for the database of {@link #mDbHelper} */
+    private volatile ItemStatements mStatements;
+
+    /** Latencies and sizes of the operations of the provider */
+    private final InventoryMetrics mMetrics = InventoryMetrics.getInstance();
+
+    /**
+     * Histograms of the operations per URI match code, resolved once so that recording them builds
+     * no name nor looks up the map of the metrics. The last one is for the URIs not matched.
+     */
+    private final UriMetrics[] mUriMetrics = createUriMetrics(mMetrics);
+
+    /** Latency histograms of the {@code call()} methods of the provider, by method name */
+    private final Map<String, InventoryMetrics.Histogram> mCallTimes = createCallTimes(mMetrics);
+
+    private final InventoryMetrics.Histogram mBulkInsertTime = mMetrics.histogram("bulk_insert.items_us");
+    private final InventoryMetrics.Histogram mBulkInsertRows = mMetrics.histogram("bulk_insert.items_rows");
+    private final InventoryMetrics.Histogram mApplyBatchTime = mMetrics.histogram("apply_batch_us");
+    private final InventoryMetrics.Histogram mApplyBatchRows = mMetrics.histogram("apply_batch_rows");
 
     /**
      * Initialize the provider and the database helper object.
@@ -50,15 +188,48 @@ public class ItemProvider extends ContentProvider {
     public boolean onCreate() {
         // Create and initialize an ItemDbHelper object to gain access to the items database.
         mDbHelper = new ItemDbHelper(getContext());
+        mChangeNotifier = new ChangeNotifier(getContext().getContentResolver(), NOTIFY_WINDOW_MILLIS);
         return true;
     }
 
     /**
-     * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
+     * Perform the query for the given URI, and record its latency, the number of rows of the cursor
+     * and the time taken to fill its window with them. The window is filled here rather than by the
+     * first read of the caller, which is the thread of the loader anyway. The number of rows held by
+     * the first window shows how wide the rows of the projection are.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = System.nanoTime();
+        Cursor cursor;
+        // The window is filled under the lock too, a restore must not close the database meanwhile
+        mDatabaseLock.readLock().lock();
+        try {
+            cursor = queryUri(uri, projection, selection, selectionArgs, sortOrder);
+            UriMetrics metrics = uriMetrics(uri);
+            long fillStart = System.nanoTime();
+            int rows = cursor.getCount();
+            metrics.mQueryFill.recordSince(fillStart);
+            metrics.mQueryRows.record(rows);
+            if (cursor instanceof AbstractWindowedCursor) {
+                CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+                if (window != null) {
+                    metrics.mQueryWindowRows.record(window.getNumRows());
+                }
+            }
+            metrics.mQuery.recordSince(start);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+        return cursor;
+    }
+
+    /**
+     * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
+     */
+    private Cursor queryUri(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -69,12 +240,16 @@ public class ItemProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEMS:
-                // For the ITEMS code, query the items table directly with the given
+                // For the ITEMS code, query the items joined with their supplier with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the items table.
-                // TODO: Perform database query on items table
-                cursor = database.query(ItemContract.ItemEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // The optional limit query parameter lets the list read the items page by page.
+                String limit = uri.getQueryParameter(ItemContract.QUERY_PARAMETER_LIMIT);
+                if (limit != null && !limit.matches("\\d+")) {
+                    throw new IllegalArgumentException("Invalid limit " + limit + " for " + uri);
+                }
+                cursor = database.query(ItemContract.ItemEntry.VIEW_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, limit);
                 break;
             case ITEM_ID:
                 // For the ITEM_ID code, extract out the ID from the URI.
@@ -85,14 +260,88 @@ public class ItemProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
+                //
+                // The row is served by the item cache when the projection only names columns of the
+                // items and their supplier, reading it from the database and caching it on a miss.
+                long itemId = ContentUris.parseId(uri);
+                cursor = mItemCache.query(database, itemId, projection);
+                if (cursor != null) {
+                    break;
+                }
                 selection = ItemContract.ItemEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                selectionArgs = new String[] { String.valueOf(itemId) };
 
                 // This will perform a query on the items table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(ItemContract.ItemEntry.TABLE_NAME, projection, selection, selectionArgs,
+                cursor = database.query(ItemContract.ItemEntry.VIEW_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case ITEMS_SEARCH:
+                cursor = searchItems(database, projection, uri.getQueryParameter(ItemContract.QUERY_PARAMETER_SEARCH),
+                        uri.getQueryParameter(ItemContract.QUERY_PARAMETER_LIMIT));
+                // The results change with any item, so listen to the changes of all the items
+                cursor.setNotificationUri(getContext().getContentResolver(), ItemContract.ItemEntry.CONTENT_URI);
+                return cursor;
+            case ITEMS_LOW_STOCK:
+                // Join the (small) low stock table to the items by primary key, no scan of the items
+                String lowStock = ItemContract.ItemEntry.LOW_STOCK_TABLE_NAME;
+                String items = ItemContract.ItemEntry.VIEW_NAME;
+                cursor = database.rawQuery("SELECT " + qualifyProjection(projection)
+                        + " FROM " + lowStock + " JOIN " + items + " ON " + items + "." + ItemContract.ItemEntry._ID
+                        + " = " + lowStock + "." + ItemContract.ItemEntry.COLUMN_LOW_STOCK_ITEM_ID
+                        + " ORDER BY " + items + "." + ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY + " ASC", null);
+                // The low stock items change with any item, so listen to the changes of all the items
+                cursor.setNotificationUri(getContext().getContentResolver(), ItemContract.ItemEntry.CONTENT_URI);
+                return cursor;
+            case ITEMS_STATS:
+                // The aggregates are maintained by triggers, reading them costs one row per category
+                // and supplier whatever the number of items.
+                cursor = database.query(ItemStatsEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                // The aggregates change with any item, so listen to the changes of all the items
+                cursor.setNotificationUri(getContext().getContentResolver(), ItemContract.ItemEntry.CONTENT_URI);
+                return cursor;
+            case IMPORTS:
+                cursor = database.query(ImportEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SUPPLIERS:
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case STOCK_MOVEMENTS:
+                cursor = database.query(StockMovementEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                // The movements are recorded with the changes of the items, so listen to the items
+                cursor.setNotificationUri(getContext().getContentResolver(), ItemContract.ItemEntry.CONTENT_URI);
+                return cursor;
+            case LOCATIONS:
+                cursor = database.query(LocationEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case LOCATION_ID:
+                selection = LocationEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = database.query(LocationEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case STOCK_LEVELS:
+            case STOCK_LEVEL_ID:
+                if (match == STOCK_LEVEL_ID) {
+                    selection = StockLevelEntry._ID + "=?";
+                    selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                }
+                cursor = database.query(StockLevelEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                // The stock levels change with the quantity of their item, so listen to the items
+                cursor.setNotificationUri(getContext().getContentResolver(), ItemContract.ItemEntry.CONTENT_URI);
+                return cursor;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -104,19 +353,134 @@ public class ItemProvider extends ContentProvider {
     }
 
     /**
-     * Insert new data into the provider with the given ContentValues.
+     * Search the items whose product name or description contain words starting with the words
+     * of the given text, using the full-text index. The items with the most matches come first.
      */
+    private Cursor searchItems(SQLiteDatabase database, String[] projection, String text, String limit) {
+        if (limit == null) {
+            limit = DEFAULT_SEARCH_LIMIT;
+        } else if (!limit.matches("\\d+")) {
+            throw new IllegalArgumentException("Invalid search limit " + limit);
+        }
+
+        // Turn every word into a prefix query, dropping the characters of the FTS query syntax
+        StringBuilder match = new StringBuilder();
+        if (text != null) {
+            for (String word : text.split("\\s+")) {
+                String token = word.replaceAll("[^\\p{L}\\p{N}]", "");
+                if (!token.isEmpty()) {
+                    match.append(match.length() == 0 ? "" : " ").append(token).append('*');
+                }
+            }
+        }
+
+        // Both tables have the indexed columns, so read the columns of the items (joined with their
+        // supplier) only
+        String table = ItemContract.ItemEntry.VIEW_NAME;
+        String columns = qualifyProjection(projection);
+
+        if (match.length() == 0) {
+            // Nothing to search, return no items
+            return database.rawQuery("SELECT " + columns + " FROM " + table + " WHERE 0", null);
+        }
+
+        String fts = ItemContract.ItemEntry.FTS_TABLE_NAME;
+        return database.rawQuery("SELECT " + columns + " FROM " + fts
+                + " JOIN " + table + " ON " + table + "." + ItemContract.ItemEntry._ID + " = " + fts + ".docid"
+                + " WHERE " + fts + " MATCH ?"
+                + " ORDER BY length(offsets(" + fts + ")) DESC"
+                + " LIMIT " + limit, new String[]{match.toString()});
+    }
+
+    /**
+     * Returns the columns of the projection read from the items joined with their supplier, for the
+     * queries joining the items with another table.
+     */
+    private static String qualifyProjection(String[] projection) {
+        String table = ItemContract.ItemEntry.VIEW_NAME;
+        if (projection == null) {
+            return table + ".*";
+        }
+        String[] qualified = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            qualified[i] = table + "." + projection[i] + " AS " + projection[i];
+        }
+        return TextUtils.join(", ", qualified);
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long start = System.nanoTime();
+        mDatabaseLock.readLock().lock();
+        try {
+            return insertUri(uri, contentValues);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+            uriMetrics(uri).mInsert.recordSince(start);
+        }
+    }
+
+    /**
+     * Insert new data into the provider with the given ContentValues.
+     */
+    private Uri insertUri(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEMS:
                 return insertItem(uri, contentValues);
+            case SUPPLIERS:
+                return insertSupplier(uri, contentValues);
+            case LOCATIONS:
+                return insertLocation(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
     }
 
+    /**
+     * Insert a supplier into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertSupplier(Uri uri, ContentValues values) {
+        String name = values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME);
+        if (TextUtils.isEmpty(name)) {
+            throw new IllegalArgumentException("The supplier requires a name");
+        }
+        // A supplier may not have given a phone number yet
+        if (values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER) == null) {
+            values = new ContentValues(values);
+            values.put(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = database.insert(SupplierEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        notifyChange(uri);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Insert a location into the database with the given content values. Return the new content URI
+     * for that specific row in the database. The location has no stock until some is added to it.
+     */
+    private Uri insertLocation(Uri uri, ContentValues values) {
+        if (TextUtils.isEmpty(values.getAsString(LocationEntry.COLUMN_LOCATION_NAME))) {
+            throw new IllegalArgumentException("The location requires a name");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = database.insert(LocationEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        notifyChange(uri);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
     /**
      * Insert an item into the database with the given content values. Return the new content URI
      * for that specific row in the database.
@@ -124,6 +488,50 @@ public class ItemProvider extends ContentProvider {
     private Uri insertItem(Uri uri, ContentValues values) {
 
         // Sanity checks
+        checkNewItem(values);
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Insert the new item with the given values, and its initial quantity as a restock
+        long id;
+        int movements = 0;
+        database.beginTransaction();
+        try {
+            ItemStatements statements = getStatements(database);
+            id = executeInsert(statements.bindInsert(values));
+            Integer quantity = values.getAsInteger(ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY);
+            if (id != -1 && quantity != null && quantity != 0) {
+                recordMovement(statements.recordMovement(), id, quantity, StockMovementEntry.REASON_RESTOCK,
+                        System.currentTimeMillis(), LocationEntry.LOCATION_MAIN);
+                movements = 1;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        onMovementsRecorded(movements);
+
+        // Notify all listeners that data has been changed for the product item content uri
+        // URI: content://com.example.wisemo.myinventory/items/
+        notifyChange(uri);
+
+        // Once we know the ID of the new row in the table,
+        // return the new URI with the ID appended to the end of it
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Check that the content values of a new item are valid, throw an IllegalArgumentException otherwise.
+     * The {@link ItemImporter} checks the imported rows with the same rules.
+     */
+    static void checkNewItem(ContentValues values) {
         // Check that the name_tv is not null
         String name = values.getAsString(ItemContract.ItemEntry.COLUMN_ITEM_PRODUCT_NAME);
         if (name == null) {
@@ -135,6 +543,13 @@ public class ItemProvider extends ContentProvider {
             throw new IllegalArgumentException("The product requires valid availability");
         }
 
+        // If the supplier is provided, check that it's not null, the main supplier is the default
+        if (values.containsKey(ItemContract.ItemEntry.COLUMN_ITEM_SUPPLIER_ID)
+                && values.getAsLong(ItemContract.ItemEntry.COLUMN_ITEM_SUPPLIER_ID) == null) {
+            throw new IllegalArgumentException("The product requires a valid supplier");
+        }
+        checkNoReadOnlyColumns(values);
+
         // If the price is provided, check that it's greater than or equal to 80 EGP
         Integer price = values.getAsInteger(ItemContract.ItemEntry.COLUMN_ITEM_PRICE);
         if (price != null && price < 80) {
@@ -147,48 +562,148 @@ public class ItemProvider extends ContentProvider {
             throw new IllegalArgumentException("The quantity can't be less than 0 item");
         }
 
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-
-        // Insert the new item with the given values
-        long id = database.insert(ItemContract.ItemEntry.TABLE_NAME, null, values);
-
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        // If the reorder threshold is provided, check that it's greater than or equal to 0 item
+        Integer threshold = values.getAsInteger(ItemContract.ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD);
+        if (threshold != null && threshold < 0) {
+            throw new IllegalArgumentException("The reorder threshold can't be less than 0 item");
         }
+    }
 
-        // Notify all listeners that data has been changed for the product item content uri
-        // URI: content://com.example.wisemo.myinventory/items/
-        getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Check that the content values of an item don't hold the name or phone number of its supplier,
+     * which are read from the suppliers table, nor the snippet of its description, which is computed,
+     * throw an IllegalArgumentException otherwise.
+     */
+    private static void checkNoReadOnlyColumns(ContentValues values) {
+        if (values.containsKey(ItemContract.ItemEntry.COLUMN_ITEM_SUPPLIER_NAME)
+                || values.containsKey(ItemContract.ItemEntry.COLUMN_ITEM_SUPPLIER_PHONE_NUMBER)) {
+            throw new IllegalArgumentException("The supplier name and phone number are set on the supplier");
+        }
+        if (values.containsKey(ItemContract.ItemEntry.COLUMN_ITEM_DESCRIPTION_SNIPPET)) {
+            throw new IllegalArgumentException("The description snippet is computed from the description");
+        }
+        for (String column : ItemContract.ItemEntry.SYNC_METADATA_COLUMNS) {
+            if (values.containsKey(column)) {
+                throw new IllegalArgumentException("The " + column + " of the items is only set by the sync");
+            }
+        }
+    }
 
-        // Once we know the ID of the new row in the table,
-        // return the new URI with the ID appended to the end of it
-        return ContentUris.withAppendedId(uri, id);
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        mDatabaseLock.readLock().lock();
+        try {
+            return updateUri(uri, contentValues, selection, selectionArgs);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+            uriMetrics(uri).mUpdate.recordSince(start);
+        }
     }
 
     /**
      * Updates the data at the given selection and selection arguments, with the new ContentValues.
      */
-    @Override
-    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+    private int updateUri(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEMS:
-                return updateItem(uri, contentValues, selection, selectionArgs);
+                // Any cached item may be among the updated ones
+                try {
+                    return updateItem(uri, contentValues, selection, selectionArgs);
+                } finally {
+                    mItemCache.clear();
+                }
             case ITEM_ID:
                 // For the ITEM_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
                 selection = ItemContract.ItemEntry._ID + "=?";
+                long id = ContentUris.parseId(uri);
+                selectionArgs = new String[] { String.valueOf(id) };
+                try {
+                    // Setting only the quantity of an item has its own compiled statements
+                    if (contentValues.size() == 1
+                            && contentValues.getAsInteger(ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY) != null) {
+                        return updateQuantity(uri, id,
+                                contentValues.getAsInteger(ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY));
+                    }
+                    return updateItem(uri, contentValues, selection, selectionArgs);
+                } finally {
+                    mItemCache.remove(id);
+                }
+            case SUPPLIERS:
+                return updateSupplier(uri, contentValues, selection, selectionArgs);
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateItem(uri, contentValues, selection, selectionArgs);
+                return updateSupplier(uri, contentValues, selection, selectionArgs);
+            case LOCATIONS:
+                return updateLocation(uri, contentValues, selection, selectionArgs);
+            case LOCATION_ID:
+                selection = LocationEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                return updateLocation(uri, contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
     }
 
+    /**
+     * Update suppliers in the database with the given content values. Their items show the new
+     * name and phone number right away, without any item being written.
+     * Return the number of rows that were successfully updated.
+     */
+    private int updateSupplier(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)
+                && TextUtils.isEmpty(values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME))) {
+            throw new IllegalArgumentException("The supplier requires a name");
+        }
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER)
+                && values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER) == null) {
+            throw new IllegalArgumentException("The supplier requires a phone number, which may be empty");
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated;
+        try {
+            rowsUpdated = database.update(SupplierEntry.TABLE_NAME, values, selection, selectionArgs);
+        } finally {
+            // The cached items hold the name and phone number of their supplier
+            mItemCache.clear();
+        }
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+            // The items read their supplier name and phone number from the suppliers
+            notifyChange(ItemContract.ItemEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Rename locations in the database, return the number of rows that were successfully updated.
+     * Their stock only changes through {@link ItemContract#METHOD_ADJUST_QUANTITY}.
+     */
+    private int updateLocation(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        if (values.containsKey(LocationEntry.COLUMN_LOCATION_NAME)
+                && TextUtils.isEmpty(values.getAsString(LocationEntry.COLUMN_LOCATION_NAME))) {
+            throw new IllegalArgumentException("The location requires a name");
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(LocationEntry.TABLE_NAME, values, selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+        }
+        return rowsUpdated;
+    }
+
     /**
      * Update items in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more items).
@@ -233,7 +748,22 @@ public class ItemProvider extends ContentProvider {
             }
         }
 
-        // No need to check the breed, any value is valid (including null).
+        // If the {@link ItemEntry#COLUMN_ITEM_REORDER_THRESHOLD} key is present,
+        // check that the threshold value is valid.
+        if (values.containsKey(ItemContract.ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD)) {
+            Integer threshold = values.getAsInteger(ItemContract.ItemEntry.COLUMN_ITEM_REORDER_THRESHOLD);
+            if (threshold == null || threshold < 0) {
+                throw new IllegalArgumentException("The reorder threshold can't be less than 0 item");
+            }
+        }
+
+        // If the {@link ItemEntry#COLUMN_ITEM_SUPPLIER_ID} key is present,
+        // check that the supplier is not null. The foreign key checks that it exists.
+        if (values.containsKey(ItemContract.ItemEntry.COLUMN_ITEM_SUPPLIER_ID)
+                && values.getAsLong(ItemContract.ItemEntry.COLUMN_ITEM_SUPPLIER_ID) == null) {
+            throw new IllegalArgumentException("The product requires a valid supplier");
+        }
+        checkNoReadOnlyColumns(values);
 
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
@@ -243,22 +773,92 @@ public class ItemProvider extends ContentProvider {
         // Otherwise, get writable database to update the data
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ItemContract.ItemEntry.TABLE_NAME, values, selection, selectionArgs);
+        // Perform the update on the database and get the number of rows affected,
+        // recording the change of the quantity of the items as an adjustment first.
+        int rowsUpdated;
+        int movements = 0;
+        database.beginTransaction();
+        try {
+            Integer quantity = values.getAsInteger(ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY);
+            if (quantity != null) {
+                movements = recordQuantityOverwrite(database, quantity, selection, selectionArgs);
+            }
+            rowsUpdated = database.update(ItemContract.ItemEntry.TABLE_NAME, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } catch (SQLiteConstraintException e) {
+            // An unknown supplier, or a quantity less than the stock of the locations other than the main one
+            throw new IllegalArgumentException("The product can't be updated: " + e.getMessage(), e);
+        } finally {
+            database.endTransaction();
+        }
+        onMovementsRecorded(movements);
+
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         // Return the number of rows updated
         return rowsUpdated;
     }
 
     /**
-     * Delete the data at the given selection and selection arguments.
+     * Set the quantity of a single item with the compiled statements, recording the change as an
+     * adjustment like {@link #updateItem} does. Return the number of rows updated.
      */
+    private int updateQuantity(Uri uri, long id, int quantity) {
+        // Check that the quantity is greater than or equal to 0 item
+        if (quantity < 0) {
+            throw new IllegalArgumentException("The quantity can't be less than 0 item");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated;
+        int movements;
+        database.beginTransaction();
+        try {
+            ItemStatements statements = getStatements(database);
+            SQLiteStatement record = statements.recordQuantityOverwrite();
+            record.bindLong(1, quantity);
+            record.bindLong(2, System.currentTimeMillis());
+            record.bindLong(3, quantity);
+            record.bindLong(4, id);
+            movements = record.executeUpdateDelete();
+
+            SQLiteStatement update = statements.updateQuantity();
+            update.bindLong(1, quantity);
+            update.bindLong(2, id);
+            rowsUpdated = update.executeUpdateDelete();
+            database.setTransactionSuccessful();
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("The quantity can't be less than the stock of the other locations", e);
+        } finally {
+            database.endTransaction();
+        }
+        onMovementsRecorded(movements);
+
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+        }
+        return rowsUpdated;
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        mDatabaseLock.readLock().lock();
+        try {
+            return deleteUri(uri, selection, selectionArgs);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+            uriMetrics(uri).mDelete.recordSince(start);
+        }
+    }
+
+    /**
+     * Delete the data at the given selection and selection arguments.
+     */
+    private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
@@ -270,12 +870,41 @@ public class ItemProvider extends ContentProvider {
             case ITEMS:
                 // Delete all rows that match the selection and selection args
                 rowsDeleted = database.delete(ItemContract.ItemEntry.TABLE_NAME, selection, selectionArgs);
+                mItemCache.clear();
                 break;
             case ITEM_ID:
-                // Delete a single row given by the ID in the URI
-                selection = ItemContract.ItemEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(ItemContract.ItemEntry.TABLE_NAME, selection, selectionArgs);
+                // Delete a single row given by the ID in the URI, with the compiled statement
+                // which is only used inside a write transaction
+                long id = ContentUris.parseId(uri);
+                database.beginTransaction();
+                try {
+                    SQLiteStatement delete = getStatements(database).delete();
+                    delete.bindLong(1, id);
+                    rowsDeleted = delete.executeUpdateDelete();
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                mItemCache.remove(id);
+                break;
+            case IMPORTS:
+                // Clear the import checkpoints, no item has changed
+                return database.delete(ImportEntry.TABLE_NAME, selection, selectionArgs);
+            case SUPPLIERS:
+                rowsDeleted = deleteSuppliers(database, selection, selectionArgs);
+                break;
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                rowsDeleted = deleteSuppliers(database, selection, selectionArgs);
+                break;
+            case LOCATIONS:
+                rowsDeleted = deleteLocations(database, selection, selectionArgs);
+                break;
+            case LOCATION_ID:
+                selection = LocationEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                rowsDeleted = deleteLocations(database, selection, selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
@@ -283,12 +912,848 @@ public class ItemProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Delete the selected suppliers, except the main supplier which is the default of the new items.
+     * The foreign key of the items refuses to delete a supplier which still has items.
+     */
+    private static int deleteSuppliers(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        String notMain = SupplierEntry._ID + " <> " + ItemContract.ItemEntry.SUPPLIER_MAIN;
+        try {
+            return database.delete(SupplierEntry.TABLE_NAME,
+                    TextUtils.isEmpty(selection) ? notMain : notMain + " AND (" + selection + ")", selectionArgs);
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("The supplier still has items", e);
+        }
+    }
+
+    /**
+     * Delete the selected locations, except the main location which holds the stock of the new items.
+     * Their empty stock levels are deleted with them, and the foreign key of the stock levels refuses
+     * to delete a location which still has stock.
+     */
+    private static int deleteLocations(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        String notMain = LocationEntry._ID + " <> " + LocationEntry.LOCATION_MAIN;
+        String where = TextUtils.isEmpty(selection) ? notMain : notMain + " AND (" + selection + ")";
+        database.beginTransaction();
+        try {
+            database.delete(StockLevelEntry.TABLE_NAME, StockLevelEntry.COLUMN_STOCK_QUANTITY + " = 0 AND "
+                    + StockLevelEntry.COLUMN_STOCK_LOCATION_ID + " IN (SELECT " + LocationEntry._ID + " FROM "
+                    + LocationEntry.TABLE_NAME + " WHERE " + where + ")", selectionArgs);
+            int rowsDeleted = database.delete(LocationEntry.TABLE_NAME, where, selectionArgs);
+            database.setTransactionSuccessful();
+            return rowsDeleted;
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("The location still has stock", e);
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Insert all the given items inside a single transaction with one compiled insert statement
+     * per set of columns, and notify the listeners only once at the end. If the URI has the import
+     * query parameters, the checkpoint of the import is written in the same transaction.
+     * Return the number of items inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] valuesArray) {
+        if (sUriMatcher.match(uri) != ITEMS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+        long start = System.nanoTime();
+        mDatabaseLock.readLock().lock();
+        try {
+            return bulkInsertItems(uri, valuesArray);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+            mBulkInsertTime.recordSince(start);
+            mBulkInsertRows.record(valuesArray.length);
+        }
+    }
+
+    private int bulkInsertItems(Uri uri, ContentValues[] valuesArray) {
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // The rows of an import normally all have the same columns, so a single compiled
+        // insert statement is reused for all of them, and for the next batches.
+        int rowsInserted = 0;
+        int movements = 0;
+        long now = System.currentTimeMillis();
+        database.beginTransaction();
+        try {
+            ItemStatements statements = getStatements(database);
+            SQLiteStatement record = statements.recordMovement();
+            for (ContentValues values : valuesArray) {
+                checkNewItem(values);
+
+                long id = statements.bindInsert(values).executeInsert();
+                if (id == -1) {
+                    Log.e(LOG_TAG, "Failed to insert row for " + uri);
+                    continue;
+                }
+                rowsInserted++;
+                Integer quantity = values.getAsInteger(ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY);
+                if (quantity != null && quantity != 0) {
+                    recordMovement(record, id, quantity, StockMovementEntry.REASON_RESTOCK, now,
+                            LocationEntry.LOCATION_MAIN);
+                    movements++;
+                }
+            }
+            String importSource = uri.getQueryParameter(ItemContract.QUERY_PARAMETER_IMPORT_SOURCE);
+            if (importSource != null) {
+                writeImportCheckpoint(database, importSource,
+                        uri.getQueryParameter(ItemContract.QUERY_PARAMETER_IMPORT_POSITION), rowsInserted, now);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        onMovementsRecorded(movements);
+
+        // A single notification for the whole batch, sent right away at the end of the batch
+        if (rowsInserted != 0) {
+            notifyChange(ItemContract.ItemEntry.CONTENT_URI);
+            mChangeNotifier.flush();
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Save the position reached by the import of the given source, and add the rows just inserted
+     * to the rows it has imported.
+     */
+    private static void writeImportCheckpoint(SQLiteDatabase database, String source, String position,
+                                              int rowsInserted, long now) {
+        if (position == null || !position.matches("\\d+")) {
+            throw new IllegalArgumentException("Invalid import position " + position + " for " + source);
+        }
+        SQLiteStatement checkpoint = database.compileStatement("INSERT OR REPLACE INTO " + ImportEntry.TABLE_NAME
+                + " (" + ImportEntry.COLUMN_IMPORT_SOURCE + ", " + ImportEntry.COLUMN_IMPORT_POSITION + ", "
+                + ImportEntry.COLUMN_IMPORT_ROWS_IMPORTED + ", " + ImportEntry.COLUMN_IMPORT_UPDATED_AT
+                + ") VALUES (?, ?, ? + IFNULL((SELECT " + ImportEntry.COLUMN_IMPORT_ROWS_IMPORTED + " FROM "
+                + ImportEntry.TABLE_NAME + " WHERE " + ImportEntry.COLUMN_IMPORT_SOURCE + " = ?), 0), ?)");
+        try {
+            checkpoint.bindString(1, source);
+            checkpoint.bindLong(2, Long.parseLong(position));
+            checkpoint.bindLong(3, rowsInserted);
+            checkpoint.bindString(4, source);
+            checkpoint.bindLong(5, now);
+            checkpoint.executeInsert();
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    /**
+     * Apply the batch of operations inside a single transaction, so either all of them
+     * or none of them are written to the database. The listeners are notified only once
+     * the whole batch is applied.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // The operations take the read lock again on this thread, which a waiting restore doesn't block
+        mDatabaseLock.readLock().lock();
+        try {
+            return applyOperations(operations);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    private ContentProviderResult[] applyOperations(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Collect the changes of the operations instead of notifying for each of them
+        long start = System.nanoTime();
+        mBatchChanged.set(Boolean.FALSE);
+        database.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            return results;
+        } finally {
+            database.endTransaction();
+            boolean changed = mBatchChanged.get();
+            mBatchChanged.remove();
+            // Notify all listeners of the items once for the whole batch
+            if (changed) {
+                notifyChange(ItemContract.ItemEntry.CONTENT_URI);
+                mChangeNotifier.flush();
+            }
+            mApplyBatchTime.recordSince(start);
+            mApplyBatchRows.record(operations.size());
+        }
+    }
+
+    /** Returns the histograms of the operations on the given URI. */
+    private UriMetrics uriMetrics(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        if (match < ITEMS || match > STOCK_LEVEL_ID) {
+            return mUriMetrics[mUriMetrics.length - 1];
+        }
+        return mUriMetrics[match - ITEMS];
+    }
+
+    private static UriMetrics[] createUriMetrics(InventoryMetrics metrics) {
+        UriMetrics[] uriMetrics = new UriMetrics[STOCK_LEVEL_ID - ITEMS + 2];
+        for (int match = ITEMS; match <= STOCK_LEVEL_ID; match++) {
+            uriMetrics[match - ITEMS] = new UriMetrics(metrics, uriName(match));
+        }
+        uriMetrics[uriMetrics.length - 1] = new UriMetrics(metrics, uriName(UriMatcher.NO_MATCH));
+        return uriMetrics;
+    }
+
+    private static Map<String, InventoryMetrics.Histogram> createCallTimes(InventoryMetrics metrics) {
+        String[] methods = {ItemContract.METHOD_ADJUST_QUANTITY, ItemContract.METHOD_ADJUST_QUANTITIES,
+                ItemContract.METHOD_GET_NOTIFICATION_STATS, ItemContract.METHOD_GET_QUANTITY_AT,
+                ItemContract.METHOD_GET_UNITS_SOLD, ItemContract.METHOD_COMPACT_STOCK,
+                ItemContract.METHOD_GET_CACHE_STATS, ItemContract.METHOD_GET_METRICS,
+                ItemContract.METHOD_GET_SYNC_CHANGES, ItemContract.METHOD_ACK_SYNC_CHANGES,
+                ItemContract.METHOD_APPLY_SYNC_CHANGES, ItemContract.METHOD_BACKUP, ItemContract.METHOD_RESTORE};
+        Map<String, InventoryMetrics.Histogram> callTimes = new HashMap<>();
+        for (String method : methods) {
+            callTimes.put(method, metrics.histogram("call." + method + "_us"));
+        }
+        return callTimes;
+    }
+
+    /** Returns the name of the URI match code in the metrics, the name of its pattern rather than the URI itself. */
+    private static String uriName(int match) {
+        switch (match) {
+            case ITEMS:
+                return "items";
+            case ITEM_ID:
+                return "item_id";
+            case ITEMS_SEARCH:
+                return "search";
+            case ITEMS_LOW_STOCK:
+                return "low_stock";
+            case STOCK_MOVEMENTS:
+                return "stock_movements";
+            case ITEMS_STATS:
+                return "stats";
+            case IMPORTS:
+                return "imports";
+            case SUPPLIERS:
+                return "suppliers";
+            case SUPPLIER_ID:
+                return "supplier_id";
+            case LOCATIONS:
+                return "locations";
+            case LOCATION_ID:
+                return "location_id";
+            case STOCK_LEVELS:
+                return "stock_levels";
+            case STOCK_LEVEL_ID:
+                return "stock_level_id";
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed, or remember it until the end
+     * of the batch if a batch is being applied on this thread. The notifications of the writes close
+     * to each other are merged by the {@link ChangeNotifier}.
+     */
+    private void notifyChange(Uri uri) {
+        if (mBatchChanged.get() != null) {
+            mBatchChanged.set(Boolean.TRUE);
+            return;
+        }
+        mChangeNotifier.notifyChange(uri);
+    }
+
+    /**
+     * Returns the compiled statements of the given database, the one of the current database helper.
+     * They are compiled again for a new database, after a restore.
+     */
+    private ItemStatements getStatements(SQLiteDatabase database) {
+        ItemStatements statements = mStatements;
+        if (statements == null || !statements.isFor(database)) {
+            statements = new ItemStatements(database);
+            mStatements = statements;
+        }
+        return statements;
+    }
+
+    /**
+     * Run a bound insert statement, returning the ID of the new row or -1 if it failed like
+     * {@link SQLiteDatabase#insert} does.
+     */
+    private static long executeInsert(SQLiteStatement insert) {
+        try {
+            return insert.executeInsert();
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error inserting an item", e);
+            return -1;
+        }
+    }
+
+    /** Append a movement to the stock ledger with the statement of {@link ItemStatements#recordMovement}. */
+    private static void recordMovement(SQLiteStatement record, long itemId, long delta, int reason, long timestamp,
+                                       long locationId) {
+        record.bindLong(1, itemId);
+        record.bindLong(2, delta);
+        record.bindLong(3, reason);
+        record.bindLong(4, timestamp);
+        record.bindLong(5, locationId);
+        record.executeInsert();
+    }
+
+    /**
+     * Record the overwrite of the quantity of the selected items with the given one as adjustments,
+     * before the items are updated. Return the number of movements recorded.
+     */
+    private static int recordQuantityOverwrite(SQLiteDatabase database, int quantity, String selection,
+                                               String[] selectionArgs) {
+        // A single statement computes the delta of every selected item whose quantity changes
+        SQLiteStatement record = database.compileStatement("INSERT INTO " + StockMovementEntry.TABLE_NAME + " ("
+                + StockMovementEntry.COLUMN_MOVEMENT_ITEM_ID + ", " + StockMovementEntry.COLUMN_MOVEMENT_DELTA + ", "
+                + StockMovementEntry.COLUMN_MOVEMENT_REASON + ", " + StockMovementEntry.COLUMN_MOVEMENT_TIMESTAMP
+                + ") SELECT " + ItemContract.ItemEntry._ID + ", ? - " + ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY
+                + ", " + StockMovementEntry.REASON_ADJUSTMENT + ", ? FROM " + ItemContract.ItemEntry.TABLE_NAME
+                + " WHERE " + ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY + " <> ?"
+                + (TextUtils.isEmpty(selection) ? "" : " AND (" + selection + ")"));
+        try {
+            record.bindLong(1, quantity);
+            record.bindLong(2, System.currentTimeMillis());
+            record.bindLong(3, quantity);
+            if (selectionArgs != null) {
+                for (int i = 0; i < selectionArgs.length; i++) {
+                    record.bindString(i + 4, selectionArgs[i]);
+                }
+            }
+            return record.executeUpdateDelete();
+        } finally {
+            record.close();
+        }
+    }
+
+    /**
+     * Count the stock movements recorded, and compact them into a snapshot once there are enough of them.
+     */
+    private void onMovementsRecorded(int count) {
+        if (count != 0 && mMovementsSinceSnapshot.addAndGet(count) >= SNAPSHOT_INTERVAL_MOVEMENTS) {
+            compactStock();
+        }
+    }
+
+    /**
+     * Write a snapshot of every item with stock movements since the last snapshot: its previous
+     * snapshot plus these movements. The quantity of an item at a given time is then read from the
+     * nearest snapshot and the few movements after it, not from its whole history.
+     * Return the number of snapshots written.
+     */
+    private int compactStock() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String movements = StockMovementEntry.TABLE_NAME;
+        String snapshots = StockMovementEntry.SNAPSHOT_TABLE_NAME;
+
+        int count = 0;
+        database.beginTransaction();
+        try {
+            mMovementsSinceSnapshot.set(0);
+            long lastMovementId = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX("
+                    + StockMovementEntry._ID + "), 0) FROM " + movements, null);
+            long previousMovementId = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX("
+                    + StockMovementEntry.COLUMN_SNAPSHOT_LAST_MOVEMENT_ID + "), 0) FROM " + snapshots, null);
+            if (lastMovementId > previousMovementId) {
+                String previousSnapshot = " FROM " + snapshots + " s WHERE s." + StockMovementEntry.COLUMN_SNAPSHOT_ITEM_ID
+                        + " = m." + StockMovementEntry.COLUMN_MOVEMENT_ITEM_ID + " ORDER BY s."
+                        + StockMovementEntry.COLUMN_SNAPSHOT_LAST_MOVEMENT_ID + " DESC LIMIT 1";
+                SQLiteStatement compact = database.compileStatement("INSERT INTO " + snapshots + " ("
+                        + StockMovementEntry.COLUMN_SNAPSHOT_ITEM_ID + ", "
+                        + StockMovementEntry.COLUMN_SNAPSHOT_LAST_MOVEMENT_ID + ", "
+                        + StockMovementEntry.COLUMN_SNAPSHOT_TIMESTAMP + ", "
+                        + StockMovementEntry.COLUMN_SNAPSHOT_QUANTITY + ", "
+                        + StockMovementEntry.COLUMN_SNAPSHOT_UNITS_SOLD + ")"
+                        + " SELECT m." + StockMovementEntry.COLUMN_MOVEMENT_ITEM_ID + ", ?, MAX(m."
+                        + StockMovementEntry.COLUMN_MOVEMENT_TIMESTAMP + "), SUM(m."
+                        + StockMovementEntry.COLUMN_MOVEMENT_DELTA + ") + IFNULL((SELECT s."
+                        + StockMovementEntry.COLUMN_SNAPSHOT_QUANTITY + previousSnapshot + "), 0), "
+                        + soldUnits("m") + " + IFNULL((SELECT s."
+                        + StockMovementEntry.COLUMN_SNAPSHOT_UNITS_SOLD + previousSnapshot + "), 0)"
+                        + " FROM " + movements + " m WHERE m." + StockMovementEntry._ID + " > ? AND m."
+                        + StockMovementEntry._ID + " <= ? GROUP BY m." + StockMovementEntry.COLUMN_MOVEMENT_ITEM_ID);
+                try {
+                    compact.bindLong(1, lastMovementId);
+                    compact.bindLong(2, previousMovementId);
+                    compact.bindLong(3, lastMovementId);
+                    count = compact.executeUpdateDelete();
+                } finally {
+                    compact.close();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return count;
+    }
+
+    /** Returns the SQL sum of the units sold by the movements of the given table alias. */
+    private static String soldUnits(String alias) {
+        return "SUM(CASE WHEN " + alias + "." + StockMovementEntry.COLUMN_MOVEMENT_REASON + " = "
+                + StockMovementEntry.REASON_SALE + " THEN -" + alias + "." + StockMovementEntry.COLUMN_MOVEMENT_DELTA
+                + " ELSE 0 END)";
+    }
+
+    /**
+     * Returns the quantity of the item at the given time (included), or the units sold by the item
+     * before the given time (excluded), from the nearest snapshot before that time and the movements
+     * recorded after the snapshot.
+     */
+    private long stockAt(long itemId, long timestamp, boolean unitsSold) {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        String comparison = unitsSold ? " < ?" : " <= ?";
+        String[] args = {String.valueOf(itemId), String.valueOf(timestamp)};
+
+        long value = 0;
+        long lastMovementId = 0;
+        Cursor snapshot = database.rawQuery("SELECT " + (unitsSold ? StockMovementEntry.COLUMN_SNAPSHOT_UNITS_SOLD
+                : StockMovementEntry.COLUMN_SNAPSHOT_QUANTITY) + ", " + StockMovementEntry.COLUMN_SNAPSHOT_LAST_MOVEMENT_ID
+                + " FROM " + StockMovementEntry.SNAPSHOT_TABLE_NAME
+                + " WHERE " + StockMovementEntry.COLUMN_SNAPSHOT_ITEM_ID + " = ?"
+                + " AND " + StockMovementEntry.COLUMN_SNAPSHOT_TIMESTAMP + comparison
+                + " ORDER BY " + StockMovementEntry.COLUMN_SNAPSHOT_LAST_MOVEMENT_ID + " DESC LIMIT 1", args);
+        try {
+            if (snapshot.moveToFirst()) {
+                value = snapshot.getLong(0);
+                lastMovementId = snapshot.getLong(1);
+            }
+        } finally {
+            snapshot.close();
+        }
+
+        // The movements of the item after the snapshot, found by the item index in ID order
+        String m = StockMovementEntry.TABLE_NAME;
+        return value + DatabaseUtils.longForQuery(database, "SELECT IFNULL("
+                + (unitsSold ? soldUnits(m) : "SUM(" + StockMovementEntry.COLUMN_MOVEMENT_DELTA + ")")
+                + ", 0) FROM " + m + " WHERE " + StockMovementEntry.COLUMN_MOVEMENT_ITEM_ID + " = ?"
+                + " AND " + StockMovementEntry.COLUMN_MOVEMENT_TIMESTAMP + comparison
+                + " AND " + StockMovementEntry._ID + " > " + lastMovementId, args);
+    }
+
+    /**
+     * Returns the units sold between the given times, by the given item or by all the items if it's null.
+     */
+    private long unitsSold(String itemId, long from, long to) {
+        if (itemId != null) {
+            long id = Long.parseLong(itemId);
+            return stockAt(id, to, true) - stockAt(id, from, true);
+        }
+        // Only the movements of the period are read, through the time index
+        String m = StockMovementEntry.TABLE_NAME;
+        return DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(), "SELECT IFNULL(" + soldUnits(m)
+                + ", 0) FROM " + m + " WHERE " + StockMovementEntry.COLUMN_MOVEMENT_TIMESTAMP + " >= ? AND "
+                + StockMovementEntry.COLUMN_MOVEMENT_TIMESTAMP + " < ?",
+                new String[]{String.valueOf(from), String.valueOf(to)});
+    }
+
+    /**
+     * Handle the provider specific methods {@link ItemContract#METHOD_ADJUST_QUANTITY},
+     * {@link ItemContract#METHOD_ADJUST_QUANTITIES},
+     * {@link ItemContract#METHOD_GET_NOTIFICATION_STATS}, {@link ItemContract#METHOD_GET_QUANTITY_AT},
+     * {@link ItemContract#METHOD_GET_UNITS_SOLD}, {@link ItemContract#METHOD_COMPACT_STOCK},
+     * {@link ItemContract#METHOD_GET_CACHE_STATS}, {@link ItemContract#METHOD_GET_METRICS},
+     * {@link ItemContract#METHOD_BACKUP} and {@link ItemContract#METHOD_RESTORE}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        long start = System.nanoTime();
+        Bundle result;
+        // A restore takes the write lock itself, the read lock can't be upgraded
+        boolean restore = ItemContract.METHOD_RESTORE.equals(method);
+        if (!restore) {
+            mDatabaseLock.readLock().lock();
+        }
+        try {
+            result = callMethod(method, arg, extras);
+        } finally {
+            if (!restore) {
+                mDatabaseLock.readLock().unlock();
+            }
+        }
+        // Only the methods of the provider are recorded, not any name a client passes
+        InventoryMetrics.Histogram callTime = mCallTimes.get(method);
+        if (result != null && callTime != null) {
+            callTime.recordSince(start);
+        }
+        return result;
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        if (ItemContract.METHOD_ADJUST_QUANTITY.equals(method)) {
+            if (arg == null || extras == null) {
+                throw new IllegalArgumentException("Adjusting the quantity requires an item ID and a delta");
+            }
+            long id = Long.parseLong(arg);
+            int delta = extras.getInt(ItemContract.EXTRA_QUANTITY_DELTA);
+            int reason = checkReason(extras.getInt(ItemContract.EXTRA_REASON,
+                    delta < 0 ? StockMovementEntry.REASON_SALE : StockMovementEntry.REASON_RESTOCK));
+            long locationId = extras.getLong(ItemContract.EXTRA_LOCATION_ID, LocationEntry.LOCATION_MAIN);
+
+            Bundle result = new Bundle();
+            adjustQuantity(id, locationId, delta, reason, result);
+            return result;
+        } else if (ItemContract.METHOD_ADJUST_QUANTITIES.equals(method)) {
+            long[] ids = extras == null ? null : extras.getLongArray(ItemContract.EXTRA_ITEM_IDS);
+            long[] locationIds = extras == null ? null : extras.getLongArray(ItemContract.EXTRA_LOCATION_IDS);
+            int[] deltas = extras == null ? null : extras.getIntArray(ItemContract.EXTRA_QUANTITY_DELTAS);
+            int[] reasons = extras == null ? null : extras.getIntArray(ItemContract.EXTRA_REASONS);
+            if (ids == null || locationIds == null || deltas == null || reasons == null
+                    || locationIds.length != ids.length || deltas.length != ids.length
+                    || reasons.length != ids.length) {
+                throw new IllegalArgumentException("Adjusting the quantities requires as many item IDs, "
+                        + "locations, deltas and reasons");
+            }
+            for (int reason : reasons) {
+                checkReason(reason);
+            }
+            return adjustQuantities(ids, locationIds, deltas, reasons);
+        } else if (ItemContract.METHOD_GET_NOTIFICATION_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(ItemContract.EXTRA_NOTIFICATIONS_SENT, mChangeNotifier.getSentCount());
+            result.putLong(ItemContract.EXTRA_NOTIFICATIONS_SUPPRESSED, mChangeNotifier.getSuppressedCount());
+            return result;
+        } else if (ItemContract.METHOD_GET_QUANTITY_AT.equals(method)) {
+            if (arg == null || extras == null || !extras.containsKey(ItemContract.EXTRA_TIMESTAMP)) {
+                throw new IllegalArgumentException("The quantity at a time requires an item ID and a timestamp");
+            }
+            Bundle result = new Bundle();
+            result.putInt(ItemContract.EXTRA_QUANTITY,
+                    (int) stockAt(Long.parseLong(arg), extras.getLong(ItemContract.EXTRA_TIMESTAMP), false));
+            return result;
+        } else if (ItemContract.METHOD_GET_UNITS_SOLD.equals(method)) {
+            if (extras == null || !extras.containsKey(ItemContract.EXTRA_FROM_TIMESTAMP)
+                    || !extras.containsKey(ItemContract.EXTRA_TO_TIMESTAMP)) {
+                throw new IllegalArgumentException("The units sold require the start and the end of the period");
+            }
+            Bundle result = new Bundle();
+            result.putLong(ItemContract.EXTRA_UNITS_SOLD, unitsSold(arg,
+                    extras.getLong(ItemContract.EXTRA_FROM_TIMESTAMP), extras.getLong(ItemContract.EXTRA_TO_TIMESTAMP)));
+            return result;
+        } else if (ItemContract.METHOD_COMPACT_STOCK.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(ItemContract.EXTRA_SNAPSHOT_COUNT, compactStock());
+            return result;
+        } else if (ItemContract.METHOD_GET_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(ItemContract.EXTRA_CACHE_HITS, mItemCache.getHitCount());
+            result.putInt(ItemContract.EXTRA_CACHE_MISSES, mItemCache.getMissCount());
+            result.putInt(ItemContract.EXTRA_CACHE_EVICTIONS, mItemCache.getEvictionCount());
+            result.putInt(ItemContract.EXTRA_CACHE_SIZE, mItemCache.getSize());
+            return result;
+        } else if (ItemContract.METHOD_GET_METRICS.equals(method)) {
+            Bundle result = mMetrics.toBundle();
+            if (extras != null && extras.getBoolean(ItemContract.EXTRA_METRICS_RESET)) {
+                mMetrics.reset();
+            }
+            return result;
+        } else if (ItemContract.METHOD_GET_SYNC_CHANGES.equals(method)) {
+            int limit = extras == null ? DEFAULT_SYNC_LIMIT
+                    : extras.getInt(ItemContract.EXTRA_SYNC_LIMIT, DEFAULT_SYNC_LIMIT);
+            SQLiteDatabase database = mDbHelper.getReadableDatabase();
+            Bundle result = new Bundle();
+            result.putParcelableArrayList(ItemContract.EXTRA_SYNC_CHANGES, ItemSyncStore.readChanges(database, limit));
+            result.putString(ItemContract.EXTRA_SYNC_DEVICE_ID,
+                    ItemSyncStore.readState(database, ItemContract.ItemEntry.SYNC_STATE_DEVICE_ID));
+            result.putLong(ItemContract.EXTRA_SYNC_WATERMARK, Long.parseLong(
+                    ItemSyncStore.readState(database, ItemContract.ItemEntry.SYNC_STATE_PULL_WATERMARK)));
+            return result;
+        } else if (ItemContract.METHOD_ACK_SYNC_CHANGES.equals(method)
+                || ItemContract.METHOD_APPLY_SYNC_CHANGES.equals(method)) {
+            ArrayList<ContentValues> changes = extras == null ? null
+                    : extras.<ContentValues>getParcelableArrayList(ItemContract.EXTRA_SYNC_CHANGES);
+            if (changes == null) {
+                throw new IllegalArgumentException("The " + method + " requires the changes");
+            }
+            Bundle result = new Bundle();
+            if (ItemContract.METHOD_ACK_SYNC_CHANGES.equals(method)) {
+                // Only the sync columns change, nobody is notified
+                ItemSyncStore.acknowledge(mDbHelper.getWritableDatabase(), changes);
+            } else {
+                result.putInt(ItemContract.EXTRA_SYNC_APPLIED,
+                        applySyncChanges(changes, extras.getLong(ItemContract.EXTRA_SYNC_WATERMARK)));
+            }
+            return result;
+        } else if (ItemContract.METHOD_BACKUP.equals(method) || ItemContract.METHOD_RESTORE.equals(method)) {
+            ParcelFileDescriptor fileDescriptor = extras == null ? null
+                    : (ParcelFileDescriptor) extras.getParcelable(ItemContract.EXTRA_FILE_DESCRIPTOR);
+            if (fileDescriptor == null) {
+                throw new IllegalArgumentException("The " + method + " requires a file descriptor");
+            }
+            Bundle result = new Bundle();
+            try {
+                result.putString(ItemContract.EXTRA_CHECKSUM, ItemContract.METHOD_BACKUP.equals(method)
+                        ? backup(fileDescriptor) : restore(fileDescriptor));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("The " + method + " has failed: " + e.getMessage(), e);
+            }
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private static int checkReason(int reason) {
+        if (!StockMovementEntry.isValidReason(reason)) {
+            throw new IllegalArgumentException("Invalid stock movement reason " + reason);
+        }
+        return reason;
+    }
+
+    /**
+     * Add the given delta to the stock of a single item at a location inside the database, so
+     * concurrent sales can't overwrite each other with a stale value read by the UI, and record it
+     * in the stock ledger with the given reason. The triggers of the stock levels add the delta to
+     * the total quantity of the item, the one shown by the list.
+     * Put the new total quantity in the result, or -1 if the item doesn't exist or the stock at the
+     * location would drop below 0, and whether the item is now below its reorder threshold.
+     */
+    private void adjustQuantity(long id, long locationId, int delta, int reason, Bundle result) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int quantity;
+        boolean lowStock = false;
+        database.beginTransaction();
+        try {
+            ItemStatements statements = getStatements(database);
+            quantity = adjustStock(statements, id, locationId, delta, reason);
+            if (quantity != -1) {
+                lowStock = isLowStock(statements, id);
+                // Cached while the write transaction is held, so the adjustments of other threads
+                // update the cache in the order they commit
+                mItemCache.update(id, ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY, (long) quantity);
+            }
+            database.setTransactionSuccessful();
+        } catch (SQLiteConstraintException e) {
+            // The foreign key of the new stock level
+            throw new IllegalArgumentException("Unknown location " + locationId, e);
+        } finally {
+            database.endTransaction();
+        }
+
+        // Notify all listeners that the data of this item has been changed
+        if (quantity != -1) {
+            onMovementsRecorded(1);
+            notifyChange(ContentUris.withAppendedId(ItemContract.ItemEntry.CONTENT_URI, id));
+        }
+        result.putInt(ItemContract.EXTRA_QUANTITY, quantity);
+        result.putBoolean(ItemContract.EXTRA_LOW_STOCK, lowStock);
+    }
+
+    /**
+     * Apply several quantity adjustments like {@link #adjustQuantity} in a single transaction, so a
+     * burst of sales is committed at once. An adjustment refused by the floor of the stock or an
+     * unknown location gets -1 and the others are still applied.
+     */
+    private Bundle adjustQuantities(long[] ids, long[] locationIds, int[] deltas, int[] reasons) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int[] quantities = new int[ids.length];
+        boolean[] lowStocks = new boolean[ids.length];
+        int adjusted = 0;
+        database.beginTransaction();
+        try {
+            ItemStatements statements = getStatements(database);
+            for (int i = 0; i < ids.length; i++) {
+                try {
+                    quantities[i] = adjustStock(statements, ids[i], locationIds[i], deltas[i], reasons[i]);
+                } catch (SQLiteConstraintException e) {
+                    // Only the failed statement is rolled back, not the transaction
+                    quantities[i] = -1;
+                }
+                if (quantities[i] != -1) {
+                    lowStocks[i] = isLowStock(statements, ids[i]);
+                    // Cached while the write transaction is held, like adjustQuantity does
+                    mItemCache.update(ids[i], ItemContract.ItemEntry.COLUMN_ITEM_QUANTITY, (long) quantities[i]);
+                    adjusted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            if (quantities[i] != -1) {
+                notifyChange(ContentUris.withAppendedId(ItemContract.ItemEntry.CONTENT_URI, ids[i]));
+            }
+        }
+        onMovementsRecorded(adjusted);
+
+        Bundle result = new Bundle();
+        result.putIntArray(ItemContract.EXTRA_QUANTITIES, quantities);
+        result.putBooleanArray(ItemContract.EXTRA_LOW_STOCKS, lowStocks);
+        return result;
+    }
+
+    /**
+     * Add the delta to the stock of the item at the location and record it in the stock ledger,
+     * inside the write transaction of the caller. Return the new total quantity of the item, or -1
+     * if the item doesn't exist or the stock would drop below 0.
+     */
+    private static int adjustStock(ItemStatements statements, long id, long locationId, int delta, int reason) {
+        // The floor check is part of the WHERE clause, so reading, checking and writing the
+        // stock happen in the same statement.
+        SQLiteStatement adjust = statements.adjustStock();
+        adjust.bindLong(1, delta);
+        adjust.bindLong(2, id);
+        adjust.bindLong(3, locationId);
+        adjust.bindLong(4, delta);
+        boolean adjusted = adjust.executeUpdateDelete() == 1;
+        if (!adjusted && delta >= 0) {
+            // The first stock of the item at this location
+            SQLiteStatement insert = statements.insertStock();
+            insert.bindLong(1, locationId);
+            insert.bindLong(2, delta);
+            insert.bindLong(3, id);
+            adjusted = insert.executeUpdateDelete() == 1;
+        }
+        if (!adjusted) {
+            return -1;
+        }
+        if (delta != 0) {
+            recordMovement(statements.recordMovement(), id, delta, reason, System.currentTimeMillis(), locationId);
+        }
+        // Still inside the write transaction, so no other writer can change it meanwhile.
+        SQLiteStatement select = statements.selectQuantity();
+        select.bindLong(1, id);
+        return (int) select.simpleQueryForLong();
+    }
+
+    /** Returns whether the item is below its reorder threshold, the low stock triggers have already run. */
+    private static boolean isLowStock(ItemStatements statements, long id) {
+        SQLiteStatement isLow = statements.isLowStock();
+        isLow.bindLong(1, id);
+        return isLow.simpleQueryForLong() != 0;
+    }
+
+    /**
+     * Replay a batch of changes pulled from the sync server, see {@link ItemSyncStore#apply}, then
+     * notify the listeners of the items once for the whole batch. Return the number of items written.
+     */
+    private int applySyncChanges(ArrayList<ContentValues> changes, long watermark) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int applied;
+        try {
+            applied = ItemSyncStore.apply(database, getStatements(database), changes, watermark);
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Invalid synced item: " + e.getMessage(), e);
+        } finally {
+            // Any cached item may have been replaced
+            mItemCache.clear();
+        }
+        if (applied != 0) {
+            // Each change records at most one stock movement
+            onMovementsRecorded(applied);
+            notifyChange(ItemContract.ItemEntry.CONTENT_URI);
+        }
+        return applied;
+    }
+
+    /**
+     * Write a consistent copy of the database to a staging file next to it, then compress it to the
+     * file descriptor. The writers are only blocked while the copy is made, not while it's compressed.
+     * Return the checksum of the database.
+     */
+    private String backup(ParcelFileDescriptor fileDescriptor) throws IOException {
+        File liveFile = getContext().getDatabasePath(ItemDbHelper.DATABASE_NAME);
+        File stagingFile = new File(liveFile.getPath() + ".backup");
+        synchronized (mBackupLock) {
+            try {
+                InventoryBackup.snapshot(mDbHelper.getWritableDatabase(), liveFile, stagingFile);
+                FileOutputStream out = new FileOutputStream(fileDescriptor.getFileDescriptor());
+                try {
+                    return InventoryBackup.compress(stagingFile, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                InventoryBackup.deleteDatabaseFiles(stagingFile);
+            }
+        }
+    }
+
+    /**
+     * Extract and check the backup to a staging file next to the database, then close the database,
+     * swap the files with a rename and open the restored database, upgrading it if it comes from an
+     * older version. Return the checksum of the restored database.
+     */
+    private String restore(ParcelFileDescriptor fileDescriptor) throws IOException {
+        File liveFile = getContext().getDatabasePath(ItemDbHelper.DATABASE_NAME);
+        File stagingFile = new File(liveFile.getPath() + ".restore");
+        String checksum;
+        synchronized (mBackupLock) {
+            try {
+                FileInputStream in = new FileInputStream(fileDescriptor.getFileDescriptor());
+                try {
+                    checksum = InventoryBackup.extract(in, stagingFile);
+                } finally {
+                    in.close();
+                }
+                InventoryBackup.checkDatabase(stagingFile);
+
+                // Closing the last connection checkpoints the write-ahead log, the log and shared memory
+                // files are then deleted first so they can't be applied to the restored database.
+                // The write lock waits for the running operations and holds the new ones until the
+                // restored database is open.
+                mDatabaseLock.writeLock().lock();
+                try {
+                    // The compiled statements hold a reference to the old database
+                    ItemStatements oldStatements = mStatements;
+                    mStatements = null;
+                    if (oldStatements != null) {
+                        oldStatements.close();
+                    }
+                    mDbHelper.close();
+                    new File(liveFile.getPath() + "-wal").delete();
+                    new File(liveFile.getPath() + "-shm").delete();
+                    new File(liveFile.getPath() + "-journal").delete();
+                    if (!stagingFile.renameTo(liveFile)) {
+                        throw new IOException("The restored database can't replace the current one");
+                    }
+                    mDbHelper = new ItemDbHelper(getContext());
+                    // The restored sync state belongs to the device as it was when backed up
+                    ItemSyncStore.resetDevice(mDbHelper.getWritableDatabase());
+                    mMovementsSinceSnapshot.set(0);
+                    mItemCache.clear();
+                } finally {
+                    mDatabaseLock.writeLock().unlock();
+                }
+            } finally {
+                InventoryBackup.deleteDatabaseFiles(stagingFile);
+            }
+        }
+        // Every item may have changed
+        notifyChange(ItemContract.ItemEntry.CONTENT_URI);
+        mChangeNotifier.flush();
+        return checksum;
+    }
+
+    /**
+     * Print the metrics of the process and the counters of the notifications and of the item cache,
+     * for {@code adb shell dumpsys activity provider ItemProvider}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        writer.println("notifications sent=" + mChangeNotifier.getSentCount()
+                + " suppressed=" + mChangeNotifier.getSuppressedCount());
+        writer.println("item_cache hits=" + mItemCache.getHitCount() + " misses=" + mItemCache.getMissCount()
+                + " evictions=" + mItemCache.getEvictionCount() + " size=" + mItemCache.getSize());
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -297,11 +1762,53 @@ public class ItemProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEMS:
+            case ITEMS_SEARCH:
+            case ITEMS_LOW_STOCK:
                 return ItemContract.ItemEntry.CONTENT_LIST_TYPE;
             case ITEM_ID:
                 return ItemContract.ItemEntry.CONTENT_ITEM_TYPE;
+            case STOCK_MOVEMENTS:
+                return StockMovementEntry.CONTENT_LIST_TYPE;
+            case ITEMS_STATS:
+                return ItemStatsEntry.CONTENT_LIST_TYPE;
+            case IMPORTS:
+                return ImportEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case LOCATIONS:
+                return LocationEntry.CONTENT_LIST_TYPE;
+            case LOCATION_ID:
+                return LocationEntry.CONTENT_ITEM_TYPE;
+            case STOCK_LEVELS:
+                return StockLevelEntry.CONTENT_LIST_TYPE;
+            case STOCK_LEVEL_ID:
+                return StockLevelEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
+
+    /** Histograms of the operations on the URIs of one match code, named after the pattern. */
+    private static final class UriMetrics {
+
+        final InventoryMetrics.Histogram mQuery;
+        final InventoryMetrics.Histogram mQueryFill;
+        final InventoryMetrics.Histogram mQueryRows;
+        final InventoryMetrics.Histogram mQueryWindowRows;
+        final InventoryMetrics.Histogram mInsert;
+        final InventoryMetrics.Histogram mUpdate;
+        final InventoryMetrics.Histogram mDelete;
+
+        UriMetrics(InventoryMetrics metrics, String name) {
+            mQuery = metrics.histogram("query." + name + "_us");
+            mQueryFill = metrics.histogram("query." + name + "_fill_us");
+            mQueryRows = metrics.histogram("query." + name + "_rows");
+            mQueryWindowRows = metrics.histogram("query." + name + "_window_rows");
+            mInsert = metrics.histogram("insert." + name + "_us");
+            mUpdate = metrics.histogram("update." + name + "_us");
+            mDelete = metrics.histogram("delete." + name + "_us");
+        }
+    }
 }
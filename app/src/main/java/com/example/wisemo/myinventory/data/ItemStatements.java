@@ -0,0 +1,246 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+import com.example.wisemo.myinventory.data.ItemContract.StockLevelEntry;
+import com.example.wisemo.myinventory.data.ItemContract.StockMovementEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ItemStatements} keeps the compiled statements of the frequent writes of the {@link ItemProvider}
+ * for one database, so they are compiled once and then only bound and run. Each statement is compiled
+ * the first time it's used.
+ * The statements must only be used inside a write transaction of their database: SQLite lets a single
+ * thread hold it, so no two threads bind the same statement at once.
+ */
+final class ItemStatements {
+
+    /** Number of insert statements kept, one per set of columns inserted */
+    private static final int MAX_INSERT_SHAPES = 8;
+
+    private final SQLiteDatabase mDatabase;
+
+    /** Insert statements keyed by their column list, the least recently used is closed first */
+    private final Map<String, SQLiteStatement> mInserts =
+            new LinkedHashMap<String, SQLiteStatement>(MAX_INSERT_SHAPES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() > MAX_INSERT_SHAPES) {
+                        eldest.getValue().close();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    private SQLiteStatement mUpdateQuantity;
+    private SQLiteStatement mRecordQuantityOverwrite;
+    private SQLiteStatement mAdjustStock;
+    private SQLiteStatement mInsertStock;
+    private SQLiteStatement mSelectQuantity;
+    private SQLiteStatement mIsLowStock;
+    private SQLiteStatement mDelete;
+    private SQLiteStatement mRecordMovement;
+    private SQLiteStatement mInsertCounter;
+    private SQLiteStatement mMergeCounter;
+
+    ItemStatements(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /** Returns whether the statements belong to the given database. */
+    boolean isFor(SQLiteDatabase database) {
+        return mDatabase == database;
+    }
+
+    /**
+     * Returns the statement inserting an item with the columns of the given values, bound to them.
+     * The items inserted by the editor and by an import have the same few sets of columns.
+     */
+    SQLiteStatement bindInsert(ContentValues values) {
+        List<String> columns = new ArrayList<>(values.keySet());
+        Collections.sort(columns);
+        String columnList = TextUtils.join(", ", columns);
+        SQLiteStatement insert = mInserts.get(columnList);
+        if (insert == null) {
+            String[] placeholders = new String[columns.size()];
+            Arrays.fill(placeholders, "?");
+            insert = mDatabase.compileStatement("INSERT INTO " + ItemEntry.TABLE_NAME
+                    + " (" + columnList + ") VALUES (" + TextUtils.join(", ", placeholders) + ")");
+            mInserts.put(columnList, insert);
+        }
+
+        insert.clearBindings();
+        for (int i = 0; i < columns.size(); i++) {
+            DatabaseUtils.bindObjectToProgram(insert, i + 1, values.get(columns.get(i)));
+        }
+        return insert;
+    }
+
+    /** Returns the statement setting the quantity (1) of the item with the ID (2). */
+    SQLiteStatement updateQuantity() {
+        if (mUpdateQuantity == null) {
+            mUpdateQuantity = mDatabase.compileStatement("UPDATE " + ItemEntry.TABLE_NAME
+                    + " SET " + ItemEntry.COLUMN_ITEM_QUANTITY + " = ?"
+                    + " WHERE " + ItemEntry._ID + " = ?");
+        }
+        return mUpdateQuantity;
+    }
+
+    /**
+     * Returns the statement recording the overwrite of the quantity of the item with the ID (4) with
+     * the quantity (1 and 3) as an adjustment at the time (2), if the quantity changes.
+     */
+    SQLiteStatement recordQuantityOverwrite() {
+        if (mRecordQuantityOverwrite == null) {
+            mRecordQuantityOverwrite = mDatabase.compileStatement("INSERT INTO " + StockMovementEntry.TABLE_NAME
+                    + " (" + StockMovementEntry.COLUMN_MOVEMENT_ITEM_ID + ", " + StockMovementEntry.COLUMN_MOVEMENT_DELTA
+                    + ", " + StockMovementEntry.COLUMN_MOVEMENT_REASON + ", " + StockMovementEntry.COLUMN_MOVEMENT_TIMESTAMP
+                    + ") SELECT " + ItemEntry._ID + ", ? - " + ItemEntry.COLUMN_ITEM_QUANTITY
+                    + ", " + StockMovementEntry.REASON_ADJUSTMENT + ", ? FROM " + ItemEntry.TABLE_NAME
+                    + " WHERE " + ItemEntry.COLUMN_ITEM_QUANTITY + " <> ? AND " + ItemEntry._ID + " = ?");
+        }
+        return mRecordQuantityOverwrite;
+    }
+
+    /**
+     * Returns the statement adding the delta (1 and 4) to the stock of the item with the ID (2) at the
+     * location with the ID (3), unless the stock would drop below 0. The triggers of the stock levels
+     * write the new total to the item.
+     */
+    SQLiteStatement adjustStock() {
+        if (mAdjustStock == null) {
+            // The floor check is part of the WHERE clause, so reading, checking and writing the
+            // quantity happen in the same statement.
+            mAdjustStock = mDatabase.compileStatement("UPDATE " + StockLevelEntry.TABLE_NAME
+                    + " SET " + StockLevelEntry.COLUMN_STOCK_QUANTITY + " = " + StockLevelEntry.COLUMN_STOCK_QUANTITY + " + ?"
+                    + " WHERE " + StockLevelEntry.COLUMN_STOCK_ITEM_ID + " = ?"
+                    + " AND " + StockLevelEntry.COLUMN_STOCK_LOCATION_ID + " = ?"
+                    + " AND " + StockLevelEntry.COLUMN_STOCK_QUANTITY + " + ? >= 0");
+        }
+        return mAdjustStock;
+    }
+
+    /**
+     * Returns the statement creating the stock of the item with the ID (3) at the location with the
+     * ID (1) with the quantity (2), if the item exists. Run it with executeUpdateDelete(), which
+     * returns 0 when there's no such item.
+     */
+    SQLiteStatement insertStock() {
+        if (mInsertStock == null) {
+            mInsertStock = mDatabase.compileStatement("INSERT INTO " + StockLevelEntry.TABLE_NAME
+                    + " (" + StockLevelEntry.COLUMN_STOCK_ITEM_ID + ", " + StockLevelEntry.COLUMN_STOCK_LOCATION_ID
+                    + ", " + StockLevelEntry.COLUMN_STOCK_QUANTITY + ") SELECT " + ItemEntry._ID + ", ?, ? FROM "
+                    + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry._ID + " = ?");
+        }
+        return mInsertStock;
+    }
+
+    /** Returns the statement reading the quantity of the item with the ID (1). */
+    SQLiteStatement selectQuantity() {
+        if (mSelectQuantity == null) {
+            mSelectQuantity = mDatabase.compileStatement("SELECT " + ItemEntry.COLUMN_ITEM_QUANTITY
+                    + " FROM " + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry._ID + " = ?");
+        }
+        return mSelectQuantity;
+    }
+
+    /** Returns the statement counting the low stock rows (0 or 1) of the item with the ID (1). */
+    SQLiteStatement isLowStock() {
+        if (mIsLowStock == null) {
+            mIsLowStock = mDatabase.compileStatement("SELECT COUNT(*) FROM " + ItemEntry.LOW_STOCK_TABLE_NAME
+                    + " WHERE " + ItemEntry.COLUMN_LOW_STOCK_ITEM_ID + " = ?");
+        }
+        return mIsLowStock;
+    }
+
+    /** Returns the statement deleting the item with the ID (1). */
+    SQLiteStatement delete() {
+        if (mDelete == null) {
+            mDelete = mDatabase.compileStatement("DELETE FROM " + ItemEntry.TABLE_NAME
+                    + " WHERE " + ItemEntry._ID + " = ?");
+        }
+        return mDelete;
+    }
+
+    /**
+     * Returns the statement appending a movement of the item with the ID (1) to the stock ledger,
+     * with the delta (2), the reason (3), the time (4) and the ID of the location (5).
+     */
+    SQLiteStatement recordMovement() {
+        if (mRecordMovement == null) {
+            mRecordMovement = mDatabase.compileStatement("INSERT INTO " + StockMovementEntry.TABLE_NAME + " ("
+                    + StockMovementEntry.COLUMN_MOVEMENT_ITEM_ID + ", " + StockMovementEntry.COLUMN_MOVEMENT_DELTA + ", "
+                    + StockMovementEntry.COLUMN_MOVEMENT_REASON + ", " + StockMovementEntry.COLUMN_MOVEMENT_TIMESTAMP
+                    + ", " + StockMovementEntry.COLUMN_MOVEMENT_LOCATION_ID + ") VALUES (?, ?, ?, ?, ?)");
+        }
+        return mRecordMovement;
+    }
+
+    /**
+     * Returns the statement creating the empty quantity counter of the item with the sync ID (1) and
+     * the device with the ID (2), if it doesn't exist yet.
+     */
+    SQLiteStatement insertCounter() {
+        if (mInsertCounter == null) {
+            mInsertCounter = mDatabase.compileStatement("INSERT OR IGNORE INTO " + ItemEntry.COUNTER_TABLE_NAME
+                    + " (" + ItemEntry.COLUMN_COUNTER_SYNC_ID + ", " + ItemEntry.COLUMN_COUNTER_DEVICE_ID
+                    + ") VALUES (?, ?)");
+        }
+        return mInsertCounter;
+    }
+
+    /**
+     * Returns the statement merging the increments (1) and decrements (2) of a copy of the quantity
+     * counter of the item with the sync ID (3) and the device with the ID (4), keeping the highest of
+     * each, if they change anything.
+     */
+    SQLiteStatement mergeCounter() {
+        if (mMergeCounter == null) {
+            mMergeCounter = mDatabase.compileStatement("UPDATE " + ItemEntry.COUNTER_TABLE_NAME + " SET "
+                    + ItemEntry.COLUMN_COUNTER_INCREMENTS + " = MAX(" + ItemEntry.COLUMN_COUNTER_INCREMENTS + ", ?1), "
+                    + ItemEntry.COLUMN_COUNTER_DECREMENTS + " = MAX(" + ItemEntry.COLUMN_COUNTER_DECREMENTS + ", ?2)"
+                    + " WHERE " + ItemEntry.COLUMN_COUNTER_SYNC_ID + " = ?3 AND " + ItemEntry.COLUMN_COUNTER_DEVICE_ID
+                    + " = ?4 AND (" + ItemEntry.COLUMN_COUNTER_INCREMENTS + " < ?1 OR "
+                    + ItemEntry.COLUMN_COUNTER_DECREMENTS + " < ?2)");
+        }
+        return mMergeCounter;
+    }
+
+    /** Close all the statements, releasing their database. */
+    void close() {
+        for (SQLiteStatement insert : mInserts.values()) {
+            insert.close();
+        }
+        mInserts.clear();
+        SQLiteStatement[] statements = {mUpdateQuantity, mRecordQuantityOverwrite, mAdjustStock,
+                mInsertStock, mSelectQuantity, mIsLowStock, mDelete, mRecordMovement, mInsertCounter,
+                mMergeCounter};
+        for (SQLiteStatement statement : statements) {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+        mUpdateQuantity = null;
+        mRecordQuantityOverwrite = null;
+        mAdjustStock = null;
+        mInsertStock = null;
+        mSelectQuantity = null;
+        mIsLowStock = null;
+        mDelete = null;
+        mRecordMovement = null;
+        mInsertCounter = null;
+        mMergeCounter = null;
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link ItemSyncEngine} syncs the items of the {@link ItemProvider} both ways with an inventory
+ * server, only sending and receiving the changes made since the last sync:
+ * <ul>
+ * <li>push: the items changed or deleted on this device are posted to {@code /items/changes} in batches
+ * of {@link #BATCH_SIZE}, then marked as synced.</li>
+ * <li>pull: the changes of the other devices after the stored watermark are read from
+ * {@code /items/changes?since=} in batches, each one replayed in a single transaction with its new
+ * watermark.</li>
+ * </ul>
+ * The server keeps the latest version of every item and a log of the changes ordered by its watermark.
+ * The bodies are JSON objects compressed with gzip, the changes hold the {@link ItemEntry#SYNC_COLUMNS}
+ * of an item or the {@link ItemEntry#SYNC_COUNTER_COLUMNS} of a quantity counter. The server merges the
+ * counters of an item by keeping the highest units of each device, whichever change of the item wins.
+ * The sync runs on the calling thread, which must not be the main thread.
+ */
+public final class ItemSyncEngine {
+
+    /** Number of changes pushed or pulled per request, and so per transaction */
+    private static final int BATCH_SIZE = 500;
+
+    private static final int TIMEOUT_MILLIS = 15000;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** Outcome of a sync. */
+    public static final class Result {
+        /** The number of local changes pushed to the server */
+        public final int pushed;
+        /** The number of changes of the other devices pulled from the server */
+        public final int pulled;
+        /**
+         * The number of items and counters written by the pulled changes, the others were already
+         * up to date
+         */
+        public final int applied;
+
+        Result(int pushed, int pulled, int applied) {
+            this.pushed = pushed;
+            this.pulled = pulled;
+            this.applied = applied;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final String mServerUrl;
+    private final InventoryMetrics mMetrics = InventoryMetrics.getInstance();
+
+    /**
+     * @param contentResolver The resolver used to read and write the items.
+     * @param serverUrl       The base URL of the inventory server, like {@code http://10.0.2.2:8080}.
+     */
+    public ItemSyncEngine(ContentResolver contentResolver, String serverUrl) {
+        mContentResolver = contentResolver;
+        mServerUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+    }
+
+    /**
+     * Push the local changes, then pull the changes of the other devices. Pushing first lets the
+     * server settle the conflicts with the changes of this device before they are pulled.
+     */
+    public Result sync() throws IOException {
+        long start = System.nanoTime();
+        try {
+            Bundle limit = new Bundle();
+            limit.putInt(ItemContract.EXTRA_SYNC_LIMIT, BATCH_SIZE);
+
+            int pushed = 0;
+            Bundle local;
+            while (true) {
+                local = call(ItemContract.METHOD_GET_SYNC_CHANGES, limit);
+                ArrayList<ContentValues> changes = local.getParcelableArrayList(ItemContract.EXTRA_SYNC_CHANGES);
+                if (changes == null || changes.isEmpty()) {
+                    break;
+                }
+                JSONObject body = new JSONObject();
+                body.put("device", local.getString(ItemContract.EXTRA_SYNC_DEVICE_ID));
+                body.put("changes", toJson(changes));
+                request("POST", mServerUrl + "/items/changes", body);
+
+                Bundle pushedChanges = new Bundle();
+                pushedChanges.putParcelableArrayList(ItemContract.EXTRA_SYNC_CHANGES, changes);
+                call(ItemContract.METHOD_ACK_SYNC_CHANGES, pushedChanges);
+                pushed += changes.size();
+                if (changes.size() < BATCH_SIZE) {
+                    break;
+                }
+            }
+
+            // The server leaves out the changes of this device, which the items already hold
+            String device = URLEncoder.encode(local.getString(ItemContract.EXTRA_SYNC_DEVICE_ID), "UTF-8");
+            long watermark = local.getLong(ItemContract.EXTRA_SYNC_WATERMARK);
+            int pulled = 0;
+            int applied = 0;
+            while (true) {
+                JSONObject response = request("GET", mServerUrl + "/items/changes?since=" + watermark
+                        + "&limit=" + BATCH_SIZE + "&device=" + device, null);
+                JSONArray changes = response.getJSONArray("changes");
+                long nextWatermark = response.getLong("watermark");
+                if (changes.length() == 0 && nextWatermark == watermark) {
+                    break;
+                }
+                Bundle pulledChanges = new Bundle();
+                pulledChanges.putParcelableArrayList(ItemContract.EXTRA_SYNC_CHANGES, fromJson(changes));
+                pulledChanges.putLong(ItemContract.EXTRA_SYNC_WATERMARK, nextWatermark);
+                applied += call(ItemContract.METHOD_APPLY_SYNC_CHANGES, pulledChanges)
+                        .getInt(ItemContract.EXTRA_SYNC_APPLIED);
+                pulled += changes.length();
+                watermark = nextWatermark;
+                if (!response.optBoolean("more")) {
+                    break;
+                }
+            }
+
+            mMetrics.histogram("sync.pushed_rows").record(pushed);
+            mMetrics.histogram("sync.pulled_rows").record(pulled);
+            return new Result(pushed, pulled, applied);
+        } catch (JSONException e) {
+            throw new IOException("Invalid response of the sync server", e);
+        } finally {
+            mMetrics.histogram("sync_us").recordSince(start);
+        }
+    }
+
+    private Bundle call(String method, Bundle extras) {
+        Bundle result = mContentResolver.call(ItemEntry.CONTENT_URI, method, null, extras);
+        if (result == null) {
+            throw new IllegalStateException("The provider doesn't support " + method);
+        }
+        return result;
+    }
+
+    /**
+     * Send a request to the server, with the given body compressed if it's not null, and return
+     * the JSON object of its response.
+     */
+    private static JSONObject request(String method, String url, JSONObject body) throws IOException, JSONException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            // Set by hand, the response isn't decompressed by the connection
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+                connection.setRequestProperty("Content-Encoding", "gzip");
+                OutputStream output = new GZIPOutputStream(connection.getOutputStream());
+                try {
+                    output.write(body.toString().getBytes("UTF-8"));
+                } finally {
+                    output.close();
+                }
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("The sync server returned " + status + " for " + method + " " + url);
+            }
+            InputStream input = connection.getInputStream();
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                input = new GZIPInputStream(input);
+            }
+            try {
+                return new JSONObject(readString(input));
+            } finally {
+                input.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String readString(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toString("UTF-8");
+    }
+
+    /** Returns the changes as a JSON array, with the sync columns and the deletion flag of each one. */
+    private static JSONArray toJson(List<ContentValues> changes) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (ContentValues change : changes) {
+            JSONObject object = new JSONObject();
+            for (String column : columnsOf(change.containsKey(ItemEntry.COLUMN_COUNTER_DEVICE_ID))) {
+                if (change.containsKey(column)) {
+                    object.put(column, change.get(column));
+                }
+            }
+            Boolean deleted = change.getAsBoolean(ItemEntry.SYNC_DELETED);
+            if (deleted != null && deleted) {
+                object.put(ItemEntry.SYNC_DELETED, true);
+            }
+            array.put(object);
+        }
+        return array;
+    }
+
+    /**
+     * Returns the changes of the JSON array, only keeping the sync columns and the deletion flag of
+     * the items, and the units of the counters.
+     */
+    private static ArrayList<ContentValues> fromJson(JSONArray array) throws JSONException {
+        ArrayList<ContentValues> changes = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject object = array.getJSONObject(i);
+            ContentValues change = new ContentValues();
+            boolean counter = object.has(ItemEntry.COLUMN_COUNTER_DEVICE_ID);
+            for (String column : columnsOf(counter)) {
+                if (object.isNull(column)) {
+                    continue;
+                }
+                Object value = object.get(column);
+                if (value instanceof Number) {
+                    change.put(column, ((Number) value).longValue());
+                } else {
+                    change.put(column, value.toString());
+                }
+            }
+            if (counter) {
+                if (change.size() != ItemEntry.SYNC_COUNTER_COLUMNS.length
+                        || change.getAsLong(ItemEntry.COLUMN_COUNTER_INCREMENTS) < 0
+                        || change.getAsLong(ItemEntry.COLUMN_COUNTER_DECREMENTS) < 0) {
+                    throw new JSONException("A counter requires its item, device and units");
+                }
+                changes.add(change);
+                continue;
+            }
+            if (!change.containsKey(ItemEntry.COLUMN_ITEM_SYNC_ID) || !change.containsKey(ItemEntry.COLUMN_ITEM_VERSION)
+                    || !change.containsKey(ItemEntry.COLUMN_ITEM_UPDATED_AT)) {
+                throw new JSONException("A change requires the sync ID, version and time of the item");
+            }
+            change.put(ItemEntry.SYNC_DELETED, object.optBoolean(ItemEntry.SYNC_DELETED));
+            changes.add(change);
+        }
+        return changes;
+    }
+
+    private static String[] columnsOf(boolean counter) {
+        return counter ? ItemEntry.SYNC_COUNTER_COLUMNS : ItemEntry.SYNC_COLUMNS;
+    }
+}
@@ -0,0 +1,380 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+import com.example.wisemo.myinventory.data.ItemContract.LocationEntry;
+import com.example.wisemo.myinventory.data.ItemContract.StockLevelEntry;
+import com.example.wisemo.myinventory.data.ItemContract.StockMovementEntry;
+import com.example.wisemo.myinventory.data.ItemContract.SupplierEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Database side of the sync of the items, run by the {@link ItemProvider} which owns the database:
+ * it reads the local changes to push, marks them as pushed and replays the changes pulled from the
+ * sync server. The changed items are found with the index of their dirty flag and the pulled ones
+ * with the index of their sync ID, so a sync reads and writes as many rows as there are changes,
+ * whatever the number of items.
+ * The quantities are synced as counters of the units added and removed by each device, which merge
+ * by keeping the highest of each: merging the same counters again or in another order gives the same
+ * quantity, so no sale made on two devices at once is lost and the batches need no ordering.
+ */
+final class ItemSyncStore {
+
+    /** SQL expression of the quantity of the counters of the item with the sync ID ?1 */
+    private static final String MERGED_QUANTITY = "(SELECT IFNULL(SUM(" + ItemEntry.COLUMN_COUNTER_INCREMENTS
+            + " - " + ItemEntry.COLUMN_COUNTER_DECREMENTS + "), 0) FROM " + ItemEntry.COUNTER_TABLE_NAME
+            + " WHERE " + ItemEntry.COLUMN_COUNTER_SYNC_ID + " = ?1)";
+
+    private ItemSyncStore() {
+    }
+
+    /** Returns the value of the sync state with the given key, one of the SYNC_STATE keys. */
+    static String readState(SQLiteDatabase database, String key) {
+        return DatabaseUtils.stringForQuery(database, "SELECT " + ItemEntry.COLUMN_SYNC_STATE_VALUE + " FROM "
+                + ItemEntry.SYNC_STATE_TABLE_NAME + " WHERE " + ItemEntry.COLUMN_SYNC_STATE_KEY + " = ?",
+                new String[]{key});
+    }
+
+    /**
+     * Gives this device a new ID and pulls every change again, after a backup was restored. The restored
+     * counters of the device are older than the ones the server holds for its ID, so counting the next
+     * local movements on them would be lost to the merge; under the new ID they start from 0, and the
+     * old counters come back from the server with the other devices' ones.
+     */
+    static void resetDevice(SQLiteDatabase database) {
+        database.beginTransaction();
+        try {
+            database.execSQL("UPDATE " + ItemEntry.SYNC_STATE_TABLE_NAME + " SET "
+                    + ItemEntry.COLUMN_SYNC_STATE_VALUE + " = " + ItemDbHelper.NEW_SYNC_ID + " WHERE "
+                    + ItemEntry.COLUMN_SYNC_STATE_KEY + " = ?",
+                    new Object[]{ItemEntry.SYNC_STATE_DEVICE_ID});
+            database.execSQL("UPDATE " + ItemEntry.SYNC_STATE_TABLE_NAME + " SET "
+                    + ItemEntry.COLUMN_SYNC_STATE_VALUE + " = 0 WHERE " + ItemEntry.COLUMN_SYNC_STATE_KEY + " = ?",
+                    new Object[]{ItemEntry.SYNC_STATE_PULL_WATERMARK});
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns at most the given number of local changes not pushed yet: the dirty items first,
+     * then the tombstones of the deleted items, then the dirty quantity counters.
+     */
+    static ArrayList<ContentValues> readChanges(SQLiteDatabase database, int limit) {
+        ArrayList<ContentValues> changes = new ArrayList<>();
+        Cursor cursor = database.query(ItemEntry.TABLE_NAME, ItemEntry.SYNC_COLUMNS,
+                ItemEntry.COLUMN_ITEM_DIRTY + " = 1", null, null, null, null, String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(readRow(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (changes.size() == limit) {
+            return changes;
+        }
+
+        cursor = database.query(ItemEntry.TOMBSTONE_TABLE_NAME, new String[]{
+                        ItemEntry.COLUMN_TOMBSTONE_SYNC_ID,
+                        ItemEntry.COLUMN_TOMBSTONE_VERSION,
+                        ItemEntry.COLUMN_TOMBSTONE_DELETED_AT},
+                null, null, null, null, null, String.valueOf(limit - changes.size()));
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues values = new ContentValues();
+                values.put(ItemEntry.COLUMN_ITEM_SYNC_ID, cursor.getString(0));
+                values.put(ItemEntry.COLUMN_ITEM_VERSION, cursor.getLong(1));
+                values.put(ItemEntry.COLUMN_ITEM_UPDATED_AT, cursor.getLong(2));
+                values.put(ItemEntry.SYNC_DELETED, true);
+                changes.add(values);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (changes.size() == limit) {
+            return changes;
+        }
+
+        cursor = database.query(ItemEntry.COUNTER_TABLE_NAME, ItemEntry.SYNC_COUNTER_COLUMNS,
+                ItemEntry.COLUMN_COUNTER_DIRTY + " = 1", null, null, null, null,
+                String.valueOf(limit - changes.size()));
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(readRow(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    /** Returns the columns of the current row, with their own type. */
+    private static ContentValues readRow(Cursor cursor) {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            String column = cursor.getColumnName(i);
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    values.putNull(column);
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values.put(column, cursor.getLong(i));
+                    break;
+                default:
+                    values.put(column, cursor.getString(i));
+                    break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Mark the pushed changes as synced, in a single transaction. An item which has changed again
+     * since it was read has another version or time, and a counter other units, so it stays dirty
+     * and is pushed again. Return the number of changes marked.
+     */
+    static int acknowledge(SQLiteDatabase database, List<ContentValues> changes) {
+        int acknowledged = 0;
+        database.beginTransaction();
+        SQLiteStatement clearDirty = database.compileStatement("UPDATE " + ItemEntry.TABLE_NAME + " SET "
+                + ItemEntry.COLUMN_ITEM_DIRTY + " = 0 WHERE " + ItemEntry.COLUMN_ITEM_SYNC_ID + " = ? AND "
+                + ItemEntry.COLUMN_ITEM_VERSION + " = ? AND " + ItemEntry.COLUMN_ITEM_UPDATED_AT + " = ?");
+        SQLiteStatement deleteTombstone = database.compileStatement("DELETE FROM " + ItemEntry.TOMBSTONE_TABLE_NAME
+                + " WHERE " + ItemEntry.COLUMN_TOMBSTONE_SYNC_ID + " = ? AND "
+                + ItemEntry.COLUMN_TOMBSTONE_VERSION + " = ?");
+        SQLiteStatement clearCounter = database.compileStatement("UPDATE " + ItemEntry.COUNTER_TABLE_NAME + " SET "
+                + ItemEntry.COLUMN_COUNTER_DIRTY + " = 0 WHERE " + ItemEntry.COLUMN_COUNTER_SYNC_ID + " = ? AND "
+                + ItemEntry.COLUMN_COUNTER_DEVICE_ID + " = ? AND " + ItemEntry.COLUMN_COUNTER_INCREMENTS + " = ? AND "
+                + ItemEntry.COLUMN_COUNTER_DECREMENTS + " = ?");
+        try {
+            for (ContentValues change : changes) {
+                if (isCounter(change)) {
+                    clearCounter.bindString(1, change.getAsString(ItemEntry.COLUMN_COUNTER_SYNC_ID));
+                    clearCounter.bindString(2, change.getAsString(ItemEntry.COLUMN_COUNTER_DEVICE_ID));
+                    clearCounter.bindLong(3, change.getAsLong(ItemEntry.COLUMN_COUNTER_INCREMENTS));
+                    clearCounter.bindLong(4, change.getAsLong(ItemEntry.COLUMN_COUNTER_DECREMENTS));
+                    acknowledged += clearCounter.executeUpdateDelete();
+                    continue;
+                }
+                String syncId = change.getAsString(ItemEntry.COLUMN_ITEM_SYNC_ID);
+                long version = change.getAsLong(ItemEntry.COLUMN_ITEM_VERSION);
+                if (isDeletion(change)) {
+                    deleteTombstone.bindString(1, syncId);
+                    deleteTombstone.bindLong(2, version);
+                    acknowledged += deleteTombstone.executeUpdateDelete();
+                } else {
+                    clearDirty.bindString(1, syncId);
+                    clearDirty.bindLong(2, version);
+                    clearDirty.bindLong(3, change.getAsLong(ItemEntry.COLUMN_ITEM_UPDATED_AT));
+                    acknowledged += clearDirty.executeUpdateDelete();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            clearDirty.close();
+            deleteTombstone.close();
+            clearCounter.close();
+            database.endTransaction();
+        }
+        return acknowledged;
+    }
+
+    /**
+     * Replay the changes pulled from the sync server and store their watermark, in a single
+     * transaction so an interrupted sync pulls the whole batch again. Return the number of items
+     * and counters written, the changes they already hold or which lose to a local change are skipped.
+     */
+    static int apply(SQLiteDatabase database, ItemStatements statements, List<ContentValues> changes,
+                     long watermark) {
+        int applied = 0;
+        database.beginTransaction();
+        try {
+            for (ContentValues change : changes) {
+                if (isCounter(change) ? mergeCounter(database, statements, change)
+                        : applyChange(database, statements, change)) {
+                    applied++;
+                }
+            }
+            database.execSQL("UPDATE " + ItemEntry.SYNC_STATE_TABLE_NAME + " SET "
+                    + ItemEntry.COLUMN_SYNC_STATE_VALUE + " = ? WHERE " + ItemEntry.COLUMN_SYNC_STATE_KEY + " = ?",
+                    new Object[]{watermark, ItemEntry.SYNC_STATE_PULL_WATERMARK});
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return applied;
+    }
+
+    /**
+     * Write a single pulled change to its item, unless the item already holds it. The server has
+     * already settled the conflicts between the devices, so its change wins over the item, except
+     * over a local change not pushed yet with a higher version (or the same version but later),
+     * which the server gets with the next push.
+     */
+    private static boolean applyChange(SQLiteDatabase database, ItemStatements statements, ContentValues change) {
+        String syncId = change.getAsString(ItemEntry.COLUMN_ITEM_SYNC_ID);
+        long version = change.getAsLong(ItemEntry.COLUMN_ITEM_VERSION);
+        long updatedAt = change.getAsLong(ItemEntry.COLUMN_ITEM_UPDATED_AT);
+
+        long id = -1;
+        Cursor cursor = database.query(ItemEntry.TABLE_NAME, new String[]{ItemEntry._ID,
+                        ItemEntry.COLUMN_ITEM_VERSION, ItemEntry.COLUMN_ITEM_UPDATED_AT, ItemEntry.COLUMN_ITEM_DIRTY},
+                ItemEntry.COLUMN_ITEM_SYNC_ID + " = ?", new String[]{syncId}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                long localVersion = cursor.getLong(1);
+                long localUpdatedAt = cursor.getLong(2);
+                boolean dirty = cursor.getInt(3) != 0;
+                if (dirty ? !isNewer(version, updatedAt, localVersion, localUpdatedAt)
+                        : version == localVersion && updatedAt == localUpdatedAt) {
+                    return false;
+                }
+                id = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (id == -1) {
+            // The item may have been deleted here after the change, then the deletion wins
+            cursor = database.query(ItemEntry.TOMBSTONE_TABLE_NAME, new String[]{ItemEntry.COLUMN_TOMBSTONE_VERSION,
+                            ItemEntry.COLUMN_TOMBSTONE_DELETED_AT},
+                    ItemEntry.COLUMN_TOMBSTONE_SYNC_ID + " = ?", new String[]{syncId}, null, null, null);
+            try {
+                if (cursor.moveToFirst() && !isNewer(version, updatedAt, cursor.getLong(0), cursor.getLong(1))) {
+                    return false;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        String[] tombstoneArgs = new String[]{syncId};
+        String tombstoneSelection = ItemEntry.COLUMN_TOMBSTONE_SYNC_ID + " = ?";
+        if (isDeletion(change)) {
+            if (id == -1) {
+                return false;
+            }
+            // The delete trigger leaves a tombstone, which must not be pushed back
+            database.delete(ItemEntry.TABLE_NAME, ItemEntry._ID + " = " + id, null);
+            database.delete(ItemEntry.TOMBSTONE_TABLE_NAME, tombstoneSelection, tombstoneArgs);
+            return true;
+        }
+
+        // Setting the version, time and dirty flag keeps the sync triggers from taking the write
+        // for a local change
+        ContentValues values = new ContentValues();
+        for (String column : ItemEntry.SYNC_COLUMNS) {
+            if (change.containsKey(column)) {
+                values.put(column, change.getAsString(column));
+            }
+        }
+        values.put(ItemEntry.COLUMN_ITEM_VERSION, version);
+        values.put(ItemEntry.COLUMN_ITEM_UPDATED_AT, updatedAt);
+        values.put(ItemEntry.COLUMN_ITEM_DIRTY, 0);
+        // The suppliers are not synced, an unknown one is replaced by the main supplier
+        Long supplierId = change.getAsLong(ItemEntry.COLUMN_ITEM_SUPPLIER_ID);
+        if (supplierId != null && DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM "
+                + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID + " = ?",
+                new String[]{String.valueOf(supplierId)}) == 0) {
+            values.put(ItemEntry.COLUMN_ITEM_SUPPLIER_ID, ItemEntry.SUPPLIER_MAIN);
+        }
+
+        if (id == -1) {
+            // The counters of the item may have been pulled before it
+            long quantity = Math.max(DatabaseUtils.longForQuery(database, "SELECT " + MERGED_QUANTITY,
+                    new String[]{syncId}), 0);
+            values.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantity);
+            id = database.insertOrThrow(ItemEntry.TABLE_NAME, null, values);
+            if (quantity != 0) {
+                recordSyncMovement(statements, id, quantity);
+            }
+        } else {
+            database.update(ItemEntry.TABLE_NAME, values, ItemEntry._ID + " = " + id, null);
+        }
+        // A newer change brings back an item deleted here
+        database.delete(ItemEntry.TOMBSTONE_TABLE_NAME, tombstoneSelection, tombstoneArgs);
+        return true;
+    }
+
+    /**
+     * Merge a pulled quantity counter into its local copy and write the new quantity to the item,
+     * unless the local copy already holds it. Return whether the counter changed.
+     */
+    private static boolean mergeCounter(SQLiteDatabase database, ItemStatements statements, ContentValues change) {
+        String syncId = change.getAsString(ItemEntry.COLUMN_COUNTER_SYNC_ID);
+        String deviceId = change.getAsString(ItemEntry.COLUMN_COUNTER_DEVICE_ID);
+        SQLiteStatement insert = statements.insertCounter();
+        insert.bindString(1, syncId);
+        insert.bindString(2, deviceId);
+        insert.executeInsert();
+
+        SQLiteStatement merge = statements.mergeCounter();
+        merge.bindLong(1, change.getAsLong(ItemEntry.COLUMN_COUNTER_INCREMENTS));
+        merge.bindLong(2, change.getAsLong(ItemEntry.COLUMN_COUNTER_DECREMENTS));
+        merge.bindString(3, syncId);
+        merge.bindString(4, deviceId);
+        if (merge.executeUpdateDelete() == 0) {
+            return false;
+        }
+
+        // The merged quantity can't be less than the stock of the locations other than the main one,
+        // which are only known here, the main location takes the rest
+        Cursor cursor = database.rawQuery("SELECT " + ItemEntry._ID + ", " + ItemEntry.COLUMN_ITEM_QUANTITY + ", MAX("
+                + MERGED_QUANTITY + ", (SELECT IFNULL(SUM(" + StockLevelEntry.COLUMN_STOCK_QUANTITY + "), 0) FROM "
+                + StockLevelEntry.TABLE_NAME + " WHERE " + StockLevelEntry.COLUMN_STOCK_ITEM_ID + " = "
+                + ItemEntry.TABLE_NAME + "." + ItemEntry._ID + " AND " + StockLevelEntry.COLUMN_STOCK_LOCATION_ID
+                + " <> " + LocationEntry.LOCATION_MAIN + ")) FROM " + ItemEntry.TABLE_NAME + " WHERE "
+                + ItemEntry.COLUMN_ITEM_SYNC_ID + " = ?1", new String[]{syncId});
+        try {
+            if (cursor.moveToFirst() && cursor.getLong(1) != cursor.getLong(2)) {
+                long id = cursor.getLong(0);
+                SQLiteStatement update = statements.updateQuantity();
+                update.bindLong(1, cursor.getLong(2));
+                update.bindLong(2, id);
+                update.executeUpdateDelete();
+                recordSyncMovement(statements, id, cursor.getLong(2) - cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return true;
+    }
+
+    /**
+     * Record a change of the quantity merged from the other devices in the stock ledger, which the
+     * counter of this device leaves out.
+     */
+    private static void recordSyncMovement(ItemStatements statements, long id, long delta) {
+        SQLiteStatement record = statements.recordMovement();
+        record.bindLong(1, id);
+        record.bindLong(2, delta);
+        record.bindLong(3, StockMovementEntry.REASON_SYNC);
+        record.bindLong(4, System.currentTimeMillis());
+        record.bindLong(5, LocationEntry.LOCATION_MAIN);
+        record.executeInsert();
+    }
+
+    /** Returns whether the change with the first version and time wins over the second one. */
+    private static boolean isNewer(long version, long updatedAt, long otherVersion, long otherUpdatedAt) {
+        return version > otherVersion || (version == otherVersion && updatedAt > otherUpdatedAt);
+    }
+
+    private static boolean isCounter(ContentValues change) {
+        return change.containsKey(ItemEntry.COLUMN_COUNTER_DEVICE_ID);
+    }
+
+    private static boolean isDeletion(ContentValues change) {
+        Boolean deleted = change.getAsBoolean(ItemEntry.SYNC_DELETED);
+        return deleted != null && deleted;
+    }
+}
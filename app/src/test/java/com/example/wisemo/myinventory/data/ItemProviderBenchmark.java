@@ -0,0 +1,308 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+import com.example.wisemo.myinventory.data.ItemContract.LocationEntry;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.json.JSONException;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Host-side benchmark of the hot paths of the {@link ItemProvider} and {@link ItemDbHelper},
+ * on the SQLite of Robolectric, for tables of 1k, 10k and 100k items.
+ * Only runs with {@code ./gradlew testDebugUnitTest -Pbenchmark=true --tests '*Benchmark'}.
+ * Every measurement is printed and written as a JSON line to
+ * {@code app/build/benchmark-results/item-provider.jsonl}, to track the regressions.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemProviderBenchmark {
+
+    /** Number of operations measured for the single item benchmarks */
+    private static final int OPERATIONS = 1000;
+
+    /** Number of full list loads measured */
+    private static final int LIST_LOADS = 5;
+
+    /** Number of incremental syncs measured, and the number of items changed on each side before each one */
+    private static final int SYNC_ROUNDS = 20;
+    private static final int SYNC_CHANGES = 10;
+
+    private static Writer sResults;
+
+    private ItemProvider mProvider;
+
+    @BeforeClass
+    public static void openResults() throws IOException {
+        File directory = new File("build/benchmark-results");
+        directory.mkdirs();
+        sResults = new FileWriter(new File(directory, "item-provider.jsonl"));
+    }
+
+    @AfterClass
+    public static void closeResults() throws IOException {
+        sResults.close();
+    }
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Benchmarks only run with -Pbenchmark=true", Boolean.getBoolean("benchmark"));
+        mProvider = Robolectric.setupContentProvider(ItemProvider.class, ItemContract.CONTENT_AUTHORITY);
+    }
+
+    @Test
+    public void benchmark1k() throws IOException {
+        benchmark(1000);
+    }
+
+    @Test
+    public void benchmark10k() throws IOException {
+        benchmark(10000);
+    }
+
+    @Test
+    public void benchmark100k() throws IOException {
+        benchmark(100000);
+    }
+
+    private void benchmark(int rows) throws IOException {
+        // Fill the table in batches of 1000 items
+        long[] latencies = new long[rows / 1000];
+        for (int i = 0; i < latencies.length; i++) {
+            ContentValues[] batch = new ContentValues[1000];
+            for (int j = 0; j < batch.length; j++) {
+                batch[j] = newItem(i * 1000 + j);
+            }
+            long start = System.nanoTime();
+            mProvider.bulkInsert(ItemEntry.CONTENT_URI, batch);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("bulk_insert_1000", rows, latencies);
+
+        // Single inserts, their IDs follow the ones of the filled table
+        latencies = new long[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            ContentValues values = newItem(rows + i);
+            long start = System.nanoTime();
+            mProvider.insert(ItemEntry.CONTENT_URI, values);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("insert", rows, latencies);
+
+        // Updates of the quantity by ITEM_ID
+        latencies = new long[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ItemEntry.COLUMN_ITEM_QUANTITY, i);
+            Uri uri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 1 + (i * 7919L) % rows);
+            long start = System.nanoTime();
+            mProvider.update(uri, values, null, null);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("update_item_id", rows, latencies);
+
+        // Sales of one unit, like the sale button of the list
+        latencies = new long[OPERATIONS];
+        Bundle sale = new Bundle();
+        sale.putInt(ItemContract.EXTRA_QUANTITY_DELTA, -1);
+        sale.putInt(ItemContract.EXTRA_REASON, ItemContract.StockMovementEntry.REASON_SALE);
+        for (int i = 0; i < OPERATIONS; i++) {
+            String id = String.valueOf(1 + (i * 7919L) % rows);
+            long start = System.nanoTime();
+            mProvider.call(ItemContract.METHOD_ADJUST_QUANTITY, id, sale);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("adjust_quantity", rows, latencies);
+
+        // Restocks of one unit at a second location, the total of the item is rolled up by the triggers
+        ContentValues warehouse = new ContentValues();
+        warehouse.put(LocationEntry.COLUMN_LOCATION_NAME, "Warehouse");
+        long locationId = ContentUris.parseId(mProvider.insert(LocationEntry.CONTENT_URI, warehouse));
+        latencies = new long[OPERATIONS];
+        Bundle restock = new Bundle();
+        restock.putInt(ItemContract.EXTRA_QUANTITY_DELTA, 1);
+        restock.putLong(ItemContract.EXTRA_LOCATION_ID, locationId);
+        for (int i = 0; i < OPERATIONS; i++) {
+            String id = String.valueOf(1 + (i * 7919L) % rows);
+            long start = System.nanoTime();
+            mProvider.call(ItemContract.METHOD_ADJUST_QUANTITY, id, restock);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("adjust_quantity_location", rows, latencies);
+
+        // Lookups of a single item by ITEM_ID
+        latencies = new long[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            Uri uri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 1 + (i * 7919L) % rows);
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(uri, null, null, null, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("query_item_id", rows, latencies);
+
+        // Loads of the whole list, reading every row
+        latencies = new long[LIST_LOADS];
+        for (int i = 0; i < LIST_LOADS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(ItemEntry.CONTENT_URI, null, null, null, null);
+            try {
+                int count = 0;
+                while (cursor.moveToNext()) {
+                    count++;
+                }
+                assertEquals(rows + OPERATIONS, count);
+            } finally {
+                cursor.close();
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("query_full_list", rows, latencies);
+
+        // Loads of the whole list with the projection of the list rows, the description snippets
+        // instead of the full descriptions
+        latencies = new long[LIST_LOADS];
+        for (int i = 0; i < LIST_LOADS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(ItemEntry.CONTENT_URI, ItemEntry.LIST_PROJECTION, null, null, null);
+            try {
+                int count = 0;
+                while (cursor.moveToNext()) {
+                    count++;
+                }
+                assertEquals(rows + OPERATIONS, count);
+            } finally {
+                cursor.close();
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("query_full_list_snippets", rows, latencies);
+
+        // Deletes by ITEM_ID of the items inserted one by one
+        latencies = new long[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            Uri uri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, rows + 1 + i);
+            long start = System.nanoTime();
+            mProvider.delete(uri, null, null);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("delete_item_id", rows, latencies);
+
+        // Syncs with the stand-in server: the first one pushes every item, then each one pushes the
+        // items changed here and pulls the items changed by another device, which are different ones
+        SyncServerStandIn server = new SyncServerStandIn();
+        try {
+            ItemSyncEngine engine = new ItemSyncEngine(RuntimeEnvironment.application.getContentResolver(),
+                    server.getUrl());
+            long start = System.nanoTime();
+            engine.sync();
+            report("sync_initial", rows, new long[]{System.nanoTime() - start});
+
+            latencies = new long[SYNC_ROUNDS];
+            for (int i = 0; i < SYNC_ROUNDS; i++) {
+                for (int j = 0; j < SYNC_CHANGES; j++) {
+                    ContentValues values = new ContentValues();
+                    values.put(ItemEntry.COLUMN_ITEM_PRICE, 100 + i);
+                    mProvider.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, rows - i * SYNC_CHANGES - j),
+                            values, null, null);
+                }
+                server.changeItemsFromOtherDevice(SYNC_CHANGES);
+                start = System.nanoTime();
+                engine.sync();
+                latencies[i] = System.nanoTime() - start;
+            }
+            report("sync_10_changes", rows, latencies);
+
+            // Syncs after the same items were sold here and on another device, merging the quantity
+            // counters of the devices. The items are restocked to 100 first.
+            ContentValues stocked = new ContentValues();
+            stocked.put(ItemEntry.COLUMN_ITEM_QUANTITY, 100);
+            for (int id = 1; id <= SYNC_ROUNDS * SYNC_CHANGES; id++) {
+                mProvider.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), stocked, null, null);
+            }
+            engine.sync();
+            latencies = new long[SYNC_ROUNDS];
+            for (int i = 0; i < SYNC_ROUNDS; i++) {
+                for (int j = 1; j <= SYNC_CHANGES; j++) {
+                    long id = i * SYNC_CHANGES + j;
+                    mProvider.call(ItemContract.METHOD_ADJUST_QUANTITY, String.valueOf(id), sale);
+                    server.sellFromOtherDevice(readItem(id, ItemEntry.COLUMN_ITEM_SYNC_ID), 1);
+                }
+                start = System.nanoTime();
+                engine.sync();
+                latencies[i] = System.nanoTime() - start;
+            }
+            report("sync_10_sales", rows, latencies);
+        } catch (JSONException e) {
+            throw new AssertionError(e);
+        } finally {
+            server.stop();
+        }
+    }
+
+    /** Returns the given column of the item with the ID, as a string. */
+    private String readItem(long id, String column) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id),
+                new String[]{column}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues newItem(int i) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_CATEGORY_TYPE, i % 6);
+        values.put(ItemEntry.COLUMN_ITEM_PRODUCT_NAME, "Product " + i);
+        values.put(ItemEntry.COLUMN_ITEM_DESCRIPTION, "Description of the product number " + i);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 80 + i % 1000);
+        values.put(ItemEntry.COLUMN_ITEM_AVAILABILITY, ItemEntry.ITEM_IN_STOCK);
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, i % 500);
+        values.put(ItemEntry.COLUMN_ITEM_SUPPLIER_ID, i % 4);
+        return values;
+    }
+
+    /** Print and record the throughput and the latency percentiles of the operations. */
+    private static void report(String name, int rows, long[] latencies) throws IOException {
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        String result = String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"rows\":%d,\"ops\":%d,\"ops_per_sec\":%.1f,\"p50_us\":%.1f,\"p99_us\":%.1f}",
+                name, rows, sorted.length, sorted.length * 1e9 / total,
+                sorted[sorted.length / 2] / 1e3, sorted[sorted.length * 99 / 100] / 1e3);
+        System.out.println(result);
+        sResults.write(result + "\n");
+        sResults.flush();
+    }
+}
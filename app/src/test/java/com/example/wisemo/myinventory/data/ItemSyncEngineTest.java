@@ -0,0 +1,224 @@
+package com.example.wisemo.myinventory.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+import com.example.wisemo.myinventory.data.ItemContract.StockMovementEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the sync of the {@link ItemProvider} with the {@link SyncServerStandIn} through the
+ * {@link ItemSyncEngine}: only the changed items are pushed and pulled, the deletions go both ways,
+ * the conflicts are settled by version and the sales of two devices on the same item are both kept.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemSyncEngineTest {
+
+    private static final int ITEMS = 20;
+
+    private ItemProvider mProvider;
+    private SyncServerStandIn mServer;
+    private ItemSyncEngine mEngine;
+
+    @Before
+    public void setUp() throws IOException {
+        mProvider = Robolectric.setupContentProvider(ItemProvider.class, ItemContract.CONTENT_AUTHORITY);
+        mServer = new SyncServerStandIn();
+        mEngine = new ItemSyncEngine(RuntimeEnvironment.application.getContentResolver(), mServer.getUrl());
+        for (int i = 0; i < ITEMS; i++) {
+            insertItem(i);
+        }
+        mEngine.sync();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void syncWithoutChangesPushesAndPullsNothing() throws IOException {
+        ItemSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(0, result.pushed);
+        assertEquals(0, result.pulled);
+        assertEquals(0, result.applied);
+    }
+
+    @Test
+    public void syncPushesAndPullsOnlyTheChangedItems() throws IOException, JSONException {
+        for (long id = ITEMS - 2; id <= ITEMS; id++) {
+            setPrice(id, 500);
+        }
+        // The other device changes the first two items pushed, which weren't changed here
+        mServer.changeItemsFromOtherDevice(2);
+
+        ItemSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(3, result.pushed);
+        assertEquals(2, result.pulled);
+        assertEquals(2, result.applied);
+        assertEquals(500, mServer.getItem(readItem(ITEMS, ItemEntry.COLUMN_ITEM_SYNC_ID))
+                .getLong(ItemEntry.COLUMN_ITEM_PRICE));
+        assertEquals("81", readItem(1, ItemEntry.COLUMN_ITEM_PRICE));
+        assertEquals("82", readItem(2, ItemEntry.COLUMN_ITEM_PRICE));
+        assertEquals(0, mEngine.sync().pushed);
+    }
+
+    @Test
+    public void localDeletionIsPushedAsTombstone() throws IOException, JSONException {
+        String syncId = readItem(1, ItemEntry.COLUMN_ITEM_SYNC_ID);
+        mProvider.delete(itemUri(1), null, null);
+
+        ItemSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(1, result.pushed);
+        assertTrue(mServer.getItem(syncId).optBoolean(ItemEntry.SYNC_DELETED));
+        // The acknowledged tombstone is not pushed again
+        assertEquals(0, mEngine.sync().pushed);
+    }
+
+    @Test
+    public void remoteDeletionDeletesTheItem() throws IOException, JSONException {
+        mServer.deleteItemFromOtherDevice(readItem(1, ItemEntry.COLUMN_ITEM_SYNC_ID));
+
+        ItemSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(1, result.pulled);
+        assertEquals(1, result.applied);
+        assertEquals(0, countItems(itemUri(1)));
+        assertEquals(ITEMS - 1, countItems(ItemEntry.CONTENT_URI));
+        // The deletion replayed here leaves no tombstone to push back
+        assertEquals(0, mEngine.sync().pushed);
+    }
+
+    @Test
+    public void localChangeWithHigherVersionWins() throws IOException, JSONException {
+        String syncId = readItem(1, ItemEntry.COLUMN_ITEM_SYNC_ID);
+        long version = Long.parseLong(readItem(1, ItemEntry.COLUMN_ITEM_VERSION));
+        setPrice(1, 200);
+        setPrice(1, 300);
+        assertTrue(mServer.changeItemFromOtherDevice(syncId, version + 1, 400));
+
+        ItemSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(1, result.pushed);
+        assertEquals(0, result.applied);
+        assertEquals("300", readItem(1, ItemEntry.COLUMN_ITEM_PRICE));
+        assertEquals(300, mServer.getItem(syncId).getLong(ItemEntry.COLUMN_ITEM_PRICE));
+    }
+
+    @Test
+    public void remoteChangeWithHigherVersionWins() throws IOException, JSONException {
+        String syncId = readItem(1, ItemEntry.COLUMN_ITEM_SYNC_ID);
+        long version = Long.parseLong(readItem(1, ItemEntry.COLUMN_ITEM_VERSION));
+        setPrice(1, 200);
+        assertTrue(mServer.changeItemFromOtherDevice(syncId, version + 5, 400));
+
+        ItemSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(1, result.pulled);
+        assertEquals(1, result.applied);
+        assertEquals("400", readItem(1, ItemEntry.COLUMN_ITEM_PRICE));
+        assertEquals(String.valueOf(version + 5), readItem(1, ItemEntry.COLUMN_ITEM_VERSION));
+        assertEquals(400, mServer.getItem(syncId).getLong(ItemEntry.COLUMN_ITEM_PRICE));
+        // The local change lost, the item isn't pushed again
+        assertEquals(0, mEngine.sync().pushed);
+    }
+
+    @Test
+    public void salesOfTwoDevicesAreBothKept() throws IOException, JSONException {
+        String syncId = readItem(1, ItemEntry.COLUMN_ITEM_SYNC_ID);
+        assertEquals("100", readItem(1, ItemEntry.COLUMN_ITEM_QUANTITY));
+        Bundle sale = new Bundle();
+        sale.putInt(ItemContract.EXTRA_QUANTITY_DELTA, -1);
+        sale.putInt(ItemContract.EXTRA_REASON, StockMovementEntry.REASON_SALE);
+        mProvider.call(ItemContract.METHOD_ADJUST_QUANTITY, "1", sale);
+        mServer.sellFromOtherDevice(syncId, 2);
+
+        ItemSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(1, result.pushed);
+        assertEquals(1, result.pulled);
+        assertEquals(1, result.applied);
+        assertEquals("97", readItem(1, ItemEntry.COLUMN_ITEM_QUANTITY));
+        JSONObject counter = mServer.getCounter(syncId, deviceId());
+        assertNotNull(counter);
+        assertEquals(1, counter.getLong(ItemEntry.COLUMN_COUNTER_DECREMENTS));
+
+        // Merging the same counters again changes nothing
+        result = mEngine.sync();
+        assertEquals(0, result.pushed);
+        assertEquals(0, result.pulled);
+        assertEquals("97", readItem(1, ItemEntry.COLUMN_ITEM_QUANTITY));
+    }
+
+    private void insertItem(int i) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_CATEGORY_TYPE, ItemEntry.TYPE_CASUAL);
+        values.put(ItemEntry.COLUMN_ITEM_PRODUCT_NAME, "Product " + i);
+        values.put(ItemEntry.COLUMN_ITEM_DESCRIPTION, "Description of the product number " + i);
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, 80 + i);
+        values.put(ItemEntry.COLUMN_ITEM_AVAILABILITY, ItemEntry.ITEM_IN_STOCK);
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, 100);
+        values.put(ItemEntry.COLUMN_ITEM_SUPPLIER_ID, ItemEntry.SUPPLIER_MAIN);
+        mProvider.insert(ItemEntry.CONTENT_URI, values);
+    }
+
+    private void setPrice(long id, int price) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_PRICE, price);
+        assertEquals(1, mProvider.update(itemUri(id), values, null, null));
+    }
+
+    /** Returns the device ID this provider syncs under. */
+    private String deviceId() {
+        Bundle limit = new Bundle();
+        limit.putInt(ItemContract.EXTRA_SYNC_LIMIT, 1);
+        return mProvider.call(ItemContract.METHOD_GET_SYNC_CHANGES, null, limit)
+                .getString(ItemContract.EXTRA_SYNC_DEVICE_ID);
+    }
+
+    /** Returns the given column of the item with the ID, as a string. */
+    private String readItem(long id, String column) {
+        Cursor cursor = mProvider.query(itemUri(id), new String[]{column}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countItems(Uri uri) {
+        Cursor cursor = mProvider.query(uri, new String[]{ItemEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri itemUri(long id) {
+        return ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id);
+    }
+}
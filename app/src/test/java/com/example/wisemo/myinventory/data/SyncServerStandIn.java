@@ -0,0 +1,312 @@
+package com.example.wisemo.myinventory.data;
+
+import com.example.wisemo.myinventory.data.ItemContract.ItemEntry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process stand-in of the inventory server for the sync tests and benchmarks, on the HTTP server of
+ * the JDK.
+ * It keeps the latest change of every item, in the order they were first pushed, and a log of these
+ * changes ordered by the watermark they were stored at. A pushed change wins over the stored one with
+ * a higher version, then a later time, then a higher device ID, like {@link ItemSyncEngine} expects.
+ * The quantity counters are merged instead, keeping the highest units of each.
+ */
+final class SyncServerStandIn {
+
+    /** Device ID of the changes made by the FromOtherDevice methods */
+    private static final String OTHER_DEVICE = "other-device";
+
+    private static final String[] COUNTER_UNITS = {
+            ItemEntry.COLUMN_COUNTER_INCREMENTS, ItemEntry.COLUMN_COUNTER_DECREMENTS};
+
+    private static final class Change {
+        final JSONObject object;
+        final String device;
+        final long watermark;
+
+        Change(JSONObject object, String device, long watermark) {
+            this.object = object;
+            this.device = device;
+            this.watermark = watermark;
+        }
+    }
+
+    private final HttpServer mServer;
+
+    /** Latest change of every item, by sync ID */
+    private final Map<String, Change> mItems = new LinkedHashMap<>();
+
+    /** Merged quantity counters, by sync ID of their item and device ID */
+    private final Map<String, Change> mCounters = new HashMap<>();
+
+    /**
+     * The latest changes of the items and counters by watermark, the older changes of an item or a
+     * counter are dropped
+     */
+    private final NavigableMap<Long, Change> mLog = new TreeMap<>();
+
+    private long mWatermark;
+
+    /** Position of the next item changed by {@link #changeItemsFromOtherDevice}, in the order of mItems */
+    private int mNextOtherChange;
+
+    SyncServerStandIn() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/items/changes", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    JSONObject response;
+                    if ("POST".equals(exchange.getRequestMethod())) {
+                        JSONObject body = new JSONObject(readBody(exchange));
+                        response = push(body.getString("device"), body.getJSONArray("changes"));
+                    } else {
+                        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                        response = pull(Long.parseLong(query.get("since")), Integer.parseInt(query.get("limit")),
+                                query.get("device"));
+                    }
+                    send(exchange, 200, response.toString());
+                } catch (JSONException | RuntimeException e) {
+                    send(exchange, 400, "{\"error\":" + JSONObject.quote(String.valueOf(e.getMessage())) + "}");
+                }
+            }
+        });
+        mServer.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    void stop() {
+        mServer.stop(0);
+    }
+
+    /**
+     * Change the price of the given number of items as another device would, taking the items in the
+     * order they were first pushed, so the pulls of the device return them.
+     */
+    synchronized void changeItemsFromOtherDevice(int count) throws JSONException {
+        Iterator<Change> iterator = mItems.values().iterator();
+        for (int i = 0; i < mNextOtherChange && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        JSONArray changes = new JSONArray();
+        while (changes.length() < count && iterator.hasNext()) {
+            mNextOtherChange++;
+            JSONObject object = iterator.next().object;
+            if (object.optBoolean(ItemEntry.SYNC_DELETED)) {
+                continue;
+            }
+            JSONObject change = new JSONObject(object.toString());
+            change.put(ItemEntry.COLUMN_ITEM_VERSION, object.getLong(ItemEntry.COLUMN_ITEM_VERSION) + 1);
+            change.put(ItemEntry.COLUMN_ITEM_UPDATED_AT, System.currentTimeMillis());
+            change.put(ItemEntry.COLUMN_ITEM_PRICE, object.getLong(ItemEntry.COLUMN_ITEM_PRICE) + 1);
+            changes.put(change);
+        }
+        push(OTHER_DEVICE, changes);
+    }
+
+    /**
+     * Change the price of the item with the given sync ID as another device would, giving the change
+     * the version. Return whether the change has been stored.
+     */
+    synchronized boolean changeItemFromOtherDevice(String syncId, long version, long price) throws JSONException {
+        JSONObject change = new JSONObject(mItems.get(syncId).object.toString());
+        change.put(ItemEntry.COLUMN_ITEM_VERSION, version);
+        change.put(ItemEntry.COLUMN_ITEM_UPDATED_AT, System.currentTimeMillis());
+        change.put(ItemEntry.COLUMN_ITEM_PRICE, price);
+        return push(OTHER_DEVICE, new JSONArray().put(change)).getInt("accepted") == 1;
+    }
+
+    /** Delete the item with the given sync ID as another device would, with its next version. */
+    synchronized void deleteItemFromOtherDevice(String syncId) throws JSONException {
+        JSONObject change = new JSONObject();
+        change.put(ItemEntry.COLUMN_ITEM_SYNC_ID, syncId);
+        change.put(ItemEntry.COLUMN_ITEM_VERSION, mItems.get(syncId).object.getLong(ItemEntry.COLUMN_ITEM_VERSION) + 1);
+        change.put(ItemEntry.COLUMN_ITEM_UPDATED_AT, System.currentTimeMillis());
+        change.put(ItemEntry.SYNC_DELETED, true);
+        push(OTHER_DEVICE, new JSONArray().put(change));
+    }
+
+    /** Returns the latest change stored for the item with the given sync ID, null if none. */
+    synchronized JSONObject getItem(String syncId) {
+        Change stored = mItems.get(syncId);
+        return stored == null ? null : stored.object;
+    }
+
+    /** Returns the units of the quantity counter of the item and device, null if none is stored. */
+    synchronized JSONObject getCounter(String syncId, String deviceId) {
+        Change stored = mCounters.get(syncId + "/" + deviceId);
+        return stored == null ? null : stored.object;
+    }
+
+    /** Sell units of the item with the given sync ID as another device would, in its counter. */
+    synchronized void sellFromOtherDevice(String syncId, int units) throws JSONException {
+        String key = syncId + "/" + OTHER_DEVICE;
+        Change stored = mCounters.get(key);
+        JSONObject counter = new JSONObject();
+        counter.put(ItemEntry.COLUMN_COUNTER_SYNC_ID, syncId);
+        counter.put(ItemEntry.COLUMN_COUNTER_DEVICE_ID, OTHER_DEVICE);
+        counter.put(ItemEntry.COLUMN_COUNTER_INCREMENTS,
+                stored == null ? 0 : stored.object.getLong(ItemEntry.COLUMN_COUNTER_INCREMENTS));
+        counter.put(ItemEntry.COLUMN_COUNTER_DECREMENTS,
+                (stored == null ? 0 : stored.object.getLong(ItemEntry.COLUMN_COUNTER_DECREMENTS)) + units);
+        push(OTHER_DEVICE, new JSONArray().put(counter));
+    }
+
+    private synchronized JSONObject push(String device, JSONArray changes) throws JSONException {
+        int accepted = 0;
+        for (int i = 0; i < changes.length(); i++) {
+            JSONObject object = changes.getJSONObject(i);
+            if (object.has(ItemEntry.COLUMN_COUNTER_DEVICE_ID)) {
+                if (mergeCounter(object, device)) {
+                    accepted++;
+                }
+                continue;
+            }
+            String syncId = object.getString(ItemEntry.COLUMN_ITEM_SYNC_ID);
+            Change stored = mItems.get(syncId);
+            if (stored != null && !wins(object, device, stored)) {
+                continue;
+            }
+            if (stored != null) {
+                mLog.remove(stored.watermark);
+            }
+            Change change = new Change(object, device, ++mWatermark);
+            mItems.put(syncId, change);
+            mLog.put(change.watermark, change);
+            accepted++;
+        }
+        return new JSONObject().put("accepted", accepted);
+    }
+
+    /**
+     * Returns at most the given number of changes after the watermark, leaving out the changes of
+     * the device itself, with the watermark of the last change read.
+     */
+    private synchronized JSONObject pull(long since, int limit, String device) throws JSONException {
+        JSONArray changes = new JSONArray();
+        long watermark = since;
+        boolean more = false;
+        for (Change change : mLog.tailMap(since, false).values()) {
+            if (changes.length() == limit) {
+                more = true;
+                break;
+            }
+            watermark = change.watermark;
+            if (!change.device.equals(device)) {
+                changes.put(change.object);
+            }
+        }
+        return new JSONObject().put("changes", changes).put("watermark", watermark).put("more", more);
+    }
+
+    /** Merge a pushed counter into the stored one, returning whether it changed. */
+    private boolean mergeCounter(JSONObject object, String device) throws JSONException {
+        String key = object.getString(ItemEntry.COLUMN_COUNTER_SYNC_ID) + "/"
+                + object.getString(ItemEntry.COLUMN_COUNTER_DEVICE_ID);
+        Change stored = mCounters.get(key);
+        JSONObject merged = new JSONObject(object.toString());
+        if (stored != null) {
+            boolean changed = false;
+            for (String column : COUNTER_UNITS) {
+                long units = object.getLong(column);
+                long storedUnits = stored.object.getLong(column);
+                changed |= units > storedUnits;
+                merged.put(column, Math.max(units, storedUnits));
+            }
+            if (!changed) {
+                return false;
+            }
+            mLog.remove(stored.watermark);
+        }
+        Change change = new Change(merged, device, ++mWatermark);
+        mCounters.put(key, change);
+        mLog.put(change.watermark, change);
+        return true;
+    }
+
+    private static boolean wins(JSONObject object, String device, Change stored) throws JSONException {
+        long version = object.getLong(ItemEntry.COLUMN_ITEM_VERSION);
+        long storedVersion = stored.object.getLong(ItemEntry.COLUMN_ITEM_VERSION);
+        if (version != storedVersion) {
+            return version > storedVersion;
+        }
+        long updatedAt = object.getLong(ItemEntry.COLUMN_ITEM_UPDATED_AT);
+        long storedUpdatedAt = stored.object.getLong(ItemEntry.COLUMN_ITEM_UPDATED_AT);
+        if (updatedAt != storedUpdatedAt) {
+            return updatedAt > storedUpdatedAt;
+        }
+        return device.compareTo(stored.device) > 0;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        InputStream input = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            input = new GZIPInputStream(input);
+        }
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toString("UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(body.getBytes("UTF-8"));
+        gzip.close();
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(status, compressed.size());
+        OutputStream output = exchange.getResponseBody();
+        try {
+            compressed.writeTo(output);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                            URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+                }
+            }
+        }
+        return parameters;
+    }
+}